@@ -1,9 +1,18 @@
 package in.kahl.promptwhispers;
 
 import com.cloudinary.Cloudinary;
+import in.kahl.promptwhispers.service.CircuitBreaker;
+import in.kahl.promptwhispers.service.JdkHttpCloudinary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
 import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.observability.ContextProviderFactory;
+import org.springframework.data.mongodb.observability.MongoObservationCommandListener;
 
 @SpringBootApplication
 public class BackendApplication {
@@ -13,7 +22,24 @@ public class BackendApplication {
     }
 
     @Bean
-    public Cloudinary cloudinaryBean() {
-        return new Cloudinary();
+    public Cloudinary cloudinaryBean(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        return virtualThreads ? new JdkHttpCloudinary() : new Cloudinary();
+    }
+
+    @Bean
+    public CircuitBreaker dalleCircuitBreaker(MeterRegistry meterRegistry, Environment environment) {
+        return new CircuitBreaker("dalle", CircuitBreaker.Settings.of(environment, "app.breakers.dalle"), meterRegistry);
+    }
+
+    @Bean
+    public CircuitBreaker cloudinaryCircuitBreaker(MeterRegistry meterRegistry, Environment environment) {
+        return new CircuitBreaker("cloudinary", CircuitBreaker.Settings.of(environment, "app.breakers.cloudinary"), meterRegistry);
+    }
+
+    // Every command the repositories send becomes a span of the request or job that sent it.
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoObservationCustomizer(ObservationRegistry observationRegistry) {
+        return builder -> builder.contextProvider(ContextProviderFactory.create(observationRegistry))
+                .addCommandListener(new MongoObservationCommandListener(observationRegistry));
     }
 }
@@ -0,0 +1,24 @@
+package in.kahl.promptwhispers.controller;
+
+import in.kahl.promptwhispers.service.CircuitBreaker;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// Available at /actuator/circuitbreakers.
+@Component
+@Endpoint(id = "circuitbreakers")
+public class CircuitBreakersEndpoint {
+    private final List<CircuitBreaker> circuitBreakers;
+
+    public CircuitBreakersEndpoint(List<CircuitBreaker> circuitBreakers) {
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    @ReadOperation
+    public List<CircuitBreaker.Snapshot> circuitBreakers() {
+        return circuitBreakers.stream().map(CircuitBreaker::getSnapshot).toList();
+    }
+}
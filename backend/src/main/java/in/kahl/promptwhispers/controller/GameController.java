@@ -1,41 +1,127 @@
 package in.kahl.promptwhispers.controller;
 
+import in.kahl.promptwhispers.exception.InvalidWaitDurationException;
 import in.kahl.promptwhispers.model.ErrorMessage;
 import in.kahl.promptwhispers.model.Game;
+import in.kahl.promptwhispers.model.ImageJob;
 import in.kahl.promptwhispers.model.Lobby;
+import in.kahl.promptwhispers.model.dto.GameResponse;
 import in.kahl.promptwhispers.model.dto.PromptCreate;
+import in.kahl.promptwhispers.service.DocumentVersions;
 import in.kahl.promptwhispers.service.GameService;
+import in.kahl.promptwhispers.service.ImageProxy;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.oauth2.core.user.OAuth2User;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.net.URI;
+import java.time.Duration;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/games")
 public class GameController {
+    // Keeps parked requests below the idle timeouts of common proxies.
+    private static final Duration MAX_WAIT = Duration.ofSeconds(60);
+
+    // A timeout of zero or less would let the container park the request without any timeout.
+    private static final Duration MIN_WAIT = Duration.ofSeconds(1);
+
     private final GameService gameService;
 
-    public GameController(GameService gameService) {
+    private final ImageProxy imageProxy;
+
+    public GameController(GameService gameService, ImageProxy imageProxy) {
         this.gameService = gameService;
+        this.imageProxy = imageProxy;
     }
 
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
-    public Game createGame(@AuthenticationPrincipal OAuth2User principal, @RequestBody Lobby lobby) {
-        return gameService.createGame(principal, lobby);
+    public GameResponse createGame(@AuthenticationPrincipal OAuth2User principal,
+                                   @RequestBody Lobby lobby,
+                                   @RequestParam(defaultValue = "false") boolean autoGenerateImages) {
+        return new GameResponse(gameService.createGame(principal, lobby, autoGenerateImages), imageProxy::proxyUrlOf);
     }
 
     @GetMapping("{gameId}")
-    public Game getGame(@PathVariable String gameId) {
-        return gameService.getGameById(gameId);
+    public ResponseEntity<GameResponse> getGame(@PathVariable String gameId,
+                                                @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        Optional<String> unchangedETag = gameService.findUnchangedETag(gameId, ifNoneMatch);
+        if (unchangedETag.isPresent()) {
+            return notModified(unchangedETag.get());
+        }
+
+        Game game = gameService.getGameById(gameId);
+        String eTag = DocumentVersions.eTagOf(game.version());
+        if (DocumentVersions.matches(ifNoneMatch, eTag)) {
+            return notModified(eTag);
+        }
+
+        return ResponseEntity.ok()
+                .eTag(eTag)
+                .cacheControl(CacheControl.noCache())
+                .body(new GameResponse(game, imageProxy::proxyUrlOf));
+    }
+
+    @GetMapping(path = "{gameId}", params = "sinceVersion")
+    public DeferredResult<ResponseEntity<GameResponse>> waitForGameChange(@PathVariable String gameId,
+                                                                          @RequestParam long sinceVersion,
+                                                                          @RequestParam(defaultValue = "30s") String wait) {
+        Duration timeout = clampWait(wait);
+        DeferredResult<ResponseEntity<GameResponse>> result = new DeferredResult<>(timeout.toMillis(),
+                () -> notModified(DocumentVersions.eTagOf(sinceVersion)));
+
+        Runnable stopWaiting = gameService.awaitGameChange(gameId, sinceVersion, game -> result.setResult(ResponseEntity.ok()
+                .eTag(DocumentVersions.eTagOf(game.version()))
+                .cacheControl(CacheControl.noCache())
+                .body(new GameResponse(game, imageProxy::proxyUrlOf))));
+        result.onCompletion(stopWaiting);
+
+        return result;
+    }
+
+    @GetMapping(path = "{gameId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamGameEvents(@PathVariable String gameId,
+                                       @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        return gameService.subscribeToGame(gameId, lastEventId);
+    }
+
+    private static Duration clampWait(String wait) {
+        Duration requestedWait;
+        try {
+            requestedWait = DurationStyle.detectAndParse(wait);
+        } catch (IllegalArgumentException exception) {
+            throw new InvalidWaitDurationException("The wait " + wait + " is no duration like 30s.", exception);
+        }
+        if (requestedWait.compareTo(MIN_WAIT) < 0) {
+            return MIN_WAIT;
+        }
+        return requestedWait.compareTo(MAX_WAIT) > 0 ? MAX_WAIT : requestedWait;
+    }
+
+    private static ResponseEntity<GameResponse> notModified(String eTag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .eTag(eTag)
+                .cacheControl(CacheControl.noCache())
+                .build();
     }
 
     @GetMapping()
-    public List<Game> getAllGames(@AuthenticationPrincipal OAuth2User principal) {
-        return gameService.getGamesByUser(principal);
+    public List<GameResponse> getAllGames(@AuthenticationPrincipal OAuth2User principal) {
+        return gameService.getGamesByUser(principal).stream()
+                .map(game -> new GameResponse(game, imageProxy::proxyUrlOf))
+                .toList();
     }
 
     @DeleteMapping("{gameId}")
@@ -46,14 +132,21 @@ public class GameController {
 
     @PostMapping("{gameId}/prompt")
     @ResponseStatus(HttpStatus.CREATED)
-    public Game submitPrompt(@AuthenticationPrincipal OAuth2User principal, @PathVariable String gameId, @RequestBody PromptCreate prompt) {
-        return gameService.submitPrompt(principal, gameId, prompt);
+    public GameResponse submitPrompt(@AuthenticationPrincipal OAuth2User principal, @PathVariable String gameId, @RequestBody PromptCreate prompt) {
+        return new GameResponse(gameService.submitPrompt(principal, gameId, prompt), imageProxy::proxyUrlOf);
     }
 
     @PostMapping("{gameId}/generateImage")
-    @ResponseStatus(HttpStatus.CREATED)
-    public Game generateImage(@AuthenticationPrincipal OAuth2User principal, @PathVariable String gameId) {
-        return gameService.generateImage(principal, gameId);
+    public ResponseEntity<ImageJob> generateImage(@AuthenticationPrincipal OAuth2User principal, @PathVariable String gameId) {
+        ImageJob job = gameService.generateImage(principal, gameId);
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/games/" + gameId + "/imageJobs/" + job.id()))
+                .body(job);
+    }
+
+    @GetMapping("{gameId}/imageJobs/{jobId}")
+    public ImageJob getImageJob(@PathVariable String gameId, @PathVariable String jobId) {
+        return gameService.getImageJob(gameId, jobId);
     }
 
     @ExceptionHandler(NoSuchElementException.class)
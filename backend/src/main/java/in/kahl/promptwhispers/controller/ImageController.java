@@ -0,0 +1,79 @@
+package in.kahl.promptwhispers.controller;
+
+import in.kahl.promptwhispers.service.LocalImageStore;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// Serves the images of the LocalImageStore.
+@RestController
+@RequestMapping("/api/images")
+@ConditionalOnProperty(name = "app.images.store", havingValue = "local")
+public class ImageController {
+    private final LocalImageStore imageStore;
+
+    public ImageController(LocalImageStore imageStore) {
+        this.imageStore = imageStore;
+    }
+
+    @GetMapping("{hash}")
+    public void getImage(@PathVariable String hash,
+                         @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                         @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+                         HttpServletResponse response) throws IOException {
+        LocalImageStore.StoredImage image = imageStore.findImage(hash).orElse(null);
+        if (image == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        String eTag = "\"" + image.hash() + "\"";
+        response.setHeader(HttpHeaders.ETAG, eTag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, ImageResponses.CACHE_CONTROL);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (eTag.equals(ifNoneMatch)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long start = 0;
+        long end = image.size() - 1;
+        if (range != null) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(range);
+            } catch (IllegalArgumentException invalidRange) {
+                ranges = List.of();
+            }
+            // Several ranges in one response aren't worth the multipart body for images, they get the whole image.
+            if (ranges.size() == 1) {
+                try {
+                    start = ranges.getFirst().getRangeStart(image.size());
+                    end = ranges.getFirst().getRangeEnd(image.size());
+                } catch (IllegalArgumentException unsatisfiable) {
+                    start = image.size();
+                }
+                if (start >= image.size() || start > end) {
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + image.size());
+                    return;
+                }
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + image.size());
+            }
+        }
+
+        response.setContentType(image.mediaType().toString());
+        response.setContentLengthLong(end - start + 1);
+        try (FileChannel file = FileChannel.open(image.path(), StandardOpenOption.READ)) {
+            ImageResponses.transfer(file, start, end, response);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package in.kahl.promptwhispers.controller;
+
+import in.kahl.promptwhispers.service.ImageProxy;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+
+@RestController
+@RequestMapping("/api/images/proxy")
+public class ImageProxyController {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageProxyController.class);
+
+    private final ImageProxy imageProxy;
+
+    public ImageProxyController(ImageProxy imageProxy) {
+        this.imageProxy = imageProxy;
+    }
+
+    @GetMapping
+    public void getImage(@RequestParam String url, HttpServletResponse response) throws IOException {
+        ImageProxy.CachedImage image;
+        try {
+            image = imageProxy.open(url).orElse(null);
+        } catch (IOException exception) {
+            LOGGER.warn("Could not fetch the image {}", url, exception);
+            response.setStatus(HttpServletResponse.SC_BAD_GATEWAY);
+            return;
+        }
+        if (image == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        try (image) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, ImageResponses.CACHE_CONTROL);
+            response.setContentType(image.mediaType().toString());
+            response.setContentLengthLong(image.size());
+            ImageResponses.transfer(image.channel(), 0, image.size() - 1, response);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package in.kahl.promptwhispers.controller;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.time.Duration;
+
+final class ImageResponses {
+    // Images are addressed by their content or by a URL that never gets a different image, so they can be cached for good.
+    static final String CACHE_CONTROL = CacheControl.maxAge(Duration.ofDays(365))
+            .cachePublic()
+            .getHeaderValue() + ", immutable";
+
+    private ImageResponses() {
+    }
+
+    // The servlet output stream only takes byte arrays, so the bytes pass through the buffer of the channel adapter.
+    static void transfer(FileChannel file, long start, long end, HttpServletResponse response) throws IOException {
+        WritableByteChannel body = Channels.newChannel(response.getOutputStream());
+        for (long position = start; position <= end; ) {
+            long transferred = file.transferTo(position, end + 1 - position, body);
+            if (transferred <= 0) {
+                // The file has become shorter than the announced length, the response can't be completed.
+                throw new EOFException("Image ended at byte " + position + " instead of " + end);
+            }
+            position += transferred;
+        }
+    }
+}
@@ -2,13 +2,18 @@ package in.kahl.promptwhispers.controller;
 
 import in.kahl.promptwhispers.model.ErrorMessage;
 import in.kahl.promptwhispers.model.Lobby;
+import in.kahl.promptwhispers.service.DocumentVersions;
 import in.kahl.promptwhispers.service.LobbyService;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.oauth2.core.user.OAuth2User;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.NoSuchElementException;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/lobbies")
@@ -26,8 +31,23 @@ public class LobbyController {
     }
 
     @GetMapping("{id}")
-    public Lobby getLobbyById(@PathVariable String id) {
-        return lobbyService.getLobbyById(id);
+    public ResponseEntity<Lobby> getLobbyById(@PathVariable String id,
+                                              @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        Optional<String> unchangedETag = lobbyService.findUnchangedETag(id, ifNoneMatch);
+        if (unchangedETag.isPresent()) {
+            return notModified(unchangedETag.get());
+        }
+
+        Lobby lobby = lobbyService.getLobbyById(id);
+        String eTag = DocumentVersions.eTagOf(lobby.version());
+        if (DocumentVersions.matches(ifNoneMatch, eTag)) {
+            return notModified(eTag);
+        }
+
+        return ResponseEntity.ok()
+                .eTag(eTag)
+                .cacheControl(CacheControl.noCache())
+                .body(lobby);
     }
 
     @PutMapping("{id}/join")
@@ -46,6 +66,13 @@ public class LobbyController {
         lobbyService.deleteLobby(principal, id);
     }
 
+    private static ResponseEntity<Lobby> notModified(String eTag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .eTag(eTag)
+                .cacheControl(CacheControl.noCache())
+                .build();
+    }
+
     @ExceptionHandler(NoSuchElementException.class)
     @ResponseStatus(HttpStatus.NOT_FOUND)
     public ErrorMessage handleLobbyNotFound() {
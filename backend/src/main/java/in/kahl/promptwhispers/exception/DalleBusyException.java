@@ -0,0 +1,16 @@
+package in.kahl.promptwhispers.exception;
+
+import java.time.Duration;
+
+public class DalleBusyException extends RuntimeException {
+    private final Duration retryAfter;
+
+    public DalleBusyException(String errorMessage, Duration retryAfter) {
+        super(errorMessage);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -1,12 +1,15 @@
 package in.kahl.promptwhispers.exception;
 
 import in.kahl.promptwhispers.model.ErrorMessage;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
+import java.util.concurrent.RejectedExecutionException;
+
 @RestControllerAdvice
 public class GlobalExceptionHandler {
     @ExceptionHandler(GoogleEmailNotFoundException.class)
@@ -15,9 +18,27 @@ public class GlobalExceptionHandler {
         return new ErrorMessage("GoogleEmailNotFoundException: " + ex.getMessage());
     }
 
+    @ExceptionHandler(InvalidWaitDurationException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public ErrorMessage handleInvalidWaitDuration(InvalidWaitDurationException ex) {
+        return new ErrorMessage("InvalidWaitDurationException: " + ex.getMessage());
+    }
+
     @ExceptionHandler(AccessDeniedException.class)
     @ResponseStatus(HttpStatus.FORBIDDEN)
     public ErrorMessage handleAccessDenied(AccessDeniedException ex) {
         return new ErrorMessage("AccessDeniedException: " + ex.getMessage());
     }
+
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    @ResponseStatus(HttpStatus.CONFLICT)
+    public ErrorMessage handleOptimisticLockingFailure(OptimisticLockingFailureException ex) {
+        return new ErrorMessage("OptimisticLockingFailureException: " + ex.getMessage());
+    }
+
+    @ExceptionHandler(RejectedExecutionException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public ErrorMessage handleRejectedExecution() {
+        return new ErrorMessage("RejectedExecutionException: Too many images are being generated right now. Please try again later.");
+    }
 }
@@ -0,0 +1,7 @@
+package in.kahl.promptwhispers.exception;
+
+public class InvalidWaitDurationException extends RuntimeException {
+    public InvalidWaitDurationException(String errorMessage, Throwable cause) {
+        super(errorMessage, cause);
+    }
+}
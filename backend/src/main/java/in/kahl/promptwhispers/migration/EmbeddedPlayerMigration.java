@@ -0,0 +1,105 @@
+package in.kahl.promptwhispers.migration;
+
+import com.mongodb.DBRef;
+import com.mongodb.client.MongoCollection;
+import in.kahl.promptwhispers.model.Game;
+import in.kahl.promptwhispers.model.User;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.inc;
+import static com.mongodb.client.model.Updates.set;
+
+// Games used to reference their players and the players of their turns as DBRefs into the user collection. They are
+// rewritten to carry an embedded player snapshot instead. Embedded players always have an email, references never do.
+// Runs after VersionFieldMigration, so the version it increments already exists.
+@Component
+@Order(2)
+public class EmbeddedPlayerMigration implements Migration {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddedPlayerMigration.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    public EmbeddedPlayerMigration(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public void migrate() {
+        MongoCollection<Document> games = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Game.class));
+
+        int migrated = 0;
+        for (Document game : games.find(and(exists("players.0"), exists("players.0.email", false)))) {
+            List<Object> players = game.getList("players", Object.class, List.of());
+            List<List<Document>> rounds = new ArrayList<>();
+            Set<String> userIds = new HashSet<>();
+            players.forEach(player -> userIds.add(referencedId(player)));
+
+            for (List<?> round : game.getList("rounds", List.class, List.of())) {
+                List<Document> turns = new ArrayList<>();
+                for (Object turn : round) {
+                    turns.add((Document) turn);
+                    userIds.add(referencedId(((Document) turn).get("player")));
+                }
+                rounds.add(turns);
+            }
+
+            Map<String, Document> playerSnapshots = loadPlayerSnapshots(userIds);
+
+            List<Document> embeddedPlayers = players.stream()
+                    .map(player -> playerSnapshots.get(referencedId(player)))
+                    .toList();
+            for (List<Document> turns : rounds) {
+                for (Document turn : turns) {
+                    turn.put("player", playerSnapshots.get(referencedId(turn.get("player"))));
+                }
+            }
+
+            games.updateOne(eq("_id", game.get("_id")),
+                    combine(set("players", embeddedPlayers), set("rounds", rounds), inc("version", 1L)));
+            migrated++;
+        }
+
+        if (migrated > 0) {
+            LOGGER.info("Embedded players into {} Game documents.", migrated);
+        }
+    }
+
+    private Map<String, Document> loadPlayerSnapshots(Set<String> userIds) {
+        Map<String, Document> snapshots = new HashMap<>();
+        List<User> users = mongoTemplate.find(new Query(Criteria.where("id").in(userIds)), User.class);
+        for (User user : users) {
+            snapshots.put(user.id(), new Document("_id", user.id())
+                    .append("email", user.email())
+                    .append("profilePicUrl", user.profilePicUrl()));
+        }
+
+        // Users that have been deleted in the meantime keep their id, so rounds still line up with players.
+        for (String userId : userIds) {
+            snapshots.computeIfAbsent(userId, id -> new Document("_id", id).append("email", ""));
+        }
+        return snapshots;
+    }
+
+    private static String referencedId(Object reference) {
+        if (reference instanceof DBRef dbRef) {
+            return String.valueOf(dbRef.getId());
+        }
+        if (reference instanceof Document document && document.containsKey("$id")) {
+            return String.valueOf(document.get("$id"));
+        }
+        throw new IllegalStateException("Unexpected player reference: " + reference);
+    }
+}
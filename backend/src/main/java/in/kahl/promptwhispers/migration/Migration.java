@@ -0,0 +1,9 @@
+package in.kahl.promptwhispers.migration;
+
+/**
+ * Brings documents stored by an earlier version of the application up to date. Migrations run once per start, in
+ * the order given by their @Order, and must leave documents that are already up to date alone.
+ */
+public interface Migration {
+    void migrate();
+}
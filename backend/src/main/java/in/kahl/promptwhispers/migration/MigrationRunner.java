@@ -0,0 +1,23 @@
+package in.kahl.promptwhispers.migration;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// Runs while the context is refreshed, so the web server only starts accepting requests once every document has been
+// migrated. An ApplicationRunner would only run after the server has started.
+@Component
+public class MigrationRunner implements InitializingBean {
+    private final List<Migration> migrations;
+
+    // Spring hands the migrations over sorted by their @Order.
+    public MigrationRunner(List<Migration> migrations) {
+        this.migrations = migrations;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        migrations.forEach(Migration::migrate);
+    }
+}
@@ -0,0 +1,43 @@
+package in.kahl.promptwhispers.migration;
+
+import in.kahl.promptwhispers.model.Game;
+import in.kahl.promptwhispers.model.Lobby;
+import in.kahl.promptwhispers.model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// Documents stored before optimistic locking was introduced have no version. Spring Data would treat them as new
+// entities and try to insert them again, so they start at version 0. Runs first, later migrations count up from there.
+@Component
+@Order(1)
+public class VersionFieldMigration implements Migration {
+    private static final Logger LOGGER = LoggerFactory.getLogger(VersionFieldMigration.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    public VersionFieldMigration(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public void migrate() {
+        for (Class<?> entityClass : List.of(Game.class, Lobby.class, User.class)) {
+            long migrated = mongoTemplate.updateMulti(
+                    new Query(Criteria.where("version").exists(false)),
+                    new Update().set("version", 0L),
+                    entityClass).getModifiedCount();
+
+            if (migrated > 0) {
+                LOGGER.info("Initialized version of {} {} documents.", migrated, entityClass.getSimpleName());
+            }
+        }
+    }
+}
@@ -1,22 +1,49 @@
 package in.kahl.promptwhispers.model;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.mongodb.core.mapping.DBRef;
+import org.springframework.data.annotation.PersistenceCreator;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.annotation.Version;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.*;
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
 
 public record Game(
         @Id
         String id,
-        @DBRef
-        List<User> players,
+        List<PlayerRef> players,
         List<List<Turn>> rounds,
         GameState gameState,
-        Instant createdAt
+        Instant createdAt,
+        boolean autoGenerateImages,
+        @Version
+        Long version,
+        @Transient
+        @JsonIgnore
+        TurnCounts turnCounts
 ) {
+    // Turn counts are not persisted, they are rebuilt from the rounds whenever a game is loaded or deserialized.
+    // Games stored before automatic image generation existed have no flag and keep generating images on request.
+    @PersistenceCreator
+    @JsonCreator
+    public Game(String id, List<PlayerRef> players, List<List<Turn>> rounds, GameState gameState, Instant createdAt, Boolean autoGenerateImages, Long version) {
+        this(id, players, rounds, gameState, createdAt, Boolean.TRUE.equals(autoGenerateImages), version, TurnCounts.of(rounds));
+    }
+
+    public Game(String id, List<PlayerRef> players, List<List<Turn>> rounds, GameState gameState, Instant createdAt, Long version) {
+        this(id, players, rounds, gameState, createdAt, false, version);
+    }
+
+    public Game(String id, List<PlayerRef> players, List<List<Turn>> rounds, GameState gameState, Instant createdAt) {
+        this(id, players, rounds, gameState, createdAt, null);
+    }
+
     public Game() {
         this(UUID.randomUUID().toString(),
                 new ArrayList<>(),
@@ -26,45 +53,47 @@ public record Game(
     }
 
     public Game withPlayer(User player) {
-        if (players().stream().noneMatch(p -> p.id().equals(player.id()))) {
-            players().add(player);
+        if (players().stream().noneMatch(p -> p.isUser(player))) {
+            players().add(PlayerRef.of(player));
             rounds().add(new ArrayList<>());
         }
 
-        return new Game(id(), players(), rounds(), gameState(), createdAt());
+        return new Game(id(), players(), rounds(), gameState(), createdAt(), autoGenerateImages(), version());
     }
 
     public Game withGameState(GameState gameState) {
-        return new Game(id(), players(), rounds(), gameState, createdAt());
+        return new Game(id(), players(), rounds(), gameState, createdAt(), autoGenerateImages(), version(), turnCounts());
     }
 
-    private int getNumOfCompletedImageTurns() {
-        int minTurnNumber = players().size();
+    public Game withAutoGenerateImages(boolean autoGenerateImages) {
+        return new Game(id(), players(), rounds(), gameState(), createdAt(), autoGenerateImages, version(), turnCounts());
+    }
 
-        if (players().size() != rounds().size()) {
+    public Game withVersion(Long version) {
+        return new Game(id(), players(), rounds(), gameState(), createdAt(), autoGenerateImages(), version, turnCounts());
+    }
+
+    int getNumOfCompletedImageTurns() {
+        if (players().size() != turnCounts().numOfRounds()) {
             return 0;
         }
 
-        for (List<Turn> turns : rounds) {
-            minTurnNumber = Math.min(minTurnNumber, (int) turns.stream().filter(turn -> turn.type().equals(TurnType.IMAGE)).count());
-        }
+        return Math.min(players().size(), turnCounts().getMinCount(TurnType.IMAGE));
+    }
 
-        return minTurnNumber;
+    public int countOpenImageRounds() {
+        return players().size() - getNumOfCompletedImageTurns();
     }
 
     private boolean isGameFinished() {
         return gameState() == GameState.FINISHED || getNumOfCompletedImageTurns() >= players().size();
     }
 
-    private boolean haveAllRoundsSameNumberOfTurnsByType(TurnType turnType) {
-        Set<Long> counts = rounds().stream()
-                .map(turns -> turns.stream().filter(turn -> turn.type().equals(turnType)).count())
-                .collect(Collectors.toSet());
-
-        if (players().size() != rounds().size()) {
-            return counts.contains(0L);
+    boolean haveAllRoundsSameNumberOfTurnsByType(TurnType turnType) {
+        if (players().size() != turnCounts().numOfRounds()) {
+            return turnCounts().isAnyRoundAt(turnType, 0);
         }
-        return counts.size() == 1;
+        return turnCounts().haveAllRoundsSameCount(turnType);
     }
 
     private GameState determineGameState() {
@@ -101,9 +130,7 @@ public record Game(
             throw new IllegalArgumentException("Game is finished. No turns can be added.");
         }
 
-        int playerIndex = players().indexOf(turn.player());
-
-        int offset = (playerIndex + getNumOfCompletedImageTurns()) % players().size();
+        int offset = getRoundIndexOfPlayer(turn.player());
 
         List<Turn> updatedTurns = new ArrayList<>();
         if (!rounds().isEmpty()) {
@@ -112,17 +139,38 @@ public record Game(
         updatedTurns.add(turn);
 
         rounds().set(offset, updatedTurns);
+        turnCounts().increment(offset, turn.type());
 
         return new Game(id(),
                 players(),
                 rounds(),
                 determineGameState(),
-                createdAt());
+                createdAt(),
+                autoGenerateImages(),
+                version(),
+                turnCounts());
+    }
+
+    public int getRoundIndexOfPlayer(User player) {
+        return getRoundIndexOfPlayer(PlayerRef.of(player));
+    }
+
+    private int getRoundIndexOfPlayer(PlayerRef player) {
+        int playerIndex = indexOfPlayer(player.id());
+        return (playerIndex + getNumOfCompletedImageTurns()) % players().size();
+    }
+
+    private int indexOfPlayer(String playerId) {
+        for (int i = 0; i < players().size(); i++) {
+            if (players().get(i).id().equals(playerId)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     public Turn getMostRecentPromptByPlayer(User player) {
-        int playerIndex = players().indexOf(player);
-        int offset = (playerIndex + getNumOfCompletedImageTurns()) % players().size();
+        int offset = getRoundIndexOfPlayer(player);
 
         List<Turn> round = rounds().get(offset);
 
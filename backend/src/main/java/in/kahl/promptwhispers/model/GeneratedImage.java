@@ -0,0 +1,20 @@
+package in.kahl.promptwhispers.model;
+
+import org.springframework.data.annotation.Id;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+public record GeneratedImage(
+        @Id
+        String key,
+        String prompt,
+        String model,
+        String size,
+        String imageUrl,
+        Instant createdAt
+) {
+    public GeneratedImage(String key, String prompt, String model, String size, String imageUrl) {
+        this(key, prompt, model, size, imageUrl, Instant.now().truncatedTo(ChronoUnit.MILLIS));
+    }
+}
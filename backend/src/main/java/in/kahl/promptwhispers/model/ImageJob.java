@@ -0,0 +1,52 @@
+package in.kahl.promptwhispers.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.time.Instant;
+import java.util.UUID;
+
+public record ImageJob(
+        String id,
+        String gameId,
+        String playerId,
+        String promptId,
+        ImageJobStatus status,
+        Instant createdAt,
+        Instant startedAt,
+        Instant finishedAt,
+        String error,
+        Instant retryAt
+) {
+    public ImageJob(String gameId, String playerId, String promptId) {
+        this(UUID.randomUUID().toString(),
+                gameId,
+                playerId,
+                promptId,
+                ImageJobStatus.QUEUED,
+                Instant.now(),
+                null,
+                null,
+                null,
+                null);
+    }
+
+    public ImageJob asRunning() {
+        return new ImageJob(id(), gameId(), playerId(), promptId(), ImageJobStatus.RUNNING, createdAt(), Instant.now(), null, null, null);
+    }
+
+    public ImageJob asFinished(ImageJobStatus status) {
+        return new ImageJob(id(), gameId(), playerId(), promptId(), status, createdAt(), startedAt(), Instant.now(), null, null);
+    }
+
+    /**
+     * Marks the job as failed because DALL-E is busy, so the client can tell the player why and when to try again.
+     */
+    public ImageJob asBusy(String error, Instant retryAt) {
+        return new ImageJob(id(), gameId(), playerId(), promptId(), ImageJobStatus.FAILED, createdAt(), startedAt(), Instant.now(), error, retryAt);
+    }
+
+    @JsonIgnore
+    public boolean isFinished() {
+        return status() == ImageJobStatus.SUCCEEDED || status() == ImageJobStatus.FAILED;
+    }
+}
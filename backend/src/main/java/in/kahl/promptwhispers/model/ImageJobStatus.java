@@ -0,0 +1,8 @@
+package in.kahl.promptwhispers.model;
+
+public enum ImageJobStatus {
+    QUEUED,
+    RUNNING,
+    SUCCEEDED,
+    FAILED
+}
@@ -0,0 +1,13 @@
+package in.kahl.promptwhispers.model;
+
+import java.util.function.UnaryOperator;
+
+// Smaller renditions of an image turn for list views. The contact sheet shows all images of the round up to the turn.
+public record ImageVariants(
+        String thumbnailUrl,
+        String contactSheetUrl
+) {
+    public ImageVariants withUrls(UnaryOperator<String> urls) {
+        return new ImageVariants(urls.apply(thumbnailUrl), urls.apply(contactSheetUrl));
+    }
+}
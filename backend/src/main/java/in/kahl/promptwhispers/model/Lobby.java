@@ -1,6 +1,7 @@
 package in.kahl.promptwhispers.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 
 import java.time.Instant;
@@ -19,15 +20,21 @@ public record Lobby(
         String gameId,
         boolean isGameStarted,
         boolean isGameFinished,
-        Instant createdAt
+        Instant createdAt,
+        @Version
+        Long version
 ) {
+    public Lobby(String id, User host, List<User> players, String gameId, boolean isGameStarted, boolean isGameFinished, Instant createdAt) {
+        this(id, host, players, gameId, isGameStarted, isGameFinished, createdAt, null);
+    }
+
     public Lobby(User hostUser) {
         this(UUID.randomUUID().toString(), hostUser, new ArrayList<>(List.of(hostUser)), null, false, false,
                 Instant.now().truncatedTo(ChronoUnit.MILLIS));
     }
 
     public Lobby withGameId(String gameId) {
-        return new Lobby(id(), host(), players(), gameId, true, isGameFinished(), createdAt());
+        return new Lobby(id(), host(), players(), gameId, true, isGameFinished(), createdAt(), version());
     }
 
     public Lobby withPlayer(User player) {
@@ -38,6 +45,19 @@ public record Lobby(
                 gameId(),
                 isGameStarted(),
                 isGameFinished(),
-                createdAt());
+                createdAt(),
+                version());
+    }
+
+    public Lobby withoutPlayer(User player) {
+        players().remove(player);
+        return new Lobby(id(),
+                host(),
+                players(),
+                gameId(),
+                isGameStarted(),
+                isGameFinished(),
+                createdAt(),
+                version());
     }
 }
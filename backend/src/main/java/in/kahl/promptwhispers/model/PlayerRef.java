@@ -0,0 +1,17 @@
+package in.kahl.promptwhispers.model;
+
+// Snapshot of the user data a game needs to show its players. It is embedded into games and turns, so loading a
+// game doesn't need to resolve any user documents.
+public record PlayerRef(
+        String id,
+        String email,
+        String profilePicUrl
+) {
+    public static PlayerRef of(User user) {
+        return new PlayerRef(user.id(), user.email(), user.profilePicUrl());
+    }
+
+    public boolean isUser(User user) {
+        return id().equals(user.id());
+    }
+}
@@ -1,26 +1,34 @@
 package in.kahl.promptwhispers.model;
 
 import org.springframework.data.annotation.Id;
-import org.springframework.data.mongodb.core.mapping.DBRef;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.UUID;
 
+// The variants of an image turn are added in the background after the turn has been stored, until then they are null.
 public record Turn(
         @Id
         String id,
-        @DBRef
-        User player,
+        PlayerRef player,
         TurnType type,
         String content,
-        Instant createdAt
+        Instant createdAt,
+        ImageVariants variants
 ) {
+    public Turn(String id, PlayerRef player, TurnType type, String content, Instant createdAt) {
+        this(id, player, type, content, createdAt, null);
+    }
+
     public Turn(User player, TurnType type, String content) {
         this(UUID.randomUUID().toString(),
-                player,
+                PlayerRef.of(player),
                 type,
                 content,
                 Instant.now().truncatedTo(ChronoUnit.MILLIS));
     }
+
+    public Turn withVariants(ImageVariants variants) {
+        return new Turn(id, player, type, content, createdAt, variants);
+    }
 }
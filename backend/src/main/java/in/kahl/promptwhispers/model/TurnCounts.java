@@ -0,0 +1,145 @@
+package in.kahl.promptwhispers.model;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+// Keeps track of how many turns of each type every round holds, so that Game can answer its state checks
+// without walking all turns of all rounds again.
+public final class TurnCounts {
+    private final Map<TurnType, RoundCounter> counters = new EnumMap<>(TurnType.class);
+
+    private TurnCounts(int numOfRounds) {
+        for (TurnType turnType : TurnType.values()) {
+            counters.put(turnType, new RoundCounter(numOfRounds));
+        }
+    }
+
+    public static TurnCounts of(List<List<Turn>> rounds) {
+        if (rounds == null) {
+            return new TurnCounts(0);
+        }
+
+        TurnCounts turnCounts = new TurnCounts(rounds.size());
+        for (int roundIndex = 0; roundIndex < rounds.size(); roundIndex++) {
+            List<Turn> turns = rounds.get(roundIndex);
+            if (turns == null) {
+                continue;
+            }
+            for (Turn turn : turns) {
+                turnCounts.increment(roundIndex, turn.type());
+            }
+        }
+        return turnCounts;
+    }
+
+    void increment(int roundIndex, TurnType turnType) {
+        counters.get(turnType).increment(roundIndex);
+    }
+
+    int numOfRounds() {
+        return counters.get(TurnType.PROMPT).countsByRound.length;
+    }
+
+    int getMinCount(TurnType turnType) {
+        return counters.get(turnType).minCount;
+    }
+
+    boolean isAnyRoundAt(TurnType turnType, int count) {
+        return counters.get(turnType).numOfRoundsWithCount(count) > 0;
+    }
+
+    boolean haveAllRoundsSameCount(TurnType turnType) {
+        return counters.get(turnType).distinctCounts == 1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TurnCounts other)) {
+            return false;
+        }
+        return counters.equals(other.counters);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(counters);
+    }
+
+    @Override
+    public String toString() {
+        return "TurnCounts" + counters;
+    }
+
+    private static final class RoundCounter {
+        private final int[] countsByRound;
+
+        // roundsByCount[c] holds the number of rounds that currently contain exactly c turns.
+        private int[] roundsByCount;
+
+        private int distinctCounts;
+
+        private int minCount;
+
+        private RoundCounter(int numOfRounds) {
+            countsByRound = new int[numOfRounds];
+            roundsByCount = new int[]{numOfRounds};
+            distinctCounts = numOfRounds > 0 ? 1 : 0;
+            minCount = 0;
+        }
+
+        private int numOfRoundsWithCount(int count) {
+            return count >= 0 && count < roundsByCount.length ? roundsByCount[count] : 0;
+        }
+
+        private void increment(int roundIndex) {
+            int previousCount = countsByRound[roundIndex];
+            int newCount = previousCount + 1;
+            countsByRound[roundIndex] = newCount;
+
+            if (newCount >= roundsByCount.length) {
+                roundsByCount = Arrays.copyOf(roundsByCount, Math.max(newCount + 1, roundsByCount.length * 2));
+            }
+
+            roundsByCount[previousCount]--;
+            if (roundsByCount[previousCount] == 0) {
+                distinctCounts--;
+                if (previousCount == minCount) {
+                    // Counts only ever grow by one, so the next smallest count is the one just reached.
+                    minCount = newCount;
+                }
+            }
+
+            if (roundsByCount[newCount] == 0) {
+                distinctCounts++;
+            }
+            roundsByCount[newCount]++;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RoundCounter other)) {
+                return false;
+            }
+            return Arrays.equals(countsByRound, other.countsByRound);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(countsByRound);
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(countsByRound);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package in.kahl.promptwhispers.model;
 
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
@@ -17,18 +18,20 @@ public record User(
         String profilePicUrl,
         List<String> gameIds,
         AuthProvider authProvider,
-        Instant createdAt
+        Instant createdAt,
+        @Version
+        Long version
 ) {
     public User(String email) {
         this(email, "");
     }
 
     public User(String email, String profilePicUrl) {
-        this(UUID.randomUUID().toString(), email, profilePicUrl, new ArrayList<>(Collections.emptyList()), AuthProvider.GOOGLE, Instant.now().truncatedTo(ChronoUnit.MILLIS));
+        this(UUID.randomUUID().toString(), email, profilePicUrl, new ArrayList<>(Collections.emptyList()), AuthProvider.GOOGLE, Instant.now().truncatedTo(ChronoUnit.MILLIS), null);
     }
 
     public User withGameIds(List<String> gamesList) {
-        return new User(id(), email(), profilePicUrl(), gamesList, authProvider(), createdAt());
+        return new User(id(), email(), profilePicUrl(), gamesList, authProvider(), createdAt(), version());
     }
 
     public User withGame(Game game) {
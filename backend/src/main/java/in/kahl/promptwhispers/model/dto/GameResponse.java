@@ -0,0 +1,55 @@
+package in.kahl.promptwhispers.model.dto;
+
+import in.kahl.promptwhispers.model.Game;
+import in.kahl.promptwhispers.model.GameState;
+import in.kahl.promptwhispers.model.PlayerRef;
+import in.kahl.promptwhispers.model.Turn;
+import in.kahl.promptwhispers.model.TurnType;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+// Every player is listed once and turns refer to their player by the index in that list.
+public record GameResponse(
+        String id,
+        List<PlayerRef> players,
+        List<List<TurnResponse>> rounds,
+        GameState gameState,
+        Instant createdAt,
+        boolean autoGenerateImages
+) {
+    public GameResponse(Game game) {
+        this(game, UnaryOperator.identity());
+    }
+
+    // The image URLs are passed through imageUrls, which points them at the image proxy.
+    public GameResponse(Game game, UnaryOperator<String> imageUrls) {
+        this(game.id(), game.players(), asTurnResponses(game, imageUrls), game.gameState(), game.createdAt(), game.autoGenerateImages());
+    }
+
+    private static List<List<TurnResponse>> asTurnResponses(Game game, UnaryOperator<String> imageUrls) {
+        Map<String, Integer> playerIndexes = new HashMap<>();
+        for (int i = 0; i < game.players().size(); i++) {
+            playerIndexes.put(game.players().get(i).id(), i);
+        }
+
+        List<List<TurnResponse>> rounds = new ArrayList<>(game.rounds().size());
+        for (List<Turn> turns : game.rounds()) {
+            List<TurnResponse> round = new ArrayList<>(turns.size());
+            for (Turn turn : turns) {
+                round.add(new TurnResponse(turn.id(),
+                        playerIndexes.getOrDefault(turn.player().id(), -1),
+                        turn.type(),
+                        turn.type() == TurnType.IMAGE ? imageUrls.apply(turn.content()) : turn.content(),
+                        turn.createdAt(),
+                        turn.variants() != null ? turn.variants().withUrls(imageUrls) : null));
+            }
+            rounds.add(round);
+        }
+        return rounds;
+    }
+}
@@ -0,0 +1,16 @@
+package in.kahl.promptwhispers.model.dto;
+
+import in.kahl.promptwhispers.model.ImageVariants;
+import in.kahl.promptwhispers.model.TurnType;
+
+import java.time.Instant;
+
+public record TurnResponse(
+        String id,
+        int playerIndex,
+        TurnType type,
+        String content,
+        Instant createdAt,
+        ImageVariants variants
+) {
+}
@@ -1,13 +1,25 @@
 package in.kahl.promptwhispers.model.openai;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 public record DalleRequest(
         String model,
         String prompt,
         int n,
-        String size
+        String size,
+        @JsonProperty("response_format")
+        String responseFormat
 ) {
+    public static final String URL = "url";
+
+    public static final String B64_JSON = "b64_json";
+
+    public DalleRequest(String model, String prompt, String responseFormat) {
+        this(model, prompt, 1, "512x512", responseFormat);
+    }
+
     public DalleRequest(String model, String prompt) {
-        this(model, prompt, 1, "512x512");
+        this(model, prompt, URL);
     }
 
     public DalleRequest(String prompt) {
@@ -3,5 +3,5 @@ package in.kahl.promptwhispers.repo;
 import in.kahl.promptwhispers.model.Game;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
-public interface GameRepo extends MongoRepository<Game, String> {
+public interface GameRepo extends MongoRepository<Game, String>, GameRepoCustom {
 }
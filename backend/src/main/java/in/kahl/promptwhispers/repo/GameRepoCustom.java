@@ -0,0 +1,29 @@
+package in.kahl.promptwhispers.repo;
+
+import in.kahl.promptwhispers.model.Game;
+import in.kahl.promptwhispers.model.GameState;
+import in.kahl.promptwhispers.model.ImageVariants;
+import in.kahl.promptwhispers.model.Turn;
+
+import java.util.Map;
+import java.util.Optional;
+
+public interface GameRepoCustom {
+    /**
+     * Stores the given turn of the game without rewriting the whole document. The update only applies if the stored
+     * game still has the version the turn was added to, otherwise an OptimisticLockingFailureException is thrown.
+     */
+    Game appendTurn(Game gameWithTurn, Turn turn);
+
+    /**
+     * Stores the variants of a turn. Turns are only ever appended, so the turn stays at its position. The version is
+     * incremented so that clients see the change, but not checked, since the variants don't depend on other turns.
+     * Returns the updated game, or empty if the game or the turn don't exist anymore.
+     */
+    Optional<Game> setTurnVariants(String gameId, int roundIndex, int turnIndex, String turnId, ImageVariants variants);
+
+    /**
+     * Counts the stored games per state in a single aggregation. States without games are missing from the map.
+     */
+    Map<GameState, Long> countGamesByState();
+}
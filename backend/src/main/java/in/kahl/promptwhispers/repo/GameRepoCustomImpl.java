@@ -0,0 +1,83 @@
+package in.kahl.promptwhispers.repo;
+
+import com.mongodb.client.result.UpdateResult;
+import in.kahl.promptwhispers.model.Game;
+import in.kahl.promptwhispers.model.GameState;
+import in.kahl.promptwhispers.model.ImageVariants;
+import in.kahl.promptwhispers.model.Turn;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+public class GameRepoCustomImpl implements GameRepoCustom {
+    private final MongoTemplate mongoTemplate;
+
+    public GameRepoCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Game appendTurn(Game gameWithTurn, Turn turn) {
+        int roundIndex = findRoundIndexOfTurn(gameWithTurn, turn);
+
+        Query query = new Query(Criteria.where("_id").is(gameWithTurn.id()).and("version").is(gameWithTurn.version()));
+        Update update = new Update()
+                .push("rounds." + roundIndex, turn)
+                .set("gameState", gameWithTurn.gameState())
+                .inc("version", 1);
+
+        UpdateResult result = mongoTemplate.updateFirst(query, update, Game.class);
+
+        if (result.getMatchedCount() == 0) {
+            throw new OptimisticLockingFailureException(
+                    "Game " + gameWithTurn.id() + " was modified concurrently or does not exist anymore.");
+        }
+
+        long previousVersion = gameWithTurn.version() == null ? 0 : gameWithTurn.version();
+        return gameWithTurn.withVersion(previousVersion + 1);
+    }
+
+    @Override
+    public Optional<Game> setTurnVariants(String gameId, int roundIndex, int turnIndex, String turnId, ImageVariants variants) {
+        String turnPath = "rounds." + roundIndex + "." + turnIndex;
+        Query query = new Query(Criteria.where("_id").is(gameId).and(turnPath + "._id").is(turnId));
+        Update update = new Update()
+                .set(turnPath + ".variants", variants)
+                .inc("version", 1);
+
+        return Optional.ofNullable(mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), Game.class));
+    }
+
+    @Override
+    public Map<GameState, Long> countGamesByState() {
+        Aggregation aggregation = Aggregation.newAggregation(Aggregation.group("gameState").count().as("count"));
+
+        Map<GameState, Long> counts = new EnumMap<>(GameState.class);
+        for (Document result : mongoTemplate.aggregate(aggregation, Game.class, Document.class)) {
+            counts.put(GameState.valueOf(result.getString("_id")), ((Number) result.get("count")).longValue());
+        }
+        return counts;
+    }
+
+    private int findRoundIndexOfTurn(Game game, Turn turn) {
+        List<List<Turn>> rounds = game.rounds();
+        for (int roundIndex = 0; roundIndex < rounds.size(); roundIndex++) {
+            List<Turn> round = rounds.get(roundIndex);
+            if (!round.isEmpty() && round.getLast().equals(turn)) {
+                return roundIndex;
+            }
+        }
+        throw new IllegalArgumentException("The turn has not been added to the game.");
+    }
+}
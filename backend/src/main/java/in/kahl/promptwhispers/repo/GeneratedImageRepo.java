@@ -0,0 +1,7 @@
+package in.kahl.promptwhispers.repo;
+
+import in.kahl.promptwhispers.model.GeneratedImage;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface GeneratedImageRepo extends MongoRepository<GeneratedImage, String> {
+}
@@ -3,14 +3,21 @@ package in.kahl.promptwhispers.security;
 import in.kahl.promptwhispers.service.UserService;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
+import org.springframework.boot.actuate.health.HealthEndpoint;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 import org.springframework.security.oauth2.client.userinfo.DefaultOAuth2UserService;
 import org.springframework.security.oauth2.client.userinfo.OAuth2UserRequest;
 import org.springframework.security.oauth2.client.userinfo.OAuth2UserService;
@@ -21,6 +28,7 @@ import org.springframework.security.web.authentication.HttpStatusEntryPoint;
 @Configuration
 @EnableWebSecurity
 public class SecurityConfig {
+    private static final String OPERATOR_ROLE = "OPERATOR";
 
     @Value("${app.environment}")
     private String environment;
@@ -31,6 +39,28 @@ public class SecurityConfig {
         this.userService = userService;
     }
 
+    // Metrics and circuit breaker states are for the operators, Prometheus scrapes them with basic auth. The health
+    // check of the platform stays open.
+    @Bean
+    @Order(1)
+    public SecurityFilterChain managementSecurityFilterChain(HttpSecurity http,
+                                                             @Value("${app.management.username}") String username,
+                                                             @Value("${app.management.password}") String password) throws Exception {
+        UserDetails operator = User.withUsername(username)
+                .password("{noop}" + password)
+                .roles(OPERATOR_ROLE)
+                .build();
+        http.securityMatcher(EndpointRequest.toAnyEndpoint())
+                .csrf(AbstractHttpConfigurer::disable)
+                .authorizeHttpRequests(authorize -> authorize
+                        .requestMatchers(EndpointRequest.to(HealthEndpoint.class)).permitAll()
+                        .anyRequest().hasRole(OPERATOR_ROLE))
+                .httpBasic(Customizer.withDefaults())
+                .userDetailsService(new InMemoryUserDetailsManager(operator))
+                .sessionManagement(s -> s.sessionCreationPolicy(SessionCreationPolicy.STATELESS));
+        return http.build();
+    }
+
     @Bean
     public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
         http.csrf(AbstractHttpConfigurer::disable)
@@ -41,6 +71,8 @@ public class SecurityConfig {
                         .requestMatchers(HttpMethod.POST, "/api/games/*/prompt").authenticated()
                         .requestMatchers(HttpMethod.POST, "/api/games/*/generateImage").authenticated()
                         .requestMatchers(HttpMethod.GET, "/api/games/*").authenticated()
+                        .requestMatchers(HttpMethod.GET, "/api/games/*/events").authenticated()
+                        .requestMatchers(HttpMethod.GET, "/api/games/*/imageJobs/*").authenticated()
                         .requestMatchers(HttpMethod.POST, "/api/lobbies").authenticated()
                         .requestMatchers(HttpMethod.GET, "/api/lobbies/*").authenticated()
                         .requestMatchers(HttpMethod.DELETE, "/api/lobbies/*").authenticated()
@@ -0,0 +1,223 @@
+package in.kahl.promptwhispers.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.env.Environment;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Protects the app from a slow or failing dependency. The outcomes of the last windowSize calls are kept, and once at
+ * least half of the window is filled and the share of failed or slow calls reaches the threshold, the circuit opens.
+ * While it is open, calls get the fallback without touching the dependency. After openDuration a single trial call is
+ * let through, its outcome closes the circuit or opens it again. Independently of the state, at most maxConcurrent
+ * calls wait for the dependency at a time, so a hanging dependency can't take all threads with it.
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    public record Settings(int windowSize, int failureRateThreshold, Duration slowCallDuration, Duration openDuration,
+                           int maxConcurrent) {
+        public static Settings of(Environment environment, String prefix) {
+            return new Settings(environment.getRequiredProperty(prefix + ".window-size", Integer.class),
+                    environment.getRequiredProperty(prefix + ".failure-rate-threshold", Integer.class),
+                    environment.getRequiredProperty(prefix + ".slow-call-duration", Duration.class),
+                    environment.getRequiredProperty(prefix + ".open-duration", Duration.class),
+                    environment.getRequiredProperty(prefix + ".max-concurrent", Integer.class));
+        }
+    }
+
+    public record Snapshot(String name, State state, int bufferedCalls, int failureRate, int slowCallRate,
+                           int concurrentCalls, int maxConcurrent) {
+    }
+
+    private final String name;
+
+    private final Settings settings;
+
+    private final LongSupplier nanoTime;
+
+    private final Semaphore bulkhead;
+
+    private final Counter successes;
+
+    private final Counter failures;
+
+    private final Counter slowCalls;
+
+    private final Counter rejectedWhileOpen;
+
+    private final Counter rejectedByBulkhead;
+
+    // Guarded by lock.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final boolean[] failedCalls;
+
+    private final boolean[] slowCallsInWindow;
+
+    private int bufferedCalls;
+
+    private int nextSlot;
+
+    private State state = State.CLOSED;
+
+    private long openedAt;
+
+    private boolean trialCallRunning;
+
+    public CircuitBreaker(String name, Settings settings, MeterRegistry meterRegistry) {
+        this(name, settings, meterRegistry, System::nanoTime);
+    }
+
+    CircuitBreaker(String name, Settings settings, MeterRegistry meterRegistry, LongSupplier nanoTime) {
+        this.name = name;
+        this.settings = settings;
+        this.nanoTime = nanoTime;
+        this.bulkhead = new Semaphore(settings.maxConcurrent());
+        this.failedCalls = new boolean[settings.windowSize()];
+        this.slowCallsInWindow = new boolean[settings.windowSize()];
+
+        Gauge.builder("promptwhispers.breaker.state", this, breaker -> breaker.getState().ordinal())
+                .description("State of the circuit breaker, 0 is closed, 1 is open and 2 is half open")
+                .tag("name", name)
+                .register(meterRegistry);
+        this.successes = callCounter(meterRegistry, "success");
+        this.failures = callCounter(meterRegistry, "failure");
+        this.slowCalls = callCounter(meterRegistry, "slow");
+        this.rejectedWhileOpen = callCounter(meterRegistry, "rejected.open");
+        this.rejectedByBulkhead = callCounter(meterRegistry, "rejected.bulkhead");
+    }
+
+    /**
+     * Calls the dependency if the circuit and the bulkhead let the call through, or returns the fallback otherwise.
+     * Exceptions of the dependency are counted and rethrown.
+     */
+    public <T> T call(Supplier<T> dependency, Supplier<T> fallback) {
+        if (!bulkhead.tryAcquire()) {
+            rejectedByBulkhead.increment();
+            return fallback.get();
+        }
+        try {
+            boolean trialCall;
+            boolean permitted;
+            lock.lock();
+            try {
+                if (state == State.OPEN && nanoTime.getAsLong() - openedAt >= settings.openDuration().toNanos()) {
+                    state = State.HALF_OPEN;
+                }
+                trialCall = state == State.HALF_OPEN && !trialCallRunning;
+                trialCallRunning |= trialCall;
+                permitted = state == State.CLOSED || trialCall;
+            } finally {
+                lock.unlock();
+            }
+            if (!permitted) {
+                rejectedWhileOpen.increment();
+                return fallback.get();
+            }
+
+            long start = nanoTime.getAsLong();
+            boolean failed = true;
+            try {
+                T result = dependency.get();
+                failed = false;
+                return result;
+            } finally {
+                record(trialCall, failed, nanoTime.getAsLong() - start > settings.slowCallDuration().toNanos());
+            }
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    public State getState() {
+        lock.lock();
+        try {
+            return state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Snapshot getSnapshot() {
+        lock.lock();
+        try {
+            return new Snapshot(name, state, bufferedCalls, rateOf(failedCalls), rateOf(slowCallsInWindow),
+                    settings.maxConcurrent() - bulkhead.availablePermits(), settings.maxConcurrent());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void record(boolean trialCall, boolean failed, boolean slow) {
+        (failed ? failures : slow ? slowCalls : successes).increment();
+        lock.lock();
+        try {
+            if (trialCall) {
+                trialCallRunning = false;
+                if (failed || slow) {
+                    open();
+                } else {
+                    state = State.CLOSED;
+                    bufferedCalls = 0;
+                    nextSlot = 0;
+                }
+                return;
+            }
+            if (state != State.CLOSED) {
+                // The circuit has opened while this call was running.
+                return;
+            }
+
+            failedCalls[nextSlot] = failed;
+            slowCallsInWindow[nextSlot] = slow;
+            nextSlot = (nextSlot + 1) % settings.windowSize();
+            bufferedCalls = Math.min(bufferedCalls + 1, settings.windowSize());
+
+            if (bufferedCalls * 2 >= settings.windowSize()
+                    && (rateOf(failedCalls) >= settings.failureRateThreshold()
+                    || rateOf(slowCallsInWindow) >= settings.failureRateThreshold())) {
+                open();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = nanoTime.getAsLong();
+    }
+
+    // In percent of the buffered calls. The slots beyond bufferedCalls have not been written since the last reset.
+    private int rateOf(boolean[] outcomes) {
+        if (bufferedCalls == 0) {
+            return 0;
+        }
+        int count = 0;
+        for (int i = 0; i < bufferedCalls; i++) {
+            if (outcomes[i]) {
+                count++;
+            }
+        }
+        return count * 100 / bufferedCalls;
+    }
+
+    private Counter callCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("promptwhispers.breaker.calls")
+                .description("Calls through the circuit breaker by outcome")
+                .tag("name", name)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+}
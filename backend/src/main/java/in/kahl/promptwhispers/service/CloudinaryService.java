@@ -1,24 +1,111 @@
 package in.kahl.promptwhispers.service;
 
 import com.cloudinary.Cloudinary;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Map;
 import java.util.UUID;
 
 @Service
-public class CloudinaryService {
+@ConditionalOnProperty(name = "app.images.store", havingValue = "cloudinary", matchIfMissing = true)
+public class CloudinaryService implements ImageStore {
     private final Cloudinary cloudinary;
 
-    public CloudinaryService(Cloudinary cloudinary) {
+    private final CircuitBreaker circuitBreaker;
+
+    private final ObservationRegistry observationRegistry;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+    public CloudinaryService(Cloudinary cloudinary, @Qualifier("cloudinaryCircuitBreaker") CircuitBreaker circuitBreaker, ObservationRegistry observationRegistry) {
         this.cloudinary = cloudinary;
+        this.circuitBreaker = circuitBreaker;
+        this.observationRegistry = observationRegistry;
     }
 
+    // The image stays at the un-mirrored URL while Cloudinary is unavailable.
+    @Override
     public String uploadImage(@NonNull String url) {
+        Observation observation = uploadObservation("url");
+        return Observations.observe(observation, () -> {
+            try {
+                return circuitBreaker.call(() -> upload(url), () -> {
+                    observation.lowCardinalityKeyValue(Observations.OUTCOME, "fallback");
+                    return url;
+                });
+            } catch (UncheckedIOException exception) {
+                observation.lowCardinalityKeyValue(Observations.OUTCOME, "fallback");
+                return url;
+            }
+        });
+    }
+
+    // Without an URL to fall back to, the turn gets the placeholder while Cloudinary is unavailable, like it does while
+    // DALL-E is. A file kept on this instance would not be served by the others.
+    @Override
+    public String uploadImage(@NonNull Path file) {
+        Observation observation = uploadObservation("file");
+        return Observations.observe(observation, () -> {
+            try {
+                return circuitBreaker.call(() -> upload(file.toFile()), () -> {
+                    observation.lowCardinalityKeyValue(Observations.OUTCOME, "fallback");
+                    return DalleService.PLACEHOLDER_IMAGE_URL;
+                });
+            } catch (UncheckedIOException exception) {
+                observation.lowCardinalityKeyValue(Observations.OUTCOME, "fallback");
+                return DalleService.PLACEHOLDER_IMAGE_URL;
+            }
+        });
+    }
+
+    // Reads the image as it was uploaded, the WebP delivery format is for browsers.
+    @Override
+    public InputStream openImage(@NonNull String url) throws IOException {
+        String originalUrl = url.replaceFirst("/upload/t_formatToWebP/", "/upload/");
+        HttpRequest request = HttpRequest.newBuilder(URI.create(originalUrl))
+                .timeout(Duration.ofSeconds(30))
+                .GET()
+                .build();
+        try {
+            HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() != 200) {
+                response.body().close();
+                throw new IOException("Download of " + originalUrl + " failed with status " + response.statusCode());
+            }
+            return response.body();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading " + originalUrl);
+        }
+    }
+
+    private Observation uploadObservation(String source) {
+        return Observation.createNotStarted("promptwhispers.images.cloudinary.upload", observationRegistry)
+                .contextualName("cloudinary upload")
+                .lowCardinalityKeyValue("source", source);
+    }
+
+    private String upload(Object file) {
         try {
-            var cloudinaryResponse = cloudinary.uploader().upload(url, Map.of(
+            var cloudinaryResponse = cloudinary.uploader().upload(file, Map.of(
                     "resource_type", "auto",
                     "public_id", UUID.randomUUID().toString(),
                     "folder", "promptwhispers_test"
@@ -29,7 +116,7 @@ public class CloudinaryService {
                     .replaceFirst("magikahl/image/upload/", "magikahl/image/upload/t_formatToWebP/");
 
         } catch (IOException exception) {
-            return url;
+            throw new UncheckedIOException(exception);
         }
     }
 }
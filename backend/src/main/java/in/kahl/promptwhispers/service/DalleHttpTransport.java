@@ -0,0 +1,295 @@
+package in.kahl.promptwhispers.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * HTTP transport of the calls to OpenAI. The JDK client keeps connections alive and speaks HTTP/2 where the server
+ * offers it. Every attempt has a deadline, and at most maxConnections attempts are in flight at a time. Callers that
+ * don't get a connection within the connect timeout fail instead of queueing behind a hung request.
+ * <p>
+ * Hedging is off by default. Every hedged attempt is an image that OpenAI bills, so it takes a permit of the rate
+ * limiter, and is skipped if none is available right away.
+ */
+@Component
+public class DalleHttpTransport {
+    private final JdkClientHttpRequestFactory requestFactory;
+
+    private final DalleRateLimiter rateLimiter;
+
+    private final int maxConnections;
+
+    private final Semaphore connections;
+
+    private final Duration acquireTimeout;
+
+    private final boolean hedgingEnabled;
+
+    private final Duration minHedgeDelay;
+
+    private final ExecutorService hedgingExecutor;
+
+    private final AtomicInteger pendingAttempts = new AtomicInteger();
+
+    private final Timer connectionWait;
+
+    private final Counter rejectedAttempts;
+
+    private final Timer successfulAttempts;
+
+    private final Timer failedAttempts;
+
+    private final Counter hedgedCalls;
+
+    @Autowired
+    public DalleHttpTransport(MeterRegistry meterRegistry,
+                              DalleRateLimiter rateLimiter,
+                              @Value("${app.dalle.http.connect-timeout}") Duration connectTimeout,
+                              @Value("${app.dalle.http.read-timeout}") Duration readTimeout,
+                              @Value("${app.dalle.http.max-connections}") int maxConnections,
+                              @Value("${app.dalle.http.hedging.enabled}") boolean hedgingEnabled,
+                              @Value("${app.dalle.http.hedging.min-delay}") Duration minHedgeDelay,
+                              @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        this.requestFactory = new JdkClientHttpRequestFactory(httpClient);
+        this.requestFactory.setReadTimeout(readTimeout);
+        this.rateLimiter = rateLimiter;
+        this.maxConnections = maxConnections;
+        this.connections = new Semaphore(maxConnections);
+        this.acquireTimeout = connectTimeout;
+        this.hedgingEnabled = hedgingEnabled;
+        this.minHedgeDelay = minHedgeDelay;
+        this.hedgingExecutor = Executors.newThreadPerTaskExecutor(WorkerThreads.of("dalle-attempts-", virtualThreads));
+
+        Gauge.builder("promptwhispers.images.dalle.http.connections.active", this, transport -> transport.maxConnections - transport.connections.availablePermits())
+                .description("Number of requests to OpenAI in flight")
+                .register(meterRegistry);
+        Gauge.builder("promptwhispers.images.dalle.http.connections.pending", pendingAttempts, AtomicInteger::get)
+                .description("Number of requests to OpenAI waiting for a free connection")
+                .register(meterRegistry);
+        this.connectionWait = Timer.builder("promptwhispers.images.dalle.http.connections.wait")
+                .description("Time requests to OpenAI wait for a free connection")
+                .register(meterRegistry);
+        this.rejectedAttempts = Counter.builder("promptwhispers.images.dalle.http.connections.rejected")
+                .description("Requests to OpenAI that got no connection within the connect timeout")
+                .register(meterRegistry);
+        this.successfulAttempts = attemptTimer(meterRegistry, "success");
+        this.failedAttempts = attemptTimer(meterRegistry, "error");
+        this.hedgedCalls = Counter.builder("promptwhispers.images.dalle.http.hedged")
+                .description("Calls to OpenAI for which a second attempt was started")
+                .register(meterRegistry);
+    }
+
+    public RestClient.Builder configure(RestClient.Builder builder) {
+        return builder.requestFactory(requestFactory)
+                .requestInterceptor(this::intercept);
+    }
+
+    /**
+     * Makes a call, and if it takes longer than the usual 95th percentile of the attempts, a second attempt in
+     * parallel. The first attempt that succeeds wins, the other one runs on until it completes or hits its deadline.
+     * The result of the attempt that lost is handed to discard, for example to delete its file.
+     */
+    public <T> T call(Supplier<T> attempt, Consumer<T> discard) {
+        if (!hedgingEnabled) {
+            return attempt.get();
+        }
+
+        Supplier<T> tracedAttempt = Observations.propagating(attempt);
+        CompletableFuture<T> first = CompletableFuture.supplyAsync(tracedAttempt, hedgingExecutor);
+        try {
+            return first.get(getHedgeDelay().toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException slow) {
+            // The permit of the first attempt was taken by the caller, the second one needs its own.
+            if (!rateLimiter.tryAcquire()) {
+                return await(first);
+            }
+            hedgedCalls.increment();
+        } catch (ExecutionException exception) {
+            throw asRuntimeException(exception.getCause());
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for OpenAI", exception);
+        }
+
+        CompletableFuture<T> second = CompletableFuture.supplyAsync(tracedAttempt, hedgingExecutor);
+        CompletableFuture<T> firstSuccess = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<T> attemptResult : List.of(first, second)) {
+            attemptResult.whenComplete((result, exception) -> {
+                if (exception == null) {
+                    if (!firstSuccess.complete(result)) {
+                        discard.accept(result);
+                    }
+                } else if (failures.incrementAndGet() == 2) {
+                    firstSuccess.completeExceptionally(exception);
+                }
+            });
+        }
+        return await(firstSuccess);
+    }
+
+    Duration getHedgeDelay() {
+        for (ValueAtPercentile percentile : successfulAttempts.takeSnapshot().percentileValues()) {
+            Duration p95 = Duration.ofNanos((long) percentile.value(TimeUnit.NANOSECONDS));
+            if (p95.compareTo(minHedgeDelay) > 0) {
+                return p95;
+            }
+        }
+        return minHedgeDelay;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        hedgingExecutor.shutdown();
+    }
+
+    private static <T> T await(CompletableFuture<T> result) {
+        try {
+            return result.get();
+        } catch (ExecutionException exception) {
+            throw asRuntimeException(exception.getCause());
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for OpenAI", exception);
+        }
+    }
+
+    private ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        long waitStart = System.nanoTime();
+        pendingAttempts.incrementAndGet();
+        try {
+            if (!connections.tryAcquire(acquireTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                rejectedAttempts.increment();
+                throw new IOException("No connection to OpenAI available within " + acquireTimeout.toMillis() + " ms");
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection to OpenAI");
+        } finally {
+            pendingAttempts.decrementAndGet();
+        }
+
+        long start = System.nanoTime();
+        connectionWait.record(Duration.ofNanos(start - waitStart));
+        ClientHttpResponse response;
+        try {
+            response = execution.execute(request, body);
+        } catch (IOException | RuntimeException exception) {
+            connections.release();
+            failedAttempts.record(Duration.ofNanos(System.nanoTime() - start));
+            throw exception;
+        }
+        // The connection stays busy while the body is read, and decoding a base64 image streams it for a while.
+        PermitReleasingResponse permitReleasingResponse = new PermitReleasingResponse(response, connections);
+        boolean succeeded;
+        try {
+            succeeded = permitReleasingResponse.getStatusCode().is2xxSuccessful();
+        } catch (IOException | RuntimeException exception) {
+            permitReleasingResponse.close();
+            failedAttempts.record(Duration.ofNanos(System.nanoTime() - start));
+            throw exception;
+        }
+        // Latency up to the headers, which is what the hedge delay is compared with.
+        (succeeded ? successfulAttempts : failedAttempts).record(Duration.ofNanos(System.nanoTime() - start));
+        return permitReleasingResponse;
+    }
+
+    private static RuntimeException asRuntimeException(Throwable exception) {
+        if (exception instanceof CompletionException && exception.getCause() != null) {
+            exception = exception.getCause();
+        }
+        return exception instanceof RuntimeException runtimeException
+                ? runtimeException
+                : new IllegalStateException(exception);
+    }
+
+    private static Timer attemptTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("promptwhispers.images.dalle.http.attempts")
+                .description("Latency of single requests to OpenAI")
+                .tag("outcome", outcome)
+                .publishPercentiles(0.95)
+                .register(meterRegistry);
+    }
+
+    private static final class PermitReleasingResponse implements ClientHttpResponse {
+        private final ClientHttpResponse response;
+
+        private final Semaphore connections;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private PermitReleasingResponse(ClientHttpResponse response, Semaphore connections) {
+            this.response = response;
+            this.connections = connections;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return response.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return response.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return response.getHeaders();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return response.getBody();
+        }
+
+        @Override
+        public void close() {
+            try {
+                response.close();
+            } finally {
+                if (released.compareAndSet(false, true)) {
+                    connections.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package in.kahl.promptwhispers.service;
+
+import in.kahl.promptwhispers.exception.DalleBusyException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket that keeps the calls to the OpenAI images endpoint within the requests-per-minute quota of the account.
+ * A caller reserves a permit and sleeps until it is due, unless that would take longer than maxWait, in which case it
+ * is told right away that DALL-E is busy. A 429 answer empties the bucket until its Retry-After has passed.
+ */
+@Component
+public class DalleRateLimiter {
+    private final double capacity;
+
+    private final long nanosPerPermit;
+
+    private final long maxWaitNanos;
+
+    private final Duration defaultRetryAfter;
+
+    private final LongSupplier nanoTime;
+
+    private final Sleeper sleeper;
+
+    private final Timer permitWait;
+
+    private final Counter rejections;
+
+    private final Counter throttles;
+
+    // Guarded by lock. Permits can be negative, that many callers have reserved a permit and are still sleeping.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private double permits;
+
+    // The time up to which permits have been refilled. It lies in the future while a Retry-After is pending.
+    private long refilledUntil;
+
+    @Autowired
+    public DalleRateLimiter(MeterRegistry meterRegistry,
+                            @Value("${app.dalle.rate-limit.requests-per-minute}") int requestsPerMinute,
+                            @Value("${app.dalle.rate-limit.burst}") int burst,
+                            @Value("${app.dalle.rate-limit.max-wait}") Duration maxWait,
+                            @Value("${app.dalle.rate-limit.default-retry-after}") Duration defaultRetryAfter) {
+        this(meterRegistry, requestsPerMinute, burst, maxWait, defaultRetryAfter, System::nanoTime, TimeUnit.NANOSECONDS::sleep);
+    }
+
+    DalleRateLimiter(MeterRegistry meterRegistry, int requestsPerMinute, int burst, Duration maxWait,
+                     Duration defaultRetryAfter, LongSupplier nanoTime, Sleeper sleeper) {
+        this.capacity = burst;
+        this.nanosPerPermit = TimeUnit.MINUTES.toNanos(1) / requestsPerMinute;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.defaultRetryAfter = defaultRetryAfter;
+        this.nanoTime = nanoTime;
+        this.sleeper = sleeper;
+        this.permits = burst;
+        this.refilledUntil = nanoTime.getAsLong();
+
+        this.permitWait = Timer.builder("promptwhispers.images.dalle.permits.wait")
+                .description("Time DALL-E calls wait for a permit of the rate limiter")
+                .register(meterRegistry);
+        this.rejections = Counter.builder("promptwhispers.images.dalle.permits.rejected")
+                .description("DALL-E calls rejected because no permit was available in time")
+                .register(meterRegistry);
+        this.throttles = Counter.builder("promptwhispers.images.dalle.throttled")
+                .description("DALL-E calls answered with 429 Too Many Requests")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Blocks until the next call to DALL-E may be sent.
+     *
+     * @throws DalleBusyException if no permit becomes available within maxWait
+     */
+    public void acquire() {
+        long wait;
+        lock.lock();
+        try {
+            long now = nanoTime.getAsLong();
+            refill(now);
+            permits--;
+            wait = Math.max(0, refilledUntil - now) + (permits < 0 ? (long) (-permits * nanosPerPermit) : 0);
+            if (wait > maxWaitNanos) {
+                permits++;
+                rejections.increment();
+                throw new DalleBusyException("Too many images are being generated right now. Please try again later.",
+                        Duration.ofNanos(wait));
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        permitWait.record(Duration.ofNanos(wait));
+        if (wait > 0) {
+            try {
+                sleeper.sleep(wait);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new DalleBusyException("Interrupted while waiting for a DALL-E permit", Duration.ofNanos(wait));
+            }
+        }
+    }
+
+    /**
+     * Takes a permit if one is available right away, for calls that are only worth making without waiting.
+     */
+    public boolean tryAcquire() {
+        lock.lock();
+        try {
+            long now = nanoTime.getAsLong();
+            refill(now);
+            if (permits < 1 || refilledUntil > now) {
+                return false;
+            }
+            permits--;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Holds back all further calls after DALL-E answered with 429 Too Many Requests.
+     *
+     * @param retryAfter the Retry-After of the answer, or null if it had none
+     */
+    public void backOff(Duration retryAfter) {
+        throttles.increment();
+        long pause = (retryAfter != null ? retryAfter : defaultRetryAfter).toNanos();
+        lock.lock();
+        try {
+            long now = nanoTime.getAsLong();
+            refill(now);
+            // Reserved permits stay reserved, they are served after the pause.
+            permits = Math.min(permits, 0);
+            refilledUntil = Math.max(refilledUntil, now + pause);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refill(long now) {
+        if (now > refilledUntil) {
+            permits = Math.min(capacity, permits + (double) (now - refilledUntil) / nanosPerPermit);
+            refilledUntil = now;
+        }
+    }
+
+    interface Sleeper {
+        void sleep(long nanos) throws InterruptedException;
+    }
+}
@@ -0,0 +1,219 @@
+package in.kahl.promptwhispers.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Shares the DALL-E capacity between games. At most maxConcurrent calls run at once, every further call waits in the
+ * queue of its game. Whenever a call finishes, the next one is taken from the game with the fewest open image rounds,
+ * so games that are about to finish are served first, and among equally advanced games in round-robin order. A waiting
+ * call gains one round of priority per aging interval, so large games aren't starved by a stream of small ones.
+ */
+@Component
+public class DalleScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DalleScheduler.class);
+
+    private final int maxConcurrent;
+
+    private final long agingNanos;
+
+    private final MeterRegistry meterRegistry;
+
+    private final LongSupplier nanoTime;
+
+    // Guarded by lock. Virtual threads can unmount while they wait for a ReentrantLock, unlike for a monitor.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // The iteration order is the round-robin order. A game moves to the end whenever one of its calls is let through.
+    private final Map<String, Deque<Waiter>> waitersByGame = new LinkedHashMap<>();
+
+    private int running;
+
+    private int waiting;
+
+    @Autowired
+    public DalleScheduler(MeterRegistry meterRegistry,
+                          @Value("${app.images.dalle.max-concurrent}") int maxConcurrent,
+                          @Value("${app.images.dalle.aging}") Duration aging) {
+        this(meterRegistry, maxConcurrent, aging, System::nanoTime);
+    }
+
+    DalleScheduler(MeterRegistry meterRegistry, int maxConcurrent, Duration aging, LongSupplier nanoTime) {
+        this.meterRegistry = meterRegistry;
+        this.maxConcurrent = maxConcurrent;
+        this.agingNanos = aging.toNanos();
+        this.nanoTime = nanoTime;
+
+        Gauge.builder("promptwhispers.images.dalle.waiting", this, scheduler -> scheduler.locked(() -> scheduler.waiting))
+                .description("Number of DALL-E calls waiting for a free slot")
+                .register(meterRegistry);
+        Gauge.builder("promptwhispers.images.dalle.waiting.games", this, scheduler -> scheduler.locked(scheduler.waitersByGame::size))
+                .description("Number of games with DALL-E calls waiting for a free slot")
+                .register(meterRegistry);
+        Gauge.builder("promptwhispers.images.dalle.running", this, scheduler -> scheduler.locked(() -> scheduler.running))
+                .description("Number of DALL-E calls in flight")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs a DALL-E call for a game once it is the game's turn.
+     *
+     * @param openImageRounds the number of image rounds the game has left, fewer rounds mean a higher priority
+     */
+    public <T> T call(String gameId, int openImageRounds, Supplier<T> dalleCall) {
+        acquire(gameId, openImageRounds);
+        try {
+            return dalleCall.get();
+        } finally {
+            release();
+        }
+    }
+
+    private void acquire(String gameId, int openImageRounds) {
+        long enqueuedAt = nanoTime.getAsLong();
+        lock.lock();
+        try {
+            if (running < maxConcurrent && waiting == 0) {
+                running++;
+                recordWait(openImageRounds, 0);
+                return;
+            }
+
+            Waiter waiter = new Waiter(gameId, openImageRounds, enqueuedAt, lock.newCondition());
+            waitersByGame.computeIfAbsent(gameId, key -> new ArrayDeque<>()).addLast(waiter);
+            waiting++;
+            awaitTurn(waiter);
+        } finally {
+            lock.unlock();
+        }
+
+        long waited = nanoTime.getAsLong() - enqueuedAt;
+        recordWait(openImageRounds, waited);
+        LOGGER.debug("DALL-E call of game {} waited {} ms", gameId, Duration.ofNanos(waited).toMillis());
+    }
+
+    private void awaitTurn(Waiter waiter) {
+        try {
+            while (!waiter.admitted) {
+                waiter.turn.await();
+            }
+        } catch (InterruptedException exception) {
+            if (waiter.admitted) {
+                running--;
+                admitWaiters();
+            } else {
+                remove(waiter);
+            }
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for DALL-E", exception);
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            running--;
+            admitWaiters();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void admitWaiters() {
+        while (running < maxConcurrent && waiting > 0) {
+            Waiter next = removeNext();
+            next.admitted = true;
+            running++;
+            next.turn.signal();
+        }
+    }
+
+    private Waiter removeNext() {
+        long now = nanoTime.getAsLong();
+        String nextGameId = null;
+        long bestPriority = Long.MAX_VALUE;
+        for (Map.Entry<String, Deque<Waiter>> game : waitersByGame.entrySet()) {
+            long priority = game.getValue().getFirst().priority(now, agingNanos);
+            // Strictly lower, so that ties go to the game that has been served least recently.
+            if (priority < bestPriority) {
+                bestPriority = priority;
+                nextGameId = game.getKey();
+            }
+        }
+
+        Deque<Waiter> queue = waitersByGame.remove(nextGameId);
+        Waiter next = queue.removeFirst();
+        if (!queue.isEmpty()) {
+            waitersByGame.put(nextGameId, queue);
+        }
+        waiting--;
+        return next;
+    }
+
+    private void remove(Waiter waiter) {
+        Deque<Waiter> queue = waitersByGame.get(waiter.gameId);
+        if (queue != null && queue.remove(waiter)) {
+            waiting--;
+            if (queue.isEmpty()) {
+                waitersByGame.remove(waiter.gameId);
+            }
+        }
+    }
+
+    private void recordWait(int openImageRounds, long waitedNanos) {
+        // Tagged by progress rather than by game id, which would create meters without bound. The debug log has the id.
+        Timer.builder("promptwhispers.images.dalle.wait")
+                .description("Time a DALL-E call of a game waits for a free slot")
+                .tag("open.image.rounds", String.valueOf(openImageRounds))
+                .register(meterRegistry)
+                .record(Duration.ofNanos(waitedNanos));
+    }
+
+    private int locked(Supplier<Integer> read) {
+        lock.lock();
+        try {
+            return read.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Waiter {
+        private final String gameId;
+
+        private final int openImageRounds;
+
+        private final long enqueuedAt;
+
+        private final Condition turn;
+
+        private boolean admitted;
+
+        private Waiter(String gameId, int openImageRounds, long enqueuedAt, Condition turn) {
+            this.gameId = gameId;
+            this.openImageRounds = openImageRounds;
+            this.enqueuedAt = enqueuedAt;
+            this.turn = turn;
+        }
+
+        private long priority(long now, long agingNanos) {
+            return openImageRounds - (now - enqueuedAt) / agingNanos;
+        }
+    }
+}
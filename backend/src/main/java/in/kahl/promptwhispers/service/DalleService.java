@@ -1,47 +1,238 @@
 package in.kahl.promptwhispers.service;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import in.kahl.promptwhispers.exception.DalleBusyException;
 import in.kahl.promptwhispers.model.openai.DalleRequest;
 import in.kahl.promptwhispers.model.openai.DalleResponse;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClient;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
 @Service
 public class DalleService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DalleService.class);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final DefaultResponseErrorHandler ERROR_HANDLER = new DefaultResponseErrorHandler();
+
+    public static final String PLACEHOLDER_IMAGE_URL = "https://res.cloudinary.com/magikahl/image/upload/v1709290580/promptwhispers_test/e96b0834-de38-4fdf-8d64-0122109ae643.png";
+
     private final RestClient restClient;
 
-    @Value("${app.openai.api.active}")
-    private boolean openaiApiActive;
+    private final boolean openaiApiActive;
+
+    private final DalleRateLimiter rateLimiter;
 
+    private final int maxAttempts;
+
+    private final CircuitBreaker circuitBreaker;
+
+    private final DalleHttpTransport transport;
+
+    private final String responseFormat;
+
+    private final ObservationRegistry observationRegistry;
 
     public DalleService(@Value("${app.dalle.api.url}") String url,
                         @Value("${app.openai.api.key}") String key,
-                        @Value("${app.openai.api.org}") String org) {
-        this.restClient = RestClient.builder()
+                        @Value("${app.openai.api.org}") String org,
+                        @Value("${app.openai.api.active}") boolean openaiApiActive,
+                        DalleRateLimiter rateLimiter,
+                        @Value("${app.dalle.rate-limit.max-attempts}") int maxAttempts,
+                        @Qualifier("dalleCircuitBreaker") CircuitBreaker circuitBreaker,
+                        DalleHttpTransport transport,
+                        @Value("${app.dalle.response-format}") String responseFormat,
+                        ObservationRegistry observationRegistry) {
+        this.openaiApiActive = openaiApiActive;
+        this.rateLimiter = rateLimiter;
+        this.maxAttempts = maxAttempts;
+        this.circuitBreaker = circuitBreaker;
+        this.transport = transport;
+        this.responseFormat = responseFormat;
+        this.observationRegistry = observationRegistry;
+        this.restClient = transport.configure(RestClient.builder())
                 .baseUrl(url)
                 .defaultHeader("Authorization", "Bearer " + key)
                 .defaultHeader("OpenAI-Organization", org)
+                .observationRegistry(observationRegistry)
                 .build();
     }
 
+    public DalleRequest createRequest(String prompt) {
+        return new DalleRequest("dall-e-2", prompt, responseFormat);
+    }
+
+    // With b64_json the image comes in the answer itself, and there is no URL at OpenAI to mirror.
+    public boolean returnsImageData() {
+        return openaiApiActive && DalleRequest.B64_JSON.equals(responseFormat);
+    }
+
     public String getGeneratedImageUrl(String prompt) {
-        if (openaiApiActive) {
-            DalleResponse response = restClient.post()
+        Observation observation = generationObservation(DalleRequest.URL);
+        return Observations.observe(observation, () -> {
+            if (openaiApiActive) {
+                // While the circuit is open, the game goes on with the placeholder instead of waiting for DALL-E.
+                // The answer of a hedged attempt that lost the race only holds a URL, there is nothing to clean up.
+                DalleResponse response = requestGeneration(createRequest(prompt),
+                        spec -> spec.retrieve().body(DalleResponse.class), lostResponse -> {
+                        });
+
+                if (response != null) {
+                    return response.data().getFirst().url();
+                }
+            }
+            observation.lowCardinalityKeyValue(Observations.OUTCOME, "placeholder");
+            return PLACEHOLDER_IMAGE_URL;
+        });
+    }
+
+    /**
+     * Generates the image as base64 payload and decodes it into a temporary file while the answer is read, so neither
+     * the encoded string nor the image bytes are held in memory. The caller owns the file and deletes it. Returns null
+     * while the circuit is open.
+     */
+    public Path getGeneratedImageFile(String prompt) {
+        Observation observation = generationObservation(DalleRequest.B64_JSON);
+        return Observations.observe(observation, () -> {
+            Path imageFile = requestGeneration(createRequest(prompt), spec -> spec.exchange(DalleService::writeImageFile),
+                    DalleService::deleteImageFile);
+            if (imageFile == null) {
+                observation.lowCardinalityKeyValue(Observations.OUTCOME, "placeholder");
+            }
+            return imageFile;
+        });
+    }
+
+    // Covers the whole generation including rate limiting and retries, the single HTTP attempts have their own timer.
+    private Observation generationObservation(String format) {
+        return Observation.createNotStarted("promptwhispers.images.dalle.generate", observationRegistry)
+                .contextualName("dalle generate")
+                .lowCardinalityKeyValue("format", format);
+    }
+
+    /**
+     * Sends the request, retrying while DALL-E answers with Too Many Requests. Returns null while the circuit is open.
+     * <p>
+     * Only the single HTTP attempts go through the circuit breaker. Waiting for a permit of our own rate limit, and
+     * being turned away by it, says nothing about the health of DALL-E.
+     */
+    private <T> T requestGeneration(DalleRequest request, Function<RestClient.RequestBodySpec, T> readAnswer,
+                                    Consumer<T> discard) {
+        for (int attempt = 1; ; attempt++) {
+            rateLimiter.acquire();
+            Attempt<T> result = circuitBreaker.call(() -> sendAttempt(request, readAnswer, discard), () -> null);
+            if (result == null) {
+                return null;
+            }
+            if (result.clientError() == null) {
+                return result.answer();
+            }
+            if (!(result.clientError() instanceof HttpClientErrorException.TooManyRequests throttled)) {
+                throw result.clientError();
+            }
+            Duration retryAfter = retryAfterOf(throttled);
+            rateLimiter.backOff(retryAfter);
+            if (attempt >= maxAttempts) {
+                throw new DalleBusyException("DALL-E keeps answering with Too Many Requests", retryAfter);
+            }
+        }
+    }
+
+    // A 4xx means DALL-E works but turned down this request, like a 429 when our quota is used up or a 400 when a
+    // prompt violates the content policy. It leaves the circuit breaker as a regular result, only 5xx, timeouts and IO
+    // errors count as failures.
+    private <T> Attempt<T> sendAttempt(DalleRequest request, Function<RestClient.RequestBodySpec, T> readAnswer,
+                                       Consumer<T> discard) {
+        try {
+            return new Attempt<>(transport.call(() -> readAnswer.apply(restClient.post()
                     .uri("/generations")
-                    .body(new DalleRequest(prompt))
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .retrieve()
-                    .body(DalleResponse.class);
+                    .body(request)
+                    .contentType(MediaType.APPLICATION_JSON)), discard), null);
+        } catch (HttpClientErrorException exception) {
+            return new Attempt<>(null, exception);
+        }
+    }
 
-            if (response == null) {
-                return "https://res.cloudinary.com/magikahl/image/upload/v1709290580/promptwhispers_test/e96b0834-de38-4fdf-8d64-0122109ae643.png";
+    private static Path writeImageFile(HttpRequest request, ClientHttpResponse response) throws IOException {
+        if (response.getStatusCode().isError()) {
+            // Throws the same exceptions as retrieve(), so a 429 is retried like in URL mode.
+            ERROR_HANDLER.handleError(response);
+        }
+
+        Path imageFile = Files.createTempFile("dalle-", ".png");
+        try (JsonParser parser = JSON_FACTORY.createParser(response.getBody())) {
+            while (parser.nextToken() != null) {
+                if (parser.currentToken() == JsonToken.FIELD_NAME && "b64_json".equals(parser.currentName())) {
+                    parser.nextToken();
+                    try (OutputStream image = Files.newOutputStream(imageFile)) {
+                        parser.readBinaryValue(image);
+                    }
+                    return imageFile;
+                }
             }
+            throw new IOException("The answer of DALL-E contains no image data");
+        } catch (IOException | RuntimeException exception) {
+            Files.deleteIfExists(imageFile);
+            throw exception;
+        }
+    }
+
+    // The image of a hedged attempt that lost the race.
+    private static void deleteImageFile(Path imageFile) {
+        try {
+            Files.deleteIfExists(imageFile);
+        } catch (IOException exception) {
+            LOGGER.warn("Could not delete the generated image {}", imageFile, exception);
+        }
+    }
 
-            return response.data().getFirst().url();
-        } else {
-            return "https://res.cloudinary.com/magikahl/image/upload/v1709290580/promptwhispers_test/e96b0834-de38-4fdf-8d64-0122109ae643.png";
+    // Retry-After is either a number of seconds or an HTTP date.
+    private static Duration retryAfterOf(HttpClientErrorException exception) {
+        String retryAfter = exception.getResponseHeaders() != null
+                ? exception.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER)
+                : null;
+        if (retryAfter == null || retryAfter.isBlank()) {
+            return null;
         }
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(retryAfter.trim())));
+        } catch (NumberFormatException notSeconds) {
+            try {
+                Instant retryAt = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                Duration untilRetry = Duration.between(Instant.now(), retryAt);
+                return untilRetry.isNegative() ? Duration.ZERO : untilRetry;
+            } catch (DateTimeParseException notADate) {
+                return null;
+            }
+        }
+    }
 
+    private record Attempt<T>(T answer, HttpClientErrorException clientError) {
     }
 }
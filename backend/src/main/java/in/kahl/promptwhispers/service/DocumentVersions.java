@@ -0,0 +1,103 @@
+package in.kahl.promptwhispers.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the latest version of the games and lobbies this instance has read or written, so that polling clients
+ * whose ETag is still current can be answered without loading the document. A version is only trusted for a short
+ * time after it has been confirmed, which bounds how long writes of other instances can go unnoticed.
+ */
+@Component
+public class DocumentVersions {
+    private static final int MAX_ENTRIES_BEFORE_PRUNING = 10_000;
+
+    private final Map<String, KnownVersion> knownVersions = new ConcurrentHashMap<>();
+
+    private final Duration maxAge;
+
+    public DocumentVersions(@Value("${app.versions.max-age}") Duration maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    public static String eTagOf(Long version) {
+        return "\"" + version + "\"";
+    }
+
+    public void record(String collection, String id, Long version) {
+        if (version == null) {
+            return;
+        }
+
+        if (knownVersions.size() > MAX_ENTRIES_BEFORE_PRUNING) {
+            knownVersions.values().removeIf(this::isExpired);
+        }
+
+        // A slow read must not replace the version of a write that finished in the meantime.
+        knownVersions.merge(key(collection, id), new KnownVersion(version, Instant.now()),
+                (known, recorded) -> recorded.version() >= known.version() ? recorded : known);
+    }
+
+    public void forget(String collection, String id) {
+        knownVersions.remove(key(collection, id));
+    }
+
+    public boolean isCurrent(String collection, String id, String ifNoneMatch) {
+        return findCurrentETag(collection, id, ifNoneMatch).isPresent();
+    }
+
+    /**
+     * Returns the ETag of the version this instance knows, if the If-None-Match header matches it.
+     */
+    public Optional<String> findCurrentETag(String collection, String id, String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return Optional.empty();
+        }
+
+        String key = key(collection, id);
+        KnownVersion known = knownVersions.get(key);
+        if (known == null) {
+            return Optional.empty();
+        }
+        if (isExpired(known)) {
+            knownVersions.remove(key, known);
+            return Optional.empty();
+        }
+        String eTag = eTagOf(known.version());
+        return matches(ifNoneMatch, eTag) ? Optional.of(eTag) : Optional.empty();
+    }
+
+    /**
+     * Whether an If-None-Match header matches the ETag. The header is a list of ETags, or * for any version. Like
+     * RFC 9110 asks for If-None-Match, the comparison is weak, so W/"3" matches "3".
+     */
+    public static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            String trimmedTag = tag.trim();
+            if (trimmedTag.equals("*") || trimmedTag.replaceFirst("^W/", "").equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isExpired(KnownVersion known) {
+        return known.confirmedAt().plus(maxAge).isBefore(Instant.now());
+    }
+
+    private static String key(String collection, String id) {
+        return collection + ":" + id;
+    }
+
+    private record KnownVersion(long version, Instant confirmedAt) {
+    }
+}
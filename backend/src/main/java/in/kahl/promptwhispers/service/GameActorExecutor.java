@@ -0,0 +1,137 @@
+package in.kahl.promptwhispers.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Runs all mutations of a game one after another on a per-game mailbox, while mailboxes of different games are
+ * drained in parallel by a small shared pool. A mailbox only exists while it has work and is evicted as soon as it
+ * runs empty.
+ */
+@Component
+public class GameActorExecutor {
+    // Upper bound of tasks drained in one go, so that a hot game hands its pool thread back to other games.
+    private static final int MAX_TASKS_PER_DRAIN = 32;
+
+    private final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    private final ExecutorService workers;
+
+    private final boolean enabled;
+
+    public GameActorExecutor(MeterRegistry meterRegistry,
+                             @Value("${app.games.actors.enabled}") boolean enabled,
+                             @Value("${app.games.actors.threads}") int threads,
+                             @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.enabled = enabled;
+        // Mailboxes block on MongoDB, so with virtual threads every draining mailbox simply gets a thread of its own.
+        this.workers = virtualThreads
+                ? Executors.newThreadPerTaskExecutor(WorkerThreads.of("game-actor-", true))
+                : Executors.newFixedThreadPool(threads, WorkerThreads.platform("game-actor-"));
+
+        Gauge.builder("promptwhispers.games.actors", mailboxes, Map::size)
+                .description("Number of games with pending mutations")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs the action on the mailbox of the given game and waits for its result. Exceptions thrown by the action are
+     * rethrown unchanged to the caller.
+     */
+    public <T> T execute(String gameId, Supplier<T> action) {
+        if (!enabled) {
+            return action.get();
+        }
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable task = Observations.propagating(() -> {
+            try {
+                result.complete(action.get());
+            } catch (Throwable throwable) {
+                result.completeExceptionally(throwable);
+            }
+        });
+
+        // Enqueueing happens while the map entry is locked, so a mailbox can't be evicted between lookup and enqueue.
+        Mailbox mailbox = mailboxes.compute(gameId, (id, existing) -> {
+            Mailbox target = existing != null ? existing : new Mailbox(id);
+            target.tasks.offer(task);
+            return target;
+        });
+        mailbox.schedule();
+
+        try {
+            return result.join();
+        } catch (CompletionException exception) {
+            if (exception.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (exception.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw exception;
+        }
+    }
+
+    int getNumOfActiveActors() {
+        return mailboxes.size();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workers.shutdown();
+    }
+
+    private final class Mailbox implements Runnable {
+        private final String gameId;
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Mailbox(String gameId) {
+            this.gameId = gameId;
+        }
+
+        private void schedule() {
+            if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+                workers.execute(this);
+            }
+        }
+
+        private boolean isIdle() {
+            return tasks.isEmpty() && !scheduled.get();
+        }
+
+        @Override
+        public void run() {
+            Runnable task;
+            int drained = 0;
+            while (drained < MAX_TASKS_PER_DRAIN && (task = tasks.poll()) != null) {
+                task.run();
+                drained++;
+            }
+
+            scheduled.set(false);
+            if (!tasks.isEmpty()) {
+                schedule();
+            } else {
+                mailboxes.computeIfPresent(gameId, (id, mailbox) -> mailbox.isIdle() ? null : mailbox);
+            }
+        }
+    }
+}
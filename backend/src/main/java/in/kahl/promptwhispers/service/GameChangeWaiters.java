@@ -0,0 +1,89 @@
+package in.kahl.promptwhispers.service;
+
+import in.kahl.promptwhispers.model.Game;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Keeps track of requests that wait for a game to move past a version. Waiting requests only hold an entry in this
+ * registry, not a thread.
+ */
+@Component
+public class GameChangeWaiters {
+    private final Map<String, Set<Waiter>> waitersByGame = new ConcurrentHashMap<>();
+
+    public GameChangeWaiters(MeterRegistry meterRegistry) {
+        Gauge.builder("promptwhispers.games.waiters", waitersByGame,
+                        waiters -> waiters.values().stream().mapToInt(Set::size).sum())
+                .description("Number of requests waiting for a game to change")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Calls onChange once with the first state of the game whose version is newer than sinceVersion. When the current
+     * state is already newer, that happens right away. The returned Runnable stops waiting.
+     */
+    public Runnable await(String gameId, long sinceVersion, Supplier<Game> currentState, Consumer<Game> onChange) {
+        Waiter waiter = new Waiter(gameId, sinceVersion, onChange);
+
+        // Registering before looking at the current state makes sure no change in between goes unnoticed.
+        waitersByGame.computeIfAbsent(gameId, id -> ConcurrentHashMap.newKeySet()).add(waiter);
+        try {
+            Game game = currentState.get();
+            if (game != null) {
+                waiter.offer(game);
+            }
+        } catch (RuntimeException exception) {
+            remove(waiter);
+            throw exception;
+        }
+
+        return () -> remove(waiter);
+    }
+
+    public void notifyChanged(Game game) {
+        Set<Waiter> waiters = waitersByGame.get(game.id());
+        if (waiters != null) {
+            waiters.forEach(waiter -> waiter.offer(game));
+        }
+    }
+
+    private void remove(Waiter waiter) {
+        waitersByGame.computeIfPresent(waiter.gameId, (id, waiters) -> {
+            waiters.remove(waiter);
+            return waiters.isEmpty() ? null : waiters;
+        });
+    }
+
+    private final class Waiter {
+        private final String gameId;
+
+        private final long sinceVersion;
+
+        private final Consumer<Game> onChange;
+
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private Waiter(String gameId, long sinceVersion, Consumer<Game> onChange) {
+            this.gameId = gameId;
+            this.sinceVersion = sinceVersion;
+            this.onChange = onChange;
+        }
+
+        private void offer(Game game) {
+            long version = game.version() == null ? 0 : game.version();
+            if (version > sinceVersion && done.compareAndSet(false, true)) {
+                remove(this);
+                onChange.accept(game);
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package in.kahl.promptwhispers.service;
+
+import in.kahl.promptwhispers.model.Game;
+import in.kahl.promptwhispers.model.dto.GameResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter.SseEventBuilder;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Pushes the state of a game to its server-sent event subscribers whenever it changes. Every event carries the whole
+ * game and its version as event id, so a newer event supersedes all older ones. That keeps reconnects cheap, since a
+ * client only needs the current state if its Last-Event-ID is behind, and lets a full buffer drop its oldest event
+ * without losing anything.
+ */
+@Component
+public class GameEventStream {
+    private static final String GAME_EVENT_NAME = "game";
+
+    private final Map<String, Set<Subscriber>> subscribersByGame = new ConcurrentHashMap<>();
+
+    private final ExecutorService senders;
+
+    private final ScheduledExecutorService heartbeats;
+
+    private final Counter droppedEvents;
+
+    private final Duration timeout;
+
+    private final int bufferSize;
+
+    private final ImageProxy imageProxy;
+
+    public GameEventStream(MeterRegistry meterRegistry,
+                           ImageProxy imageProxy,
+                           @Value("${app.games.events.timeout}") Duration timeout,
+                           @Value("${app.games.events.heartbeat}") Duration heartbeat,
+                           @Value("${app.games.events.buffer-size}") int bufferSize,
+                           @Value("${app.games.events.threads}") int threads) {
+        this.timeout = timeout;
+        this.bufferSize = bufferSize;
+        this.imageProxy = imageProxy;
+        // Senders stay on platform threads even in virtual thread mode: SseEmitter.send writes to the socket while
+        // holding the emitter's monitor, which would pin the carrier thread.
+        this.senders = Executors.newFixedThreadPool(threads, WorkerThreads.platform("game-events-"));
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(WorkerThreads.platform("game-events-heartbeat-"));
+        this.heartbeats.scheduleAtFixedRate(this::sendHeartbeats,
+                heartbeat.toMillis(), heartbeat.toMillis(), TimeUnit.MILLISECONDS);
+
+        this.droppedEvents = Counter.builder("promptwhispers.games.events.dropped")
+                .description("Game events replaced by a newer one before a slow subscriber received them")
+                .register(meterRegistry);
+        Gauge.builder("promptwhispers.games.events.subscribers", subscribersByGame,
+                        subscribers -> subscribers.values().stream().mapToInt(Set::size).sum())
+                .description("Number of open game event streams")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Opens a stream for the game. Unless the client has already seen the current version, the current state is sent
+     * right away.
+     */
+    public SseEmitter subscribe(String gameId, String lastEventId, Supplier<Game> currentState) {
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+        Subscriber subscriber = new Subscriber(gameId, emitter, parseVersion(lastEventId));
+
+        emitter.onCompletion(() -> unsubscribe(subscriber));
+        emitter.onTimeout(() -> unsubscribe(subscriber));
+        emitter.onError(throwable -> unsubscribe(subscriber));
+
+        // Registering before loading the current state makes sure no change in between goes unnoticed.
+        subscribersByGame.computeIfAbsent(gameId, id -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        try {
+            subscriber.offer(currentState.get());
+        } catch (RuntimeException exception) {
+            unsubscribe(subscriber);
+            throw exception;
+        }
+
+        return emitter;
+    }
+
+    public void publish(Game game) {
+        Set<Subscriber> subscribers = subscribersByGame.get(game.id());
+        if (subscribers != null) {
+            subscribers.forEach(subscriber -> subscriber.offer(game));
+        }
+    }
+
+    public void close(String gameId) {
+        Set<Subscriber> subscribers = subscribersByGame.remove(gameId);
+        if (subscribers != null) {
+            subscribers.forEach(subscriber -> subscriber.emitter.complete());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        heartbeats.shutdownNow();
+        senders.shutdown();
+        subscribersByGame.values().forEach(subscribers -> subscribers.forEach(subscriber -> subscriber.emitter.complete()));
+    }
+
+    private void sendHeartbeats() {
+        subscribersByGame.values().forEach(subscribers -> subscribers.forEach(Subscriber::offerHeartbeat));
+    }
+
+    private void unsubscribe(Subscriber subscriber) {
+        subscribersByGame.computeIfPresent(subscriber.gameId, (id, subscribers) -> {
+            subscribers.remove(subscriber);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+
+    private static long parseVersion(String lastEventId) {
+        if (lastEventId == null || lastEventId.isBlank()) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(lastEventId.trim());
+        } catch (NumberFormatException exception) {
+            return -1;
+        }
+    }
+
+    private final class Subscriber implements Runnable {
+        private final String gameId;
+
+        private final SseEmitter emitter;
+
+        private final Deque<SseEventBuilder> pending = new ArrayDeque<>();
+
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private long lastQueuedVersion;
+
+        private Subscriber(String gameId, SseEmitter emitter, long lastSeenVersion) {
+            this.gameId = gameId;
+            this.emitter = emitter;
+            this.lastQueuedVersion = lastSeenVersion;
+        }
+
+        private void offer(Game game) {
+            long version = game.version() == null ? 0 : game.version();
+            synchronized (this) {
+                if (version <= lastQueuedVersion) {
+                    return;
+                }
+                lastQueuedVersion = version;
+
+                if (pending.size() >= bufferSize) {
+                    pending.pollFirst();
+                    droppedEvents.increment();
+                }
+                pending.addLast(SseEmitter.event()
+                        .id(String.valueOf(version))
+                        .name(GAME_EVENT_NAME)
+                        .data(new GameResponse(game, imageProxy::proxyUrlOf), MediaType.APPLICATION_JSON));
+            }
+            schedule();
+        }
+
+        private void offerHeartbeat() {
+            synchronized (this) {
+                if (!pending.isEmpty()) {
+                    return;
+                }
+                pending.addLast(SseEmitter.event().comment("heartbeat"));
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                senders.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                SseEventBuilder event;
+                while ((event = nextEvent()) != null) {
+                    emitter.send(event);
+                }
+            } catch (IOException | IllegalStateException exception) {
+                // The client is gone or the emitter has been completed already.
+                unsubscribe(this);
+                emitter.completeWithError(exception);
+                return;
+            } finally {
+                scheduled.set(false);
+            }
+
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+            }
+            schedule();
+        }
+
+        private synchronized SseEventBuilder nextEvent() {
+            return pending.pollFirst();
+        }
+    }
+}
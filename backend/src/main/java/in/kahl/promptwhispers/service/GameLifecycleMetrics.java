@@ -0,0 +1,174 @@
+package in.kahl.promptwhispers.service;
+
+import in.kahl.promptwhispers.model.Game;
+import in.kahl.promptwhispers.model.GameState;
+import in.kahl.promptwhispers.repo.GameRepo;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Follows the games through their states. The number of games per state is kept up to date on every transition and
+ * reconciled against the database periodically, so it survives restarts and includes the transitions made by other
+ * instances. Every instance reports the count of all games, dashboards take the maximum instead of the sum.
+ * <p>
+ * The time a game entered its state is only known to the instance that made the transition. When another instance or
+ * a restart made it, the time in the state is not recorded, the total duration of the game always is.
+ */
+@Component
+public class GameLifecycleMetrics {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GameLifecycleMetrics.class);
+
+    private final MeterRegistry meterRegistry;
+
+    private final GameRepo gameRepo;
+
+    private final Clock clock;
+
+    private final Duration stateTimeout;
+
+    private final Map<GameState, AtomicLong> gamesByState = new EnumMap<>(GameState.class);
+
+    private final Map<String, StateEntry> stateEntries = new ConcurrentHashMap<>();
+
+    private final Map<GameState, Timer> stateDurations = new EnumMap<>(GameState.class);
+
+    private final Timer gameDuration;
+
+    private final ScheduledExecutorService reconciliation;
+
+    @Autowired
+    public GameLifecycleMetrics(MeterRegistry meterRegistry,
+                                GameRepo gameRepo,
+                                @Value("${app.games.lifecycle.reconcile-interval}") Duration reconcileInterval,
+                                @Value("${app.games.lifecycle.state-timeout}") Duration stateTimeout) {
+        this(meterRegistry, gameRepo, Clock.systemUTC(), stateTimeout,
+                Executors.newSingleThreadScheduledExecutor(WorkerThreads.platform("game-lifecycle-")));
+        reconciliation.scheduleWithFixedDelay(this::reconcile, 0, reconcileInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    GameLifecycleMetrics(MeterRegistry meterRegistry, GameRepo gameRepo, Clock clock, Duration stateTimeout,
+                         ScheduledExecutorService reconciliation) {
+        this.meterRegistry = meterRegistry;
+        this.gameRepo = gameRepo;
+        this.clock = clock;
+        this.stateTimeout = stateTimeout;
+        this.reconciliation = reconciliation;
+
+        for (GameState state : GameState.values()) {
+            AtomicLong games = new AtomicLong();
+            gamesByState.put(state, games);
+            Gauge.builder("promptwhispers.games.active", games, AtomicLong::get)
+                    .description("Number of stored games per state")
+                    .tag("state", state.name())
+                    .register(meterRegistry);
+            // Games wait for their players, so the time in a state ranges from seconds to hours.
+            stateDurations.put(state, Timer.builder("promptwhispers.games.state.duration")
+                    .description("Time games spend in a state before moving on")
+                    .tag("state", state.name())
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofSeconds(1))
+                    .maximumExpectedValue(stateTimeout)
+                    .register(meterRegistry));
+        }
+        this.gameDuration = Timer.builder("promptwhispers.games.duration")
+                .description("Time from the creation of a game until it is finished")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMinutes(1))
+                .maximumExpectedValue(stateTimeout)
+                .register(meterRegistry);
+    }
+
+    public void created(Game game) {
+        gamesByState.get(game.gameState()).incrementAndGet();
+        stateEntries.put(game.id(), new StateEntry(game.gameState(), clock.instant()));
+        countTransition(GameState.NEW, game.gameState());
+    }
+
+    public void changed(GameState previousState, Game game) {
+        if (previousState == game.gameState()) {
+            return;
+        }
+        Instant now = clock.instant();
+        gamesByState.get(previousState).decrementAndGet();
+        gamesByState.get(game.gameState()).incrementAndGet();
+        countTransition(previousState, game.gameState());
+
+        // An entry of another state is left over from before other instances moved the game on.
+        StateEntry entry = game.gameState() == GameState.FINISHED
+                ? stateEntries.remove(game.id())
+                : stateEntries.put(game.id(), new StateEntry(game.gameState(), now));
+        if (entry != null && entry.state() == previousState) {
+            stateDurations.get(previousState).record(Duration.between(entry.enteredAt(), now));
+        }
+        if (game.gameState() == GameState.FINISHED) {
+            gameDuration.record(Duration.between(game.createdAt(), now));
+        }
+    }
+
+    public void deleted(Game game) {
+        gamesByState.get(game.gameState()).decrementAndGet();
+        stateEntries.remove(game.id());
+    }
+
+    /**
+     * Replaces the counts with the ones in the database and forgets the entry times of games that sat in their state
+     * for longer than the timeout, they have most likely been abandoned.
+     */
+    void reconcile() {
+        try {
+            Map<GameState, Long> storedCounts = gameRepo.countGamesByState();
+            gamesByState.forEach((state, games) -> {
+                long storedCount = storedCounts.getOrDefault(state, 0L);
+                long previousCount = games.getAndSet(storedCount);
+                if (previousCount != storedCount) {
+                    LOGGER.debug("Corrected the number of {} games from {} to {}", state, previousCount, storedCount);
+                }
+            });
+
+            Instant abandonedBefore = clock.instant().minus(stateTimeout);
+            stateEntries.values().removeIf(entry -> entry.enteredAt().isBefore(abandonedBefore));
+        } catch (RuntimeException exception) {
+            LOGGER.warn("Could not reconcile the game counts", exception);
+        }
+    }
+
+    int getTrackedGameCount() {
+        return stateEntries.size();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        reconciliation.shutdownNow();
+    }
+
+    private void countTransition(GameState from, GameState to) {
+        Counter.builder("promptwhispers.games.transitions")
+                .description("Game state transitions")
+                .tag("from", from.name())
+                .tag("to", to.name())
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private record StateEntry(GameState state, Instant enteredAt) {
+    }
+}
@@ -2,18 +2,37 @@ package in.kahl.promptwhispers.service;
 
 import in.kahl.promptwhispers.model.*;
 import in.kahl.promptwhispers.model.dto.PromptCreate;
+import in.kahl.promptwhispers.model.openai.DalleRequest;
 import in.kahl.promptwhispers.repo.GameRepo;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.oauth2.core.user.OAuth2User;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 @Service
 public class GameService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GameService.class);
+
+    private static final String GAME_STATE = "game.state";
+
     private final GameRepo gameRepo;
 
     private final UserService userService;
@@ -22,88 +41,295 @@ public class GameService {
 
     private final DalleService dalleService;
 
-    private final CloudinaryService cloudinaryService;
+    private final ImageStore imageStore;
+
+    private final RetryingUpdateExecutor retryingUpdateExecutor;
+
+    private final GameActorExecutor gameActorExecutor;
+
+    private final DocumentVersions documentVersions;
+
+    private final GameEventStream gameEventStream;
+
+    private final GameChangeWaiters gameChangeWaiters;
 
-    public GameService(GameRepo gameRepo, UserService userService, LobbyService lobbyService, DalleService dalleService, CloudinaryService cloudinaryService) {
+    private final ImageGenerationJobs imageGenerationJobs;
+
+    private final ImageCache imageCache;
+
+    private final DalleScheduler dalleScheduler;
+
+    private final ImageVariantPipeline imageVariantPipeline;
+
+    private final ObservationRegistry observationRegistry;
+
+    private final GameLifecycleMetrics gameLifecycleMetrics;
+
+    public GameService(GameRepo gameRepo, UserService userService, LobbyService lobbyService, DalleService dalleService, ImageStore imageStore, RetryingUpdateExecutor retryingUpdateExecutor, GameActorExecutor gameActorExecutor, DocumentVersions documentVersions, GameEventStream gameEventStream, GameChangeWaiters gameChangeWaiters, ImageGenerationJobs imageGenerationJobs, ImageCache imageCache, DalleScheduler dalleScheduler, ImageVariantPipeline imageVariantPipeline, ObservationRegistry observationRegistry, GameLifecycleMetrics gameLifecycleMetrics) {
         this.gameRepo = gameRepo;
         this.userService = userService;
         this.lobbyService = lobbyService;
         this.dalleService = dalleService;
-        this.cloudinaryService = cloudinaryService;
+        this.imageStore = imageStore;
+        this.retryingUpdateExecutor = retryingUpdateExecutor;
+        this.gameActorExecutor = gameActorExecutor;
+        this.documentVersions = documentVersions;
+        this.gameEventStream = gameEventStream;
+        this.gameChangeWaiters = gameChangeWaiters;
+        this.imageGenerationJobs = imageGenerationJobs;
+        this.imageCache = imageCache;
+        this.dalleScheduler = dalleScheduler;
+        this.imageVariantPipeline = imageVariantPipeline;
+        this.observationRegistry = observationRegistry;
+        this.gameLifecycleMetrics = gameLifecycleMetrics;
     }
 
     public Game createGame(OAuth2User principal, Lobby lobby) {
-        User user = userService.getLoggedInUser(principal);
-        User host = userService.getUserById(lobby.host().id());
-        if (!user.equals(host)) {
-            throw new IllegalStateException("Only the host can start a new game!");
-        }
+        return createGame(principal, lobby, false);
+    }
 
-        Game newGame = new Game().withPlayer(host);
+    public Game createGame(OAuth2User principal, Lobby lobby, boolean autoGenerateImages) {
+        return observeGameStep("createGame", () -> {
+            User user = userService.getLoggedInUser(principal);
+            User host = userService.getUserById(lobby.host().id());
+            if (!user.equals(host)) {
+                throw new IllegalStateException("Only the host can start a new game!");
+            }
 
-        for (User playerInLobby : lobby.players()) {
-            User player = userService.getUserById(playerInLobby.id());
-            newGame = newGame.withPlayer(player);
-            userService.save(player.withGameId(newGame.id()));
-        }
+            Game newGame = new Game().withAutoGenerateImages(autoGenerateImages).withPlayer(host);
 
-        newGame = gameRepo.save(newGame.withGameState(GameState.REQUEST_NEW_PROMPTS));
-        lobbyService.update(lobby.withGameId(newGame.id()));
+            for (User playerInLobby : lobby.players()) {
+                User player = userService.getUserById(playerInLobby.id());
+                newGame = newGame.withPlayer(player);
+                userService.addGameId(player.id(), newGame.id());
+            }
 
-        return newGame;
+            newGame = gameRepo.save(newGame.withGameState(GameState.REQUEST_NEW_PROMPTS));
+            documentVersions.record("game", newGame.id(), newGame.version());
+            gameLifecycleMetrics.created(newGame);
+            lobbyService.startGame(lobby, newGame.id());
+
+            return newGame;
+        });
     }
 
     public Game getGameById(String id) {
-        return gameRepo.findById(id).orElseThrow(NoSuchElementException::new);
+        return observeGameStep("getGameById", () -> {
+            Game game = gameRepo.findById(id).orElseThrow(NoSuchElementException::new);
+            documentVersions.record("game", game.id(), game.version());
+            return game;
+        });
+    }
+
+    public Optional<String> findUnchangedETag(String id, String ifNoneMatch) {
+        return documentVersions.findCurrentETag("game", id, ifNoneMatch);
+    }
+
+    public SseEmitter subscribeToGame(String id, String lastEventId) {
+        return gameEventStream.subscribe(id, lastEventId, () -> getGameById(id));
+    }
+
+    public Runnable awaitGameChange(String id, long sinceVersion, Consumer<Game> onChange) {
+        // When this instance knows that sinceVersion is the current version, the game doesn't need to be loaded.
+        Supplier<Game> currentState = documentVersions.isCurrent("game", id, DocumentVersions.eTagOf(sinceVersion))
+                ? () -> null
+                : () -> getGameById(id);
+        return gameChangeWaiters.await(id, sinceVersion, currentState, onChange);
     }
 
     public List<Game> getGamesByUser(OAuth2User principal) {
-        User user = userService.getLoggedInUser(principal);
-        List<String> gameIds = userService.getAllGameIds(user.id());
+        return Observations.observe(step("getGamesByUser"), () -> {
+            User user = userService.getLoggedInUser(principal);
+            List<String> gameIds = userService.getAllGameIds(user.id());
 
-        if (gameIds == null || gameIds.isEmpty()) {
-            return Collections.emptyList();
-        }
+            if (gameIds == null || gameIds.isEmpty()) {
+                return Collections.emptyList();
+            }
 
-        return gameRepo.findAllById(gameIds).stream().sorted(Comparator.comparing(Game::createdAt)).toList();
+            return gameRepo.findAllById(gameIds).stream().sorted(Comparator.comparing(Game::createdAt)).toList();
+        });
     }
 
     public void deleteGame(OAuth2User principal, String gameId) {
-        User user = userService.getLoggedInUser(principal);
-        Game game = gameRepo.findById(gameId).orElseThrow(NoSuchElementException::new);
-
-        if (user.gameIds().contains(game.id())) {
-            userService.removeGame(user, game);
-            gameRepo.delete(game);
-        } else {
-            throw new AccessDeniedException("You are not allowed to delete this game.");
-        }
+        Observation observation = step("deleteGame");
+        Observations.run(observation, () -> {
+            User user = userService.getLoggedInUser(principal);
+            Game game = gameRepo.findById(gameId).orElseThrow(NoSuchElementException::new);
+            observation.lowCardinalityKeyValue(GAME_STATE, game.gameState().name());
+
+            if (user.gameIds().contains(game.id())) {
+                userService.removeGame(user, game);
+                gameRepo.delete(game);
+                gameLifecycleMetrics.deleted(game);
+                documentVersions.forget("game", game.id());
+                gameEventStream.close(game.id());
+            } else {
+                throw new AccessDeniedException("You are not allowed to delete this game.");
+            }
+        });
     }
 
     public Game submitPrompt(OAuth2User principal, String gameId, PromptCreate promptCreate) {
-        User user = userService.getLoggedInUser(principal);
-        Game game = gameRepo.findById(gameId).orElseThrow(NoSuchElementException::new);
+        return observeGameStep("submitPrompt", () -> {
+            User user = userService.getLoggedInUser(principal);
+
+            Turn newPrompt = promptCreate.asNewPromptTurn(user);
+
+            Game game = appendTurn(gameId, newPrompt);
 
-        Turn newPrompt = promptCreate.asNewPromptTurn(user);
-        Game gameWithPrompt = game.withTurn(newPrompt);
+            // Generation overlaps with the typing time of the other players. A later generateImage call for the same
+            // prompt joins this job instead of starting another one.
+            if (game.autoGenerateImages()) {
+                try {
+                    scheduleImageGeneration(game, user, newPrompt);
+                } catch (RejectedExecutionException exception) {
+                    // The prompt is stored. The client requests the image after every prompt anyway, which starts
+                    // a new job when this one was rejected or has failed.
+                    LOGGER.warn("Automatic image generation for game {} was rejected", gameId);
+                }
+            }
+            return game;
+        });
+    }
+
+    public ImageJob generateImage(OAuth2User principal, String gameId) {
+        Observation observation = step("generateImage");
+        return Observations.observe(observation, () -> {
+            User user = userService.getLoggedInUser(principal);
+            Game game = gameRepo.findById(gameId).orElseThrow(NoSuchElementException::new);
+            observation.lowCardinalityKeyValue(GAME_STATE, game.gameState().name());
+
+            Turn prompt = game.getMostRecentPromptByPlayer(user);
+
+            return scheduleImageGeneration(game, user, prompt);
+        });
+    }
+
+    private ImageJob scheduleImageGeneration(Game game, User user, Turn prompt) {
+        String gameId = game.id();
+        int openImageRounds = game.countOpenImageRounds();
+        return imageGenerationJobs.submit(gameId, user.id(), prompt.id(), () -> {
+            String imageUrl = getOrCreateImageUrl(gameId, openImageRounds, prompt.content());
+
+            Turn generatedImage = new Turn(user, TurnType.IMAGE, imageUrl);
+
+            Game gameWithImage = appendTurn(gameId, generatedImage,
+                    storedGame -> requireUnillustratedPrompt(storedGame, user, prompt).withTurn(generatedImage));
+            imageVariantPipeline.submit(gameWithImage, generatedImage, this::publishChange);
+        });
+    }
+
+    // Another instance may have illustrated the prompt in the meantime. Appending a second image would skip a round.
+    private static Game requireUnillustratedPrompt(Game game, User user, Turn prompt) {
+        if (!prompt.id().equals(game.getMostRecentPromptByPlayer(user).id())) {
+            throw new IllegalStateException("The prompt has already been illustrated.");
+        }
+        return game;
+    }
+
+    private String getOrCreateImageUrl(String gameId, int openImageRounds, String prompt) {
+        Observation observation = step("getOrCreateImageUrl");
+        return Observations.observe(observation, () -> {
+            DalleRequest request = dalleService.createRequest(prompt);
+            Optional<String> cachedImageUrl = imageCache.get(request);
+            if (cachedImageUrl.isPresent()) {
+                observation.lowCardinalityKeyValue(Observations.OUTCOME, "cached");
+                return cachedImageUrl.get();
+            }
+            String imageUrl = createImageUrl(gameId, openImageRounds, request);
+            if (imageUrl.equals(DalleService.PLACEHOLDER_IMAGE_URL)) {
+                observation.lowCardinalityKeyValue(Observations.OUTCOME, "placeholder");
+            }
+            return imageUrl;
+        });
+    }
 
-        return gameRepo.save(gameWithPrompt);
+    private String createImageUrl(String gameId, int openImageRounds, DalleRequest request) {
+        if (dalleService.returnsImageData()) {
+            return createImageFromData(gameId, openImageRounds, request);
+        }
+        String imageUrlDalle = dalleScheduler.call(gameId, openImageRounds, () -> dalleService.getGeneratedImageUrl(request.prompt()));
+        // The placeholder stands in for DALL-E while it is unavailable, it is neither mirrored nor cached.
+        if (imageUrlDalle.equals(DalleService.PLACEHOLDER_IMAGE_URL)) {
+            return imageUrlDalle;
+        }
+        String imageUrl = imageStore.uploadImage(imageUrlDalle);
+
+        // A failed upload leaves the DALL-E URL, which expires after a while and must not be cached.
+        if (!imageUrl.equals(imageUrlDalle)) {
+            imageCache.put(request, imageUrl);
+        }
+        return imageUrl;
+    }
+
+    private String createImageFromData(String gameId, int openImageRounds, DalleRequest request) {
+        Path imageFile = dalleScheduler.call(gameId, openImageRounds, () -> dalleService.getGeneratedImageFile(request.prompt()));
+        if (imageFile == null) {
+            return DalleService.PLACEHOLDER_IMAGE_URL;
+        }
+        try {
+            String imageUrl = imageStore.uploadImage(imageFile);
+            // The placeholder of a failed upload must not be cached, the next game with this prompt tries again.
+            if (!imageUrl.equals(DalleService.PLACEHOLDER_IMAGE_URL)) {
+                imageCache.put(request, imageUrl);
+            }
+            return imageUrl;
+        } finally {
+            try {
+                Files.deleteIfExists(imageFile);
+            } catch (IOException exception) {
+                LOGGER.warn("Could not delete the generated image {}", imageFile, exception);
+            }
+        }
     }
 
-    public Game generateImage(OAuth2User principal, String gameId) {
-        User user = userService.getLoggedInUser(principal);
-        Game game = gameRepo.findById(gameId).orElseThrow(NoSuchElementException::new);
+    public ImageJob getImageJob(String gameId, String jobId) {
+        return imageGenerationJobs.getJob(jobId)
+                .filter(job -> job.gameId().equals(gameId))
+                .orElseThrow(NoSuchElementException::new);
+    }
 
-        Turn prompt = game.getMostRecentPromptByPlayer(user);
+    private Game appendTurn(String gameId, Turn turn) {
+        return appendTurn(gameId, turn, storedGame -> storedGame.withTurn(turn));
+    }
 
-        String imageUrlDalle = dalleService.getGeneratedImageUrl(prompt.content());
-        String imageUrl = cloudinaryService.uploadImage(imageUrlDalle);
+    private Game appendTurn(String gameId, Turn turn, UnaryOperator<Game> transition) {
+        return observeGameStep("appendTurn", () -> {
+            // The state before the turn is the one of the attempt that got stored.
+            AtomicReference<GameState> previousState = new AtomicReference<>();
+            Game game = gameActorExecutor.execute(gameId, () -> retryingUpdateExecutor.update("game",
+                    () -> gameRepo.findById(gameId).orElseThrow(NoSuchElementException::new),
+                    storedGame -> {
+                        previousState.set(storedGame.gameState());
+                        return transition.apply(storedGame);
+                    },
+                    gameWithTurn -> gameRepo.appendTurn(gameWithTurn, turn)));
+            gameLifecycleMetrics.changed(previousState.get(), game);
+            publishChange(game);
+            return game;
+        });
+    }
 
-        // Pull game again to ensure that concurrent image generations are pulled.
-        game = gameRepo.findById(gameId).orElseThrow(NoSuchElementException::new);
-        Turn generatedImage = new Turn(user, TurnType.IMAGE, imageUrl);
-        Game gameWithImage = game.withTurn(generatedImage);
+    private void publishChange(Game game) {
+        documentVersions.record("game", game.id(), game.version());
+        gameEventStream.publish(game);
+        gameChangeWaiters.notifyChanged(game);
+    }
+
+    // The state is the one the game is in after the step, unknown for steps without a single game or failing before.
+    private Observation step(String name) {
+        return Observation.createNotStarted("promptwhispers.game.steps", observationRegistry)
+                .contextualName("game " + name)
+                .lowCardinalityKeyValue("step", name)
+                .lowCardinalityKeyValue(GAME_STATE, "unknown");
+    }
 
-        return gameRepo.save(gameWithImage);
+    private Game observeGameStep(String name, Supplier<Game> call) {
+        Observation observation = step(name);
+        return Observations.observe(observation, () -> {
+            Game game = call.get();
+            observation.lowCardinalityKeyValue(GAME_STATE, game.gameState().name());
+            return game;
+        });
     }
 }
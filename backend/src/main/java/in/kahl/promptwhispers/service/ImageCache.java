@@ -0,0 +1,110 @@
+package in.kahl.promptwhispers.service;
+
+import in.kahl.promptwhispers.model.GeneratedImage;
+import in.kahl.promptwhispers.model.openai.DalleRequest;
+import in.kahl.promptwhispers.repo.GeneratedImageRepo;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Remembers the stored image of every prompt that has been rendered before, so repeated prompts skip DALL-E and
+ * Cloudinary altogether. Images are addressed by a hash of the normalized prompt, the model and the size, kept in
+ * MongoDB and fronted by a bounded in-memory LRU.
+ */
+@Component
+public class ImageCache {
+    private final GeneratedImageRepo generatedImageRepo;
+
+    private final Map<String, String> recentImageUrls;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    public ImageCache(GeneratedImageRepo generatedImageRepo,
+                      MeterRegistry meterRegistry,
+                      @Value("${app.images.cache.size}") int size) {
+        this.generatedImageRepo = generatedImageRepo;
+        this.recentImageUrls = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > size;
+            }
+        });
+
+        this.hits = Counter.builder("promptwhispers.images.cache.requests")
+                .tag("result", "hit")
+                .description("Image generations answered from the image cache or not")
+                .register(meterRegistry);
+        this.misses = Counter.builder("promptwhispers.images.cache.requests")
+                .tag("result", "miss")
+                .description("Image generations answered from the image cache or not")
+                .register(meterRegistry);
+        Gauge.builder("promptwhispers.images.cache.hit.ratio", this, ImageCache::getHitRatio)
+                .description("Share of image generations answered from the image cache")
+                .register(meterRegistry);
+        Gauge.builder("promptwhispers.images.cache.size", recentImageUrls, Map::size)
+                .description("Number of images held in the in-memory image cache")
+                .register(meterRegistry);
+    }
+
+    public Optional<String> get(DalleRequest request) {
+        String key = keyOf(request);
+
+        String imageUrl = recentImageUrls.get(key);
+        if (imageUrl == null) {
+            imageUrl = generatedImageRepo.findById(key)
+                    .map(GeneratedImage::imageUrl)
+                    .orElse(null);
+            if (imageUrl != null) {
+                recentImageUrls.put(key, imageUrl);
+            }
+        }
+
+        (imageUrl != null ? hits : misses).increment();
+        return Optional.ofNullable(imageUrl);
+    }
+
+    public void put(DalleRequest request, String imageUrl) {
+        String key = keyOf(request);
+        generatedImageRepo.save(new GeneratedImage(key, normalize(request.prompt()), request.model(), request.size(), imageUrl));
+        recentImageUrls.put(key, imageUrl);
+    }
+
+    double getHitRatio() {
+        double requests = hits.count() + misses.count();
+        return requests == 0 ? 0 : hits.count() / requests;
+    }
+
+    static String keyOf(DalleRequest request) {
+        String content = normalize(request.prompt()) + "\n" + request.model() + "\n" + request.size();
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException("SHA-256 is not available", exception);
+        }
+    }
+
+    // Prompts that only differ in case, spacing or Unicode representation render the same image.
+    static String normalize(String prompt) {
+        return Normalizer.normalize(prompt, Normalizer.Form.NFKC)
+                .toLowerCase(Locale.ROOT)
+                .replaceAll("\\s+", " ")
+                .trim();
+    }
+}
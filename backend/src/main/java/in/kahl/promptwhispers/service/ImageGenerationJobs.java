@@ -0,0 +1,184 @@
+package in.kahl.promptwhispers.service;
+
+import in.kahl.promptwhispers.exception.DalleBusyException;
+import in.kahl.promptwhispers.model.ImageJob;
+import in.kahl.promptwhispers.model.ImageJobStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs image generations on a dedicated pool, so that the slow DALL-E and Cloudinary calls don't occupy request
+ * threads. Jobs are kept in memory and forgotten some time after they have finished.
+ */
+@Component
+public class ImageGenerationJobs {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageGenerationJobs.class);
+
+    private final Map<String, ImageJob> jobs = new ConcurrentHashMap<>();
+
+    // The job of every prompt turn that is being or has recently been illustrated. Repeated requests for the same prompt
+    // share that job instead of paying for another image. Only failed jobs may be replaced.
+    private final Map<PromptKey, String> jobIdsByPrompt = new ConcurrentHashMap<>();
+
+    private final Executor executor;
+
+    private final Duration retention;
+
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicInteger queuedJobs = new AtomicInteger();
+
+    private final Counter coalescedJobs;
+
+    @Autowired
+    public ImageGenerationJobs(MeterRegistry meterRegistry,
+                               @Value("${app.images.jobs.threads}") int threads,
+                               @Value("${app.images.jobs.queue-capacity}") int queueCapacity,
+                               @Value("${app.images.jobs.retention}") Duration retention,
+                               @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this(meterRegistry, virtualThreads
+                ? virtualThreadPerJob(threads + queueCapacity)
+                : new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), WorkerThreads.platform("image-jobs-")), retention);
+    }
+
+    ImageGenerationJobs(MeterRegistry meterRegistry, Executor executor, Duration retention) {
+        this.meterRegistry = meterRegistry;
+        this.executor = executor;
+        this.retention = retention;
+
+        Gauge.builder("promptwhispers.images.jobs.queued", queuedJobs, AtomicInteger::get)
+                .description("Number of image generations waiting for a free worker")
+                .register(meterRegistry);
+        this.coalescedJobs = Counter.builder("promptwhispers.images.jobs.coalesced")
+                .description("Image generation requests answered with the job of an earlier request for the same prompt")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queues the generation of the image for a prompt turn. If that prompt already has a job that hasn't failed, no
+     * second generation is started and the existing job is returned instead.
+     *
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public ImageJob submit(String gameId, String playerId, String promptId, Runnable generation) {
+        removeExpiredJobs();
+
+        PromptKey promptKey = new PromptKey(gameId, playerId, promptId);
+        ImageJob job = new ImageJob(gameId, playerId, promptId);
+        // The job is taken from inside compute, another request may remove expired jobs from the map right after.
+        AtomicReference<ImageJob> sharedJob = new AtomicReference<>();
+        jobIdsByPrompt.compute(promptKey, (key, existingJobId) -> {
+            ImageJob existingJob = existingJobId != null ? jobs.get(existingJobId) : null;
+            if (existingJob != null && existingJob.status() != ImageJobStatus.FAILED) {
+                sharedJob.set(existingJob);
+                return existingJobId;
+            }
+            jobs.put(job.id(), job);
+            return job.id();
+        });
+        if (sharedJob.get() != null) {
+            coalescedJobs.increment();
+            return sharedJob.get();
+        }
+
+        queuedJobs.incrementAndGet();
+        try {
+            long queuedAt = System.nanoTime();
+            executor.execute(Observations.propagating(() -> run(job, generation, queuedAt)));
+        } catch (RejectedExecutionException exception) {
+            queuedJobs.decrementAndGet();
+            jobs.remove(job.id());
+            jobIdsByPrompt.remove(promptKey, job.id());
+            throw exception;
+        }
+        return job;
+    }
+
+    public Optional<ImageJob> getJob(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (executor instanceof ExecutorService executorService) {
+            executorService.shutdown();
+        }
+    }
+
+    private void run(ImageJob queuedJob, Runnable generation, long queuedAt) {
+        long start = System.nanoTime();
+        queuedJobs.decrementAndGet();
+        ImageJob runningJob = queuedJob.asRunning();
+        jobs.put(runningJob.id(), runningJob);
+        Timer.builder("promptwhispers.images.jobs.wait")
+                .description("Time image generations spend waiting for a free worker")
+                .register(meterRegistry)
+                .record(Duration.ofNanos(start - queuedAt));
+
+        ImageJobStatus status = ImageJobStatus.SUCCEEDED;
+        ImageJob finishedJob = null;
+        try {
+            generation.run();
+        } catch (DalleBusyException exception) {
+            LOGGER.info("Image generation {} for game {} failed, DALL-E is busy: {}", queuedJob.id(), queuedJob.gameId(),
+                    exception.getMessage());
+            status = ImageJobStatus.FAILED;
+            finishedJob = runningJob.asBusy(exception.getMessage(), Instant.now().plus(exception.getRetryAfter()));
+        } catch (RuntimeException exception) {
+            LOGGER.warn("Image generation {} for game {} failed.", queuedJob.id(), queuedJob.gameId(), exception);
+            status = ImageJobStatus.FAILED;
+        } finally {
+            Timer.builder("promptwhispers.images.jobs.run")
+                    .description("Time spent generating and uploading an image")
+                    .tag("outcome", status.toString().toLowerCase())
+                    .register(meterRegistry)
+                    .record(Duration.ofNanos(System.nanoTime() - start));
+            jobs.put(runningJob.id(), finishedJob != null ? finishedJob : runningJob.asFinished(status));
+        }
+    }
+
+    private void removeExpiredJobs() {
+        Instant now = Instant.now();
+        jobs.values().removeIf(job -> job.isFinished() && Duration.between(job.finishedAt(), now).compareTo(retention) > 0);
+        jobIdsByPrompt.values().removeIf(jobId -> !jobs.containsKey(jobId));
+    }
+
+    // A job waits for DALL-E and Cloudinary most of the time, so with virtual threads it gets a thread of its own right
+    // away. The number of admitted jobs stays bounded by the same total as the pool and its queue.
+    private static Executor virtualThreadPerJob(int maxJobs) {
+        Semaphore admissions = new Semaphore(maxJobs);
+        ThreadFactory threads = WorkerThreads.of("image-jobs-", true);
+        return job -> {
+            if (!admissions.tryAcquire()) {
+                throw new RejectedExecutionException("Too many image jobs");
+            }
+            threads.newThread(() -> {
+                try {
+                    job.run();
+                } finally {
+                    admissions.release();
+                }
+            }).start();
+        };
+    }
+
+    private record PromptKey(String gameId, String playerId, String promptId) {
+    }
+}
@@ -0,0 +1,403 @@
+package in.kahl.promptwhispers.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Serves the images of the turns from the origin of the app. Every remote image is fetched once and kept in a cache on
+ * the local disk, which drops the least recently served images once it grows beyond maxSize. Replays of finished games
+ * are then served without going to the CDN again.
+ * <p>
+ * Only images under allowedPrefixes are proxied, so the endpoint can't be used to make the backend fetch arbitrary
+ * URLs, or fill the cache with the images of other accounts on the same CDN. Redirects are not followed.
+ */
+@Component
+public class ImageProxy {
+    public static final String URL_PREFIX = "/api/images/proxy?url=";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageProxy.class);
+
+    /**
+     * An open cached image. The channel stays readable even if the image is evicted while it is being sent.
+     */
+    public record CachedImage(FileChannel channel, long size, MediaType mediaType) implements Closeable {
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private record Entry(long size, MediaType mediaType) {
+    }
+
+    private final boolean enabled;
+
+    private final List<String> allowedPrefixes;
+
+    private final Path directory;
+
+    private final Path incoming;
+
+    private final long maxSize;
+
+    private final long maxImageSize;
+
+    private final Duration downloadTimeout;
+
+    private final HttpClient httpClient;
+
+    private final Map<String, CompletableFuture<Void>> downloads = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter servedBytes;
+
+    private final Counter evictions;
+
+    // Guarded by lock. In access order, so the least recently served image comes first.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long usedBytes;
+
+    public ImageProxy(MeterRegistry meterRegistry,
+                      @Value("${app.images.proxy.enabled}") boolean enabled,
+                      @Value("${app.images.proxy.allowed-prefixes}") List<String> allowedPrefixes,
+                      @Value("${app.images.proxy.directory}") Path directory,
+                      @Value("${app.images.proxy.max-size}") DataSize maxSize,
+                      @Value("${app.images.proxy.max-image-size}") DataSize maxImageSize,
+                      @Value("${app.images.proxy.download-timeout}") Duration downloadTimeout) throws IOException {
+        this.enabled = enabled;
+        this.allowedPrefixes = allowedPrefixes.stream()
+                .map(String::trim)
+                .toList();
+        this.directory = directory;
+        this.incoming = directory.resolve("incoming");
+        this.maxSize = maxSize.toBytes();
+        this.maxImageSize = maxImageSize.toBytes();
+        this.downloadTimeout = downloadTimeout;
+        // The allowed prefixes are only checked for the requested URL, a redirect could lead anywhere.
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(downloadTimeout)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+
+        this.hits = Counter.builder("promptwhispers.images.proxy.requests")
+                .description("Requests for proxied images by whether the image was on disk already")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("promptwhispers.images.proxy.requests")
+                .description("Requests for proxied images by whether the image was on disk already")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        this.servedBytes = Counter.builder("promptwhispers.images.proxy.served")
+                .description("Bytes of proxied images sent to clients")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.evictions = Counter.builder("promptwhispers.images.proxy.evictions")
+                .description("Images dropped from the disk cache to stay below its maximum size")
+                .register(meterRegistry);
+        Gauge.builder("promptwhispers.images.proxy.disk.usage", this, ImageProxy::getUsedBytes)
+                .description("Bytes of images in the disk cache")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("promptwhispers.images.proxy.entries", this, ImageProxy::getEntryCount)
+                .description("Number of images in the disk cache")
+                .register(meterRegistry);
+
+        if (enabled) {
+            loadEntries();
+        }
+    }
+
+    /**
+     * Returns the URL under which the proxy serves the image, or the URL itself if it isn't proxied.
+     */
+    public String proxyUrlOf(String url) {
+        return isProxied(url) ? URL_PREFIX + URLEncoder.encode(url, StandardCharsets.UTF_8) : url;
+    }
+
+    /**
+     * Opens the cached copy of the image, and fetches it first if it isn't on disk yet. Concurrent requests for an
+     * image that isn't cached share a single download. Returns empty if the URL isn't proxied.
+     */
+    public Optional<CachedImage> open(String url) throws IOException {
+        if (!isProxied(url)) {
+            return Optional.empty();
+        }
+        String key = keyOf(url);
+
+        Optional<CachedImage> image = openCached(key);
+        if (image.isPresent()) {
+            hits.increment();
+        } else {
+            misses.increment();
+            download(key, url);
+            image = openCached(key);
+        }
+        image.ifPresent(cachedImage -> servedBytes.increment(cachedImage.size()));
+        return image;
+    }
+
+    long getUsedBytes() {
+        lock.lock();
+        try {
+            return usedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getEntryCount() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isProxied(String url) {
+        if (!enabled || url == null) {
+            return false;
+        }
+        try {
+            URI uri = new URI(url);
+            if (!("https".equals(uri.getScheme()) || "http".equals(uri.getScheme()))
+                    || uri.getHost() == null
+                    || uri.getRawUserInfo() != null
+                    || uri.getPath() == null
+                    || uri.getPath().contains("..")) {
+                return false;
+            }
+            // The decoded path is compared, so encoded slashes or dots can't leave the allowed folder.
+            String location = uri.getScheme() + "://" + uri.getHost().toLowerCase(Locale.ROOT)
+                    + (uri.getPort() != -1 ? ":" + uri.getPort() : "") + uri.getPath();
+            return allowedPrefixes.stream().anyMatch(location::startsWith);
+        } catch (URISyntaxException exception) {
+            return false;
+        }
+    }
+
+    // Opened while holding the lock, so that the image can't be evicted between the lookup and the open.
+    private Optional<CachedImage> openCached(String key) throws IOException {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return Optional.empty();
+            }
+            try {
+                return Optional.of(new CachedImage(FileChannel.open(pathOf(key), StandardOpenOption.READ),
+                        entry.size(), entry.mediaType()));
+            } catch (NoSuchFileException deletedFromDisk) {
+                entries.remove(key);
+                usedBytes -= entry.size();
+                return Optional.empty();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void download(String key, String url) throws IOException {
+        CompletableFuture<Void> download = new CompletableFuture<>();
+        CompletableFuture<Void> runningDownload = downloads.putIfAbsent(key, download);
+        if (runningDownload != null) {
+            try {
+                runningDownload.get();
+                return;
+            } catch (ExecutionException exception) {
+                throw exception.getCause() instanceof IOException ioException
+                        ? ioException
+                        : new IOException(exception.getCause());
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the download of " + url);
+            }
+        }
+
+        try {
+            fetch(key, url);
+            download.complete(null);
+        } catch (IOException | RuntimeException exception) {
+            download.completeExceptionally(exception);
+            throw exception;
+        } finally {
+            downloads.remove(key);
+        }
+    }
+
+    private void fetch(String key, String url) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(downloadTimeout)
+                .GET()
+                .build();
+        HttpResponse<InputStream> response;
+        try {
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading " + url);
+        }
+
+        Files.createDirectories(incoming);
+        Path temporaryFile = Files.createTempFile(incoming, "image-", ".tmp");
+        try {
+            long size;
+            try (InputStream body = response.body();
+                 OutputStream out = Files.newOutputStream(temporaryFile)) {
+                if (response.statusCode() != 200) {
+                    throw new IOException("Download of " + url + " failed with status " + response.statusCode());
+                }
+                size = copy(body, out, url);
+            }
+
+            Path path = pathOf(key);
+            Files.createDirectories(path.getParent());
+            Files.move(temporaryFile, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            add(key, new Entry(size, ImageTypes.of(path)));
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    private long copy(InputStream in, OutputStream out, String url) throws IOException {
+        byte[] buffer = new byte[8192];
+        long size = 0;
+        for (int read; (read = in.read(buffer)) != -1; ) {
+            size += read;
+            if (size > maxImageSize) {
+                throw new IOException("The image " + url + " is larger than " + maxImageSize + " bytes");
+            }
+            out.write(buffer, 0, read);
+        }
+        return size;
+    }
+
+    private void add(String key, Entry entry) {
+        lock.lock();
+        try {
+            Entry replaced = entries.put(key, entry);
+            usedBytes += entry.size() - (replaced != null ? replaced.size() : 0);
+            evictLeastRecentlyServed();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The newest image is kept even if it alone is larger than the cache.
+    private void evictLeastRecentlyServed() {
+        Iterator<Map.Entry<String, Entry>> leastRecentlyServed = entries.entrySet().iterator();
+        while (usedBytes > maxSize && entries.size() > 1) {
+            Map.Entry<String, Entry> evicted = leastRecentlyServed.next();
+            leastRecentlyServed.remove();
+            usedBytes -= evicted.getValue().size();
+            evictions.increment();
+            try {
+                Files.deleteIfExists(pathOf(evicted.getKey()));
+            } catch (IOException exception) {
+                LOGGER.warn("Could not delete the cached image {}", evicted.getKey(), exception);
+            }
+        }
+    }
+
+    // After a restart, the images that were modified last count as the most recently served.
+    private void loadEntries() throws IOException {
+        Files.createDirectories(directory);
+        if (Files.isDirectory(incoming)) {
+            try (Stream<Path> leftovers = Files.list(incoming)) {
+                for (Path leftover : leftovers.toList()) {
+                    Files.deleteIfExists(leftover);
+                }
+            }
+        }
+
+        List<Path> images;
+        try (Stream<Path> files = Files.walk(directory, 2)) {
+            images = files.filter(Files::isRegularFile)
+                    .filter(file -> !file.startsWith(incoming))
+                    .filter(file -> file.getFileName().toString().matches("[0-9a-f]{64}"))
+                    .sorted(Comparator.comparing(ImageProxy::lastModifiedTime))
+                    .toList();
+        }
+        lock.lock();
+        try {
+            for (Path image : images) {
+                long size = Files.size(image);
+                entries.put(image.getFileName().toString(), new Entry(size, ImageTypes.of(image)));
+                usedBytes += size;
+            }
+            evictLeastRecentlyServed();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Path pathOf(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    private static FileTime lastModifiedTime(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException exception) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static String keyOf(String url) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                    .digest(url.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+}
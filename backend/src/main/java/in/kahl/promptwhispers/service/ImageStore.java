@@ -0,0 +1,22 @@
+package in.kahl.promptwhispers.service;
+
+import org.springframework.lang.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Keeps the generated images, which the URLs at OpenAI only do for an hour. Implementations return the URL the image
+ * is served from. The store is chosen with app.images.store, either cloudinary or local.
+ */
+public interface ImageStore {
+    String uploadImage(@NonNull String url);
+
+    String uploadImage(@NonNull Path file);
+
+    /**
+     * Opens an image by the URL this store has returned for it, or by the URL it was left at if storing it failed.
+     */
+    InputStream openImage(@NonNull String url) throws IOException;
+}
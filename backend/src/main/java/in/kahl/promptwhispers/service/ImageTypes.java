@@ -0,0 +1,51 @@
+package in.kahl.promptwhispers.service;
+
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Tells the type of a stored image by its first bytes. URLConnection.guessContentTypeFromStream does the same, but
+ * doesn't know WebP, which is what Cloudinary delivers the images in.
+ */
+final class ImageTypes {
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G'};
+
+    private static final byte[] JPEG = {(byte) 0xff, (byte) 0xd8, (byte) 0xff};
+
+    private static final byte[] GIF = "GIF8".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] RIFF = "RIFF".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] WEBP = "WEBP".getBytes(StandardCharsets.US_ASCII);
+
+    private ImageTypes() {
+    }
+
+    static MediaType of(Path file) throws IOException {
+        byte[] header;
+        try (InputStream image = Files.newInputStream(file)) {
+            header = image.readNBytes(12);
+        }
+        if (startsWith(header, 0, PNG)) {
+            return MediaType.IMAGE_PNG;
+        } else if (startsWith(header, 0, JPEG)) {
+            return MediaType.IMAGE_JPEG;
+        } else if (startsWith(header, 0, GIF)) {
+            return MediaType.IMAGE_GIF;
+        } else if (startsWith(header, 0, RIFF) && startsWith(header, 8, WEBP)) {
+            return MediaType.parseMediaType("image/webp");
+        }
+        return MediaType.APPLICATION_OCTET_STREAM;
+    }
+
+    private static boolean startsWith(byte[] header, int offset, byte[] signature) {
+        return header.length >= offset + signature.length
+                && Arrays.equals(header, offset, offset + signature.length, signature, 0, signature.length);
+    }
+}
@@ -0,0 +1,247 @@
+package in.kahl.promptwhispers.service;
+
+import in.kahl.promptwhispers.model.Game;
+import in.kahl.promptwhispers.model.ImageVariants;
+import in.kahl.promptwhispers.model.Turn;
+import in.kahl.promptwhispers.model.TurnType;
+import in.kahl.promptwhispers.repo.GameRepo;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Creates the variants of every stored image turn in the background: a thumbnail of the image and a contact sheet of
+ * all images of its round so far. Scaling is CPU-bound, so the pool is small and bounded. Variants are optional, when
+ * the queue is full or a variant can't be created, the turn goes on without them.
+ */
+@Component
+public class ImageVariantPipeline {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageVariantPipeline.class);
+
+    private final ImageStore imageStore;
+
+    private final GameRepo gameRepo;
+
+    private final Executor executor;
+
+    private final int thumbnailSize;
+
+    private final int contactSheetTileSize;
+
+    private final AtomicInteger queuedTurns = new AtomicInteger();
+
+    private final Counter rejectedTurns;
+
+    private final Timer successfulTurns;
+
+    private final Timer failedTurns;
+
+    @Autowired
+    public ImageVariantPipeline(MeterRegistry meterRegistry,
+                                ImageStore imageStore,
+                                GameRepo gameRepo,
+                                @Value("${app.images.variants.threads}") int threads,
+                                @Value("${app.images.variants.queue-capacity}") int queueCapacity,
+                                @Value("${app.images.variants.thumbnail-size}") int thumbnailSize,
+                                @Value("${app.images.variants.contact-sheet-tile-size}") int contactSheetTileSize) {
+        this(meterRegistry, imageStore, gameRepo, new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), WorkerThreads.platform("image-variants-")),
+                thumbnailSize, contactSheetTileSize);
+    }
+
+    ImageVariantPipeline(MeterRegistry meterRegistry, ImageStore imageStore, GameRepo gameRepo, Executor executor,
+                         int thumbnailSize, int contactSheetTileSize) {
+        this.imageStore = imageStore;
+        this.gameRepo = gameRepo;
+        this.executor = executor;
+        this.thumbnailSize = thumbnailSize;
+        this.contactSheetTileSize = contactSheetTileSize;
+
+        Gauge.builder("promptwhispers.images.variants.queued", queuedTurns, AtomicInteger::get)
+                .description("Number of image turns waiting for their variants")
+                .register(meterRegistry);
+        this.rejectedTurns = Counter.builder("promptwhispers.images.variants.rejected")
+                .description("Image turns left without variants because the queue was full")
+                .register(meterRegistry);
+        this.successfulTurns = variantTimer(meterRegistry, "success");
+        this.failedTurns = variantTimer(meterRegistry, "error");
+    }
+
+    /**
+     * Queues the creation of the variants of an image turn that has just been stored. Once they are stored as well,
+     * onStored gets the updated game.
+     */
+    public void submit(Game game, Turn imageTurn, Consumer<Game> onStored) {
+        if (imageTurn.type() != TurnType.IMAGE) {
+            return;
+        }
+        queuedTurns.incrementAndGet();
+        try {
+            executor.execute(Observations.propagating(() -> {
+                queuedTurns.decrementAndGet();
+                createVariants(game, imageTurn, onStored);
+            }));
+        } catch (RejectedExecutionException exception) {
+            queuedTurns.decrementAndGet();
+            rejectedTurns.increment();
+            LOGGER.warn("No variants for image turn {} of game {}, the queue is full", imageTurn.id(), game.id());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (executor instanceof ExecutorService executorService) {
+            executorService.shutdown();
+        }
+    }
+
+    private void createVariants(Game game, Turn imageTurn, Consumer<Game> onStored) {
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            int roundIndex = findRoundIndex(game, imageTurn);
+            List<Turn> round = game.rounds().get(roundIndex);
+            int turnIndex = round.indexOf(imageTurn);
+
+            BufferedImage thumbnail = scale(read(imageTurn.content()), thumbnailSize);
+            List<BufferedImage> tiles = new ArrayList<>();
+            for (Turn turn : round.subList(0, turnIndex)) {
+                if (turn.type() == TurnType.IMAGE) {
+                    // Earlier turns usually have their thumbnail already, which is much cheaper to read.
+                    tiles.add(scale(read(turn.variants() != null ? turn.variants().thumbnailUrl() : turn.content()),
+                            contactSheetTileSize));
+                }
+            }
+            tiles.add(scale(thumbnail, contactSheetTileSize));
+
+            ImageVariants variants = new ImageVariants(upload(thumbnail), upload(contactSheetOf(tiles)));
+            gameRepo.setTurnVariants(game.id(), roundIndex, turnIndex, imageTurn.id(), variants)
+                    .ifPresent(onStored);
+            succeeded = true;
+        } catch (IOException | RuntimeException exception) {
+            LOGGER.warn("Could not create the variants of image turn {} of game {}", imageTurn.id(), game.id(), exception);
+        } finally {
+            (succeeded ? successfulTurns : failedTurns).record(Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+
+    private BufferedImage read(String url) throws IOException {
+        try (InputStream in = imageStore.openImage(url)) {
+            BufferedImage image = ImageIO.read(in);
+            if (image == null) {
+                throw new IOException("The image " + url + " has an unknown format");
+            }
+            return image;
+        }
+    }
+
+    private String upload(BufferedImage image) throws IOException {
+        Path file = Files.createTempFile("variant-", ".jpg");
+        try {
+            if (!ImageIO.write(image, "jpg", file.toFile())) {
+                throw new IOException("No JPEG writer available");
+            }
+            // The image store falls back to the placeholder while Cloudinary is unavailable, which is no variant of
+            // this image.
+            String url = imageStore.uploadImage(file);
+            if (DalleService.PLACEHOLDER_IMAGE_URL.equals(url)) {
+                throw new IOException("The variant could not be uploaded");
+            }
+            return url;
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // The tiles are laid out in a square grid, in the order the images were drawn.
+    private BufferedImage contactSheetOf(List<BufferedImage> tiles) {
+        int columns = (int) Math.ceil(Math.sqrt(tiles.size()));
+        int rows = (tiles.size() + columns - 1) / columns;
+        BufferedImage sheet = new BufferedImage(columns * contactSheetTileSize, rows * contactSheetTileSize,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = sheet.createGraphics();
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, sheet.getWidth(), sheet.getHeight());
+            for (int i = 0; i < tiles.size(); i++) {
+                graphics.drawImage(tiles.get(i), (i % columns) * contactSheetTileSize, (i / columns) * contactSheetTileSize, null);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return sheet;
+    }
+
+    /**
+     * Scales the image to fit into a square of the given size. Halving the image step by step keeps the bilinear
+     * interpolation from skipping pixels, which would make the thumbnail look grainy.
+     */
+    static BufferedImage scale(BufferedImage image, int size) {
+        BufferedImage scaled = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double factor = Math.min(1.0, (double) size / Math.max(width, height));
+        int targetWidth = Math.max(1, (int) Math.round(width * factor));
+        int targetHeight = Math.max(1, (int) Math.round(height * factor));
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            BufferedImage step = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = step.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setColor(Color.WHITE);
+                graphics.fillRect(0, 0, width, height);
+                graphics.drawImage(scaled, 0, 0, width, height, null);
+            } finally {
+                graphics.dispose();
+            }
+            scaled = step;
+        } while (width != targetWidth || height != targetHeight);
+        return scaled;
+    }
+
+    private static int findRoundIndex(Game game, Turn turn) {
+        for (int roundIndex = 0; roundIndex < game.rounds().size(); roundIndex++) {
+            if (game.rounds().get(roundIndex).contains(turn)) {
+                return roundIndex;
+            }
+        }
+        throw new IllegalArgumentException("The turn is not part of the game.");
+    }
+
+    private static Timer variantTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("promptwhispers.images.variants.duration")
+                .description("Time to create and store the variants of an image turn")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+}
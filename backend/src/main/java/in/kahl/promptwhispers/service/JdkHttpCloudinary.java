@@ -0,0 +1,190 @@
+package in.kahl.promptwhispers.service;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.ProgressCallback;
+import com.cloudinary.Uploader;
+import com.cloudinary.Util;
+import com.cloudinary.strategies.AbstractUploaderStrategy;
+import com.cloudinary.utils.ObjectUtils;
+import com.cloudinary.utils.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Cloudinary client whose uploads go through the JDK HttpClient instead of the Apache HttpClient 4 that the Cloudinary
+ * SDK ships with. The Apache connection manager releases and closes connections while holding a monitor, which pins
+ * the carrier of a virtual thread. The JDK client only uses locks that virtual threads can unmount from.
+ */
+public class JdkHttpCloudinary extends Cloudinary {
+    private final HttpClient httpClient;
+
+    public JdkHttpCloudinary() {
+        super();
+        this.httpClient = createHttpClient();
+    }
+
+    public JdkHttpCloudinary(Map config) {
+        super(config);
+        this.httpClient = createHttpClient();
+    }
+
+    @Override
+    public Uploader uploader() {
+        // An Uploader hands itself to its strategy on construction, so every Uploader gets a strategy of its own.
+        return new Uploader(this, new UploaderStrategy(httpClient));
+    }
+
+    private HttpClient createHttpClient() {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL);
+        if (config.proxyHost != null && config.proxyPort != 0) {
+            builder.proxy(ProxySelector.of(new InetSocketAddress(config.proxyHost, config.proxyPort)));
+        }
+        return builder.build();
+    }
+
+    private static final class UploaderStrategy extends AbstractUploaderStrategy {
+        private final HttpClient httpClient;
+
+        private UploaderStrategy(HttpClient httpClient) {
+            this.httpClient = httpClient;
+        }
+
+        @Override
+        public Map callApi(String action, Map<String, Object> params, Map options, Object file,
+                           ProgressCallback progressCallback) throws IOException {
+            if (progressCallback != null) {
+                throw new IllegalArgumentException("Progress callback is not supported");
+            }
+            if (options == null) {
+                options = ObjectUtils.emptyMap();
+            }
+            boolean returnError = ObjectUtils.asBoolean(options.get("return_error"), false);
+
+            if (requiresSigning(action, options)) {
+                uploader.signRequestParams(params, options);
+            } else {
+                Util.clearEmpty(params);
+            }
+
+            MultipartBody body = new MultipartBody();
+            for (Map.Entry<String, Object> param : params.entrySet()) {
+                if (param.getValue() instanceof Collection<?> values) {
+                    for (Object value : values) {
+                        body.addText(param.getKey() + "[]", ObjectUtils.asString(value));
+                    }
+                } else {
+                    String value = param.getValue().toString();
+                    if (StringUtils.isNotBlank(value)) {
+                        body.addText(param.getKey(), value);
+                    }
+                }
+            }
+            addFile(body, file, (String) options.get("filename"));
+
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(buildUploadUrl(action, options)))
+                    .header("User-Agent", cloudinary().getUserAgent() + " JavaHttpClient")
+                    .header("Content-Type", "multipart/form-data; boundary=" + body.boundary)
+                    .POST(body.finish());
+            // Like in the Apache strategy of the SDK, the timeout is given in seconds.
+            if (options.get("timeout") instanceof Integer timeout) {
+                request.timeout(Duration.ofSeconds(timeout));
+            }
+            if (options.get("extra_headers") instanceof Map<?, ?> extraHeaders) {
+                extraHeaders.forEach((name, value) -> request.header(name.toString(), value.toString()));
+            }
+
+            try {
+                HttpResponse<String> response = httpClient.send(request.build(),
+                        HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+                return processResponse(returnError, response.statusCode(), response.body());
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Upload to Cloudinary was interrupted");
+            }
+        }
+
+        private static void addFile(MultipartBody body, Object file, String filename) throws IOException {
+            if (file instanceof String path && !StringUtils.isRemoteUrl(path)) {
+                file = new File(path);
+            }
+
+            if (file instanceof File localFile) {
+                if (!localFile.isFile() || !localFile.canRead()) {
+                    throw new IOException("File not found or unreadable: " + localFile);
+                }
+                body.addFile("file", filename != null ? filename : localFile.getName(), localFile.toPath());
+            } else if (file instanceof String url) {
+                body.addText("file", url);
+            } else if (file instanceof byte[] bytes) {
+                body.addBinary("file", filename != null ? filename : "file", bytes);
+            } else if (file != null) {
+                throw new IOException("Unrecognized file parameter " + file);
+            }
+        }
+    }
+
+    // Files are streamed from disk when the request is sent, only the text parts are held in memory.
+    private static final class MultipartBody {
+        private final String boundary = UUID.randomUUID().toString();
+
+        private final List<HttpRequest.BodyPublisher> parts = new ArrayList<>();
+
+        private ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        private void addText(String name, String value) {
+            write("--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"" + name + "\"\r\n"
+                    + "Content-Type: text/plain; charset=UTF-8\r\n\r\n"
+                    + value + "\r\n");
+        }
+
+        private void addBinary(String name, String filename, byte[] value) {
+            writeBinaryHeader(name, filename);
+            content.writeBytes(value);
+            write("\r\n");
+        }
+
+        private void addFile(String name, String filename, Path file) throws FileNotFoundException {
+            writeBinaryHeader(name, filename);
+            parts.add(HttpRequest.BodyPublishers.ofByteArray(content.toByteArray()));
+            parts.add(HttpRequest.BodyPublishers.ofFile(file));
+            content = new ByteArrayOutputStream();
+            write("\r\n");
+        }
+
+        private HttpRequest.BodyPublisher finish() {
+            write("--" + boundary + "--\r\n");
+            parts.add(HttpRequest.BodyPublishers.ofByteArray(content.toByteArray()));
+            return HttpRequest.BodyPublishers.concat(parts.toArray(HttpRequest.BodyPublisher[]::new));
+        }
+
+        private void writeBinaryHeader(String name, String filename) {
+            write("--" + boundary + "\r\n"
+                    + "Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + filename + "\"\r\n"
+                    + "Content-Type: application/octet-stream\r\n\r\n");
+        }
+
+        private void write(String text) {
+            content.writeBytes(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
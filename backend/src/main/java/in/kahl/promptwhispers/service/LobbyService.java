@@ -8,24 +8,35 @@ import org.springframework.security.oauth2.core.user.OAuth2User;
 import org.springframework.stereotype.Service;
 
 import java.util.NoSuchElementException;
+import java.util.Optional;
 
 @Service
 public class LobbyService {
     private final LobbyRepo lobbyRepo;
     private final UserService userService;
+    private final RetryingUpdateExecutor retryingUpdateExecutor;
+    private final DocumentVersions documentVersions;
 
-    public LobbyService(LobbyRepo lobbyRepo, UserService userService) {
+    public LobbyService(LobbyRepo lobbyRepo, UserService userService, RetryingUpdateExecutor retryingUpdateExecutor, DocumentVersions documentVersions) {
         this.lobbyRepo = lobbyRepo;
         this.userService = userService;
+        this.retryingUpdateExecutor = retryingUpdateExecutor;
+        this.documentVersions = documentVersions;
     }
 
     public Lobby createLobby(OAuth2User principal) {
         User user = userService.getLoggedInUser(principal);
-        return lobbyRepo.save((new Lobby(user)));
+        return save(new Lobby(user));
     }
 
     public Lobby getLobbyById(String id) {
-        return lobbyRepo.findById(id).orElseThrow(NoSuchElementException::new);
+        Lobby lobby = lobbyRepo.findById(id).orElseThrow(NoSuchElementException::new);
+        documentVersions.record("lobby", lobby.id(), lobby.version());
+        return lobby;
+    }
+
+    public Optional<String> findUnchangedETag(String id, String ifNoneMatch) {
+        return documentVersions.findCurrentETag("lobby", id, ifNoneMatch);
     }
 
     public Lobby joinLobby(OAuth2User principal, String id) {
@@ -36,8 +47,10 @@ public class LobbyService {
             return lobby;
         }
 
-        lobby.players().add(user);
-        return lobbyRepo.save(lobby);
+        return retryingUpdateExecutor.update("lobby", lobby,
+                () -> getLobbyById(id),
+                storedLobby -> storedLobby.withPlayer(user),
+                this::save);
     }
 
     public Lobby leaveLobby(OAuth2User principal, String id) {
@@ -48,8 +61,10 @@ public class LobbyService {
             throw new AccessDeniedException("You cannot leave the lobby when you are the host.");
         }
 
-        lobby.players().remove(user);
-        return lobbyRepo.save(lobby);
+        return retryingUpdateExecutor.update("lobby", lobby,
+                () -> getLobbyById(id),
+                storedLobby -> storedLobby.withoutPlayer(user),
+                this::save);
     }
 
     public void deleteLobby(OAuth2User principal, String id) {
@@ -58,12 +73,22 @@ public class LobbyService {
 
         if (lobby.host().equals(user)) {
             lobbyRepo.delete(lobby);
+            documentVersions.forget("lobby", lobby.id());
         } else {
             throw new AccessDeniedException("You are not allowed to delete this lobby.");
         }
     }
 
-    public void update(Lobby lobby) {
-        lobbyRepo.save(lobby);
+    public void startGame(Lobby lobby, String gameId) {
+        retryingUpdateExecutor.update("lobby",
+                () -> lobbyRepo.findById(lobby.id()).orElse(lobby),
+                storedLobby -> storedLobby.withGameId(gameId),
+                this::save);
+    }
+
+    private Lobby save(Lobby lobby) {
+        Lobby savedLobby = lobbyRepo.save(lobby);
+        documentVersions.record("lobby", savedLobby.id(), savedLobby.version());
+        return savedLobby;
     }
 }
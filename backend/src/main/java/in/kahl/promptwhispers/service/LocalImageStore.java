@@ -0,0 +1,183 @@
+package in.kahl.promptwhispers.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Stores the images on the local disk, so that the app runs without Cloudinary, for example in load tests. Images are
+ * addressed by the SHA-256 of their content and sharded into directories by the first two bytes of the hash. An image
+ * that is stored twice is only kept once. The images are served by the ImageController under /api/images/{hash}.
+ */
+@Service
+@ConditionalOnProperty(name = "app.images.store", havingValue = "local")
+public class LocalImageStore implements ImageStore {
+    public static final String URL_PREFIX = "/api/images/";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocalImageStore.class);
+
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+    public record StoredImage(String hash, Path path, long size, MediaType mediaType) {
+    }
+
+    private final Path directory;
+
+    private final Path incoming;
+
+    private final Duration downloadTimeout;
+
+    private final HttpClient httpClient;
+
+    private final Counter storedImages;
+
+    private final Counter deduplicatedImages;
+
+    public LocalImageStore(MeterRegistry meterRegistry,
+                           @Value("${app.images.local.directory}") Path directory,
+                           @Value("${app.images.local.download-timeout}") Duration downloadTimeout) throws IOException {
+        this.directory = directory;
+        // Images are written next to their final place, so that moving them there is atomic.
+        this.incoming = Files.createDirectories(directory.resolve("incoming"));
+        this.downloadTimeout = downloadTimeout;
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(downloadTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+
+        this.storedImages = Counter.builder("promptwhispers.images.store.local.stored")
+                .description("Images written to the local image store")
+                .register(meterRegistry);
+        this.deduplicatedImages = Counter.builder("promptwhispers.images.store.local.deduplicated")
+                .description("Images that were already in the local image store")
+                .register(meterRegistry);
+    }
+
+    // Like with Cloudinary, the image stays at the original URL if it can't be downloaded.
+    @Override
+    public String uploadImage(@NonNull String url) {
+        try (InputStream image = download(url)) {
+            return URL_PREFIX + store(image);
+        } catch (IOException exception) {
+            LOGGER.warn("Could not store the image {}", url, exception);
+            return url;
+        }
+    }
+
+    @Override
+    public String uploadImage(@NonNull Path file) {
+        try (InputStream image = Files.newInputStream(file)) {
+            return URL_PREFIX + store(image);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    @Override
+    public InputStream openImage(@NonNull String url) throws IOException {
+        if (!url.startsWith(URL_PREFIX)) {
+            return download(url);
+        }
+        StoredImage image = findImage(url.substring(URL_PREFIX.length()))
+                .orElseThrow(() -> new NoSuchFileException(url));
+        return Files.newInputStream(image.path());
+    }
+
+    public Optional<StoredImage> findImage(String hash) {
+        if (!HASH.matcher(hash).matches()) {
+            return Optional.empty();
+        }
+        Path path = pathOf(hash);
+        try {
+            return Optional.of(new StoredImage(hash, path, Files.size(path), ImageTypes.of(path)));
+        } catch (IOException notFound) {
+            return Optional.empty();
+        }
+    }
+
+    // The hash is only known once the image is written, so it goes to a temporary file first.
+    private String store(InputStream image) throws IOException {
+        Path temporaryFile = Files.createTempFile(incoming, "image-", ".tmp");
+        try {
+            MessageDigest digest = sha256();
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(temporaryFile), digest)) {
+                image.transferTo(out);
+            }
+            String hash = HexFormat.of().formatHex(digest.digest());
+
+            Path path = pathOf(hash);
+            if (Files.exists(path)) {
+                deduplicatedImages.increment();
+                return hash;
+            }
+            Files.createDirectories(path.getParent());
+            try {
+                Files.move(temporaryFile, path, StandardCopyOption.ATOMIC_MOVE);
+                storedImages.increment();
+            } catch (FileAlreadyExistsException storedConcurrently) {
+                deduplicatedImages.increment();
+            }
+            return hash;
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    private InputStream download(String url) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(downloadTimeout)
+                .GET()
+                .build();
+        try {
+            HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() != 200) {
+                response.body().close();
+                throw new IOException("Download of " + url + " failed with status " + response.statusCode());
+            }
+            return response.body();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while downloading " + url);
+        }
+    }
+
+    private Path pathOf(String hash) {
+        return directory.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package in.kahl.promptwhispers.service;
+
+import io.micrometer.context.ContextSnapshot;
+import io.micrometer.context.ContextSnapshotFactory;
+import io.micrometer.observation.Observation;
+
+import java.util.function.Supplier;
+
+/**
+ * Runs calls as observations, which the meter registry records as timers. Every observation gets an outcome tag:
+ * error when the call throws, success unless the call tagged another outcome itself, like the placeholder image of an
+ * open circuit. Tags must stay low-cardinality, ids belong in logs.
+ * <p>
+ * Observations live in thread locals, so tasks handed to another thread have to take the current one along to stay
+ * part of the same trace.
+ */
+final class Observations {
+    static final String OUTCOME = "outcome";
+
+    static final String SUCCESS = "success";
+
+    static final String ERROR = "error";
+
+    private static final ContextSnapshotFactory CONTEXT_SNAPSHOTS = ContextSnapshotFactory.builder().build();
+
+    private Observations() {
+    }
+
+    static <T> T observe(Observation observation, Supplier<T> call) {
+        observation.start();
+        try (Observation.Scope ignored = observation.openScope()) {
+            T result = call.get();
+            if (observation.getContext().getLowCardinalityKeyValue(OUTCOME) == null) {
+                observation.lowCardinalityKeyValue(OUTCOME, SUCCESS);
+            }
+            return result;
+        } catch (RuntimeException exception) {
+            observation.lowCardinalityKeyValue(OUTCOME, ERROR);
+            observation.error(exception);
+            throw exception;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    static void run(Observation observation, Runnable call) {
+        observe(observation, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    static Runnable propagating(Runnable task) {
+        return CONTEXT_SNAPSHOTS.captureAll().wrap(task);
+    }
+
+    static <T> Supplier<T> propagating(Supplier<T> task) {
+        ContextSnapshot snapshot = CONTEXT_SNAPSHOTS.captureAll();
+        return () -> {
+            try (ContextSnapshot.Scope ignored = snapshot.setThreadLocals()) {
+                return task.get();
+            }
+        };
+    }
+}
@@ -0,0 +1,54 @@
+package in.kahl.promptwhispers.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+@Component
+public class RetryingUpdateExecutor {
+    private final MeterRegistry meterRegistry;
+
+    private final int maxAttempts;
+
+    public RetryingUpdateExecutor(MeterRegistry meterRegistry, @Value("${app.updates.max-attempts}") int maxAttempts) {
+        this.meterRegistry = meterRegistry;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Applies the transition to the entity and writes the result. When the write fails because the entity has been
+     * changed concurrently, the latest version is loaded and the transition is reapplied to it.
+     */
+    public <T> T update(String entityName, Supplier<T> loader, UnaryOperator<T> transition, UnaryOperator<T> writer) {
+        return update(entityName, loader.get(), loader, transition, writer);
+    }
+
+    public <T> T update(String entityName, T entity, Supplier<T> loader, UnaryOperator<T> transition, UnaryOperator<T> writer) {
+        for (int attempt = 1; ; attempt++) {
+            T updatedEntity = transition.apply(entity);
+
+            try {
+                return writer.apply(updatedEntity);
+            } catch (OptimisticLockingFailureException exception) {
+                counter("promptwhispers.updates.conflicts", entityName).increment();
+
+                if (attempt >= maxAttempts) {
+                    throw exception;
+                }
+                counter("promptwhispers.updates.retries", entityName).increment();
+                entity = loader.get();
+            }
+        }
+    }
+
+    private Counter counter(String name, String entityName) {
+        return Counter.builder(name)
+                .tag("entity", entityName)
+                .register(meterRegistry);
+    }
+}
@@ -16,12 +16,18 @@ public class UserService {
 
     private final UserRepo userRepo;
 
-    public UserService(UserRepo userRepo) {
+    private final RetryingUpdateExecutor retryingUpdateExecutor;
+
+    public UserService(UserRepo userRepo, RetryingUpdateExecutor retryingUpdateExecutor) {
         this.userRepo = userRepo;
+        this.retryingUpdateExecutor = retryingUpdateExecutor;
     }
 
-    public void save(User user) {
-        userRepo.save(user);
+    public User addGameId(String userId, String gameId) {
+        return retryingUpdateExecutor.update("user",
+                () -> getUserById(userId),
+                user -> user.withGameId(gameId),
+                userRepo::save);
     }
 
     public User getLoggedInUser(OAuth2User user) {
@@ -81,6 +87,9 @@ public class UserService {
     }
 
     public User removeGame(User user, Game game) {
-        return userRepo.save(user.withoutGame(game));
+        return retryingUpdateExecutor.update("user", user,
+                () -> getUserById(user.id()),
+                storedUser -> storedUser.withoutGame(game),
+                userRepo::save);
     }
 }
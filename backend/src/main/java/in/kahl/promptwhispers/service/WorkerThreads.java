@@ -0,0 +1,26 @@
+package in.kahl.promptwhispers.service;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the named worker threads of the background pools. With spring.threads.virtual.enabled, pools whose work
+ * blocks on outbound I/O run on virtual threads instead of platform threads.
+ */
+final class WorkerThreads {
+    private WorkerThreads() {
+    }
+
+    static ThreadFactory platform(String prefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    static ThreadFactory of(String prefix, boolean virtual) {
+        return virtual ? Thread.ofVirtual().name(prefix, 1).factory() : platform(prefix);
+    }
+}
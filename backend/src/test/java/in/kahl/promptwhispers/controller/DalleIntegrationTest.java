@@ -4,6 +4,8 @@ import com.cloudinary.Cloudinary;
 import com.cloudinary.Uploader;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import in.kahl.promptwhispers.model.*;
+import in.kahl.promptwhispers.model.dto.GameResponse;
+import in.kahl.promptwhispers.model.dto.TurnResponse;
 import in.kahl.promptwhispers.repo.UserRepo;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
@@ -25,7 +27,9 @@ import org.springframework.test.web.servlet.MockMvc;
 import java.io.IOException;
 import java.time.Instant;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -33,7 +37,9 @@ import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.httpBasic;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.oidcLogin;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -98,7 +104,7 @@ public class DalleIntegrationTest {
                 .getResponse()
                 .getContentAsString();
 
-        Game game = objectMapper.readValue(saveResult, Game.class);
+        GameResponse game = objectMapper.readValue(saveResult, GameResponse.class);
 
         saveResult = mockMvc.perform(post("/api/games/" + game.id() + "/prompt")
                 .contentType(MediaType.APPLICATION_JSON)
@@ -110,9 +116,11 @@ public class DalleIntegrationTest {
                 .getResponse()
                 .getContentAsString();
 
-        game = objectMapper.readValue(saveResult, Game.class);
+        game = objectMapper.readValue(saveResult, GameResponse.class);
 
+        // DALL-E takes a moment, so the job is still running when the request is retried.
         mockWebServer.enqueue(new MockResponse()
+                .setHeadersDelay(300, TimeUnit.MILLISECONDS)
                 .addHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
                 .setBody("""
                         {
@@ -131,25 +139,85 @@ public class DalleIntegrationTest {
         when(cloudinary.uploader()).thenReturn(mock(Uploader.class));
         when(cloudinary.uploader().upload(anyString(), anyMap())).thenReturn(mockResponse);
 
+        int requestsBefore = mockWebServer.getRequestCount();
+
         // ACT
-        String resultJSON = mockMvc.perform(post("/api/games/" + game.id() + "/generateImage")
+        String jobJSON = mockMvc.perform(post("/api/games/" + game.id() + "/generateImage")
                         .contentType(MediaType.APPLICATION_JSON)
                         .with(oidcLogin().userInfoToken(token -> token.claim("email", "user@example.com"))))
                 // ASSERT
-                .andExpect(status().isCreated())
+                .andExpect(status().isAccepted())
                 .andExpect(jsonPath("$.id").isNotEmpty())
-                .andExpect(jsonPath("$.rounds").isArray())
+                .andExpect(jsonPath("$.gameId", is(game.id())))
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+
+        ImageJob job = objectMapper.readValue(jobJSON, ImageJob.class);
+
+        // A retried request for the same prompt shares the job instead of generating a second image.
+        mockMvc.perform(post("/api/games/" + game.id() + "/generateImage")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", "user@example.com"))))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.id", is(job.id())));
+
+        assertEquals(ImageJobStatus.SUCCEEDED, awaitFinishedJob(game.id(), job.id()).status());
+        assertEquals(1, mockWebServer.getRequestCount() - requestsBefore);
+
+        String resultJSON = mockMvc.perform(get("/api/games/" + game.id())
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                .andExpect(status().isOk())
                 .andExpect(jsonPath("$.rounds[0]").isNotEmpty())
                 .andExpect(jsonPath("$.gameState", is(GameState.WAIT_FOR_PROMPTS.toString())))
                 .andReturn()
                 .getResponse()
                 .getContentAsString();
 
-        Game gameActual = objectMapper.readValue(resultJSON, Game.class);
-        Turn imageTurn = gameActual.rounds().getFirst().getLast();
+        GameResponse gameActual = objectMapper.readValue(resultJSON, GameResponse.class);
+        TurnResponse imageTurn = gameActual.rounds().getFirst().getLast();
 
         assertEquals(game.id(), gameActual.id());
         assertEquals(imageUrl, imageTurn.content());
         assertTrue(Instant.now().minusSeconds(10L).isBefore(imageTurn.createdAt()));
     }
+
+    @Test
+    @DirtiesContext
+    void getImageJobTest_whenJobDoesNotExist_thenReturn404() throws Exception {
+        // ACT
+        mockMvc.perform(get("/api/games/1/imageJobs/unknown")
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                // ASSERT
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @DirtiesContext
+    void getCircuitBreakersTest_whenNothingFailed_thenListClosedCircuits() throws Exception {
+        // ACT
+        mockMvc.perform(get("/actuator/circuitbreakers").with(httpBasic("operator", "secret")))
+                // ASSERT
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].name", containsInAnyOrder("dalle", "cloudinary")))
+                .andExpect(jsonPath("$[0].state", is("CLOSED")))
+                .andExpect(jsonPath("$[1].state", is("CLOSED")));
+    }
+
+    private ImageJob awaitFinishedJob(String gameId, String jobId) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            String jobJSON = mockMvc.perform(get("/api/games/" + gameId + "/imageJobs/" + jobId)
+                            .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                    .andExpect(status().isOk())
+                    .andReturn()
+                    .getResponse()
+                    .getContentAsString();
+            ImageJob job = objectMapper.readValue(jobJSON, ImageJob.class);
+            if (job.isFinished() || System.currentTimeMillis() > deadline) {
+                return job;
+            }
+            Thread.sleep(20);
+        }
+    }
 }
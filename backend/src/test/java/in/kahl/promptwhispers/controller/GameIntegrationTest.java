@@ -3,24 +3,54 @@ package in.kahl.promptwhispers.controller;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jayway.jsonpath.JsonPath;
+import com.mongodb.DBRef;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import in.kahl.promptwhispers.migration.EmbeddedPlayerMigration;
 import in.kahl.promptwhispers.model.Game;
 import in.kahl.promptwhispers.model.GameState;
+import in.kahl.promptwhispers.model.ImageVariants;
 import in.kahl.promptwhispers.model.Lobby;
+import in.kahl.promptwhispers.model.Turn;
 import in.kahl.promptwhispers.model.User;
+import in.kahl.promptwhispers.model.dto.GameResponse;
+import in.kahl.promptwhispers.repo.GameRepo;
 import in.kahl.promptwhispers.repo.UserRepo;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import org.bson.Document;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockAsyncContext;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.Matchers.is;
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.oidcLogin;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -35,7 +65,15 @@ class GameIntegrationTest {
     @Autowired
     private UserRepo userRepo;
     @Autowired
+    private GameRepo gameRepo;
+    @Autowired
     private ObjectMapper objectMapper;
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    @Autowired
+    private EmbeddedPlayerMigration embeddedPlayerMigration;
+    @Autowired
+    private MongoCommandCounter mongoCommandCounter;
 
     @BeforeEach
     void setUp() {
@@ -79,7 +117,7 @@ class GameIntegrationTest {
                 .getResponse()
                 .getContentAsString();
 
-        Game gameExpected = objectMapper.readValue(saveArrangeResult, Game.class);
+        GameResponse gameExpected = objectMapper.readValue(saveArrangeResult, GameResponse.class);
 
         // ACT
         String saveResult = mockMvc.perform(get("/api/games/" + gameExpected.id())
@@ -96,7 +134,7 @@ class GameIntegrationTest {
                 .getResponse()
                 .getContentAsString();
 
-        Game game = objectMapper.readValue(saveResult, Game.class);
+        GameResponse game = objectMapper.readValue(saveResult, GameResponse.class);
         assertEquals(gameExpected.id(), game.id());
         assertEquals(gameExpected.rounds(), game.rounds());
         assertEquals(gameExpected.gameState(), game.gameState());
@@ -137,7 +175,7 @@ class GameIntegrationTest {
                 .andReturn()
                 .getResponse()
                 .getContentAsString();
-        Game game1 = objectMapper.readValue(game1Result, Game.class);
+        GameResponse game1 = objectMapper.readValue(game1Result, GameResponse.class);
 
         String game2Result = mockMvc.perform(post("/api/games")
                         .contentType(MediaType.APPLICATION_JSON)
@@ -147,7 +185,7 @@ class GameIntegrationTest {
                 .getResponse()
                 .getContentAsString();
 
-        Game game2 = objectMapper.readValue(game2Result, Game.class);
+        GameResponse game2 = objectMapper.readValue(game2Result, GameResponse.class);
 
         // ACT
         String gameListResult = mockMvc.perform(get("/api/games")
@@ -161,10 +199,10 @@ class GameIntegrationTest {
                 .getResponse()
                 .getContentAsString();
 
-        List<Game> gameListActual = objectMapper.readValue(gameListResult, new TypeReference<>() {
+        List<GameResponse> gameListActual = objectMapper.readValue(gameListResult, new TypeReference<>() {
         });
 
-        List<String> gameIdListActual = gameListActual.stream().map(Game::id).toList();
+        List<String> gameIdListActual = gameListActual.stream().map(GameResponse::id).toList();
 
         assertEquals(List.of(game1.id(), game2.id()), gameIdListActual);
     }
@@ -185,7 +223,7 @@ class GameIntegrationTest {
                 .getResponse()
                 .getContentAsString();
 
-        Game game1 = objectMapper.readValue(game1Result, Game.class);
+        GameResponse game1 = objectMapper.readValue(game1Result, GameResponse.class);
 
         // ACT
         mockMvc.perform(delete("/api/games/" + game1.id())
@@ -218,7 +256,7 @@ class GameIntegrationTest {
                 .getResponse()
                 .getContentAsString();
 
-        Game game1 = objectMapper.readValue(game1Result, Game.class);
+        GameResponse game1 = objectMapper.readValue(game1Result, GameResponse.class);
 
         User userWithoutGame = new User("2" + userEmail);
         userRepo.save(userWithoutGame);
@@ -269,4 +307,429 @@ class GameIntegrationTest {
                 .andExpect(jsonPath("$.rounds[0]").isNotEmpty())
                 .andExpect(jsonPath("$.gameState", is(GameState.WAIT_FOR_PROMPTS.toString())));
     }
+
+    @Test
+    @DirtiesContext
+    void submitPromptTest_whenPlayersSubmitConcurrently_thenKeepAllPrompts() throws Exception {
+        // ARRANGE
+        User host = userRepo.getUserByEmail(userEmail);
+        Lobby lobby = new Lobby(host);
+        List<User> players = new ArrayList<>(List.of(host));
+        for (int i = 0; i < 5; i++) {
+            User player = userRepo.save(new User(i + userEmail));
+            lobby = lobby.withPlayer(player);
+            players.add(player);
+        }
+        String lobbyAsJSON = objectMapper.writeValueAsString(lobby);
+
+        String saveResult = mockMvc.perform(post("/api/games")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail)))
+                        .content(lobbyAsJSON))
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+
+        String gameId = JsonPath.parse(saveResult).read("$.id");
+
+        // ACT
+        List<Future<Integer>> responses = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(players.size())) {
+            for (User player : players) {
+                responses.add(executor.submit(() -> mockMvc.perform(post("/api/games/" + gameId + "/prompt")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .with(oidcLogin().userInfoToken(token -> token.claim("email", player.email())))
+                                .content("""
+                                           {"prompt": "Goat jumps over a hedge."}
+                                        """))
+                        .andReturn()
+                        .getResponse()
+                        .getStatus()));
+            }
+        }
+
+        // ASSERT
+        for (Future<Integer> response : responses) {
+            assertEquals(201, response.get());
+        }
+
+        String gameResult = mockMvc.perform(get("/api/games/" + gameId)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+
+        GameResponse game = objectMapper.readValue(gameResult, GameResponse.class);
+        assertEquals(players.size(), game.rounds().size());
+        game.rounds().forEach(round -> assertEquals(1, round.size()));
+        assertEquals(GameState.WAIT_FOR_PROMPTS, game.gameState());
+    }
+
+    @Test
+    @DirtiesContext
+    void getGameTest_whenETagIsCurrent_thenReturnNotModifiedWithoutLoadingGame() throws Exception {
+        // ARRANGE
+        User host = userRepo.getUserByEmail(userEmail);
+        String lobbyAsJSON = objectMapper.writeValueAsString(new Lobby(host));
+
+        String gameId = JsonPath.parse(mockMvc.perform(post("/api/games")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail)))
+                        .content(lobbyAsJSON))
+                .andReturn()
+                .getResponse()
+                .getContentAsString()).read("$.id");
+
+        String eTag = mockMvc.perform(get("/api/games/" + gameId)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache"))
+                .andReturn()
+                .getResponse()
+                .getHeader(HttpHeaders.ETAG);
+
+        // ACT
+        mongoCommandCounter.reset();
+        mockMvc.perform(get("/api/games/" + gameId)
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+
+                // ASSERT
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, eTag))
+                .andExpect(content().string(""));
+        assertEquals(0, mongoCommandCounter.count("find"));
+
+        mockMvc.perform(post("/api/games/" + gameId + "/prompt")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail)))
+                        .content("""
+                                   {"prompt": "Goat jumps over a hedge."}
+                                """))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(get("/api/games/" + gameId)
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, not(eTag)))
+                .andExpect(jsonPath("$.rounds[0][0].content", is("Goat jumps over a hedge.")));
+    }
+
+    @Test
+    @DirtiesContext
+    void waitForGameChangeTest_whenPromptIsSubmittedWhileWaiting_thenReturnChangedGame() throws Exception {
+        // ARRANGE
+        User host = userRepo.getUserByEmail(userEmail);
+        String lobbyAsJSON = objectMapper.writeValueAsString(new Lobby(host));
+
+        String gameId = JsonPath.parse(mockMvc.perform(post("/api/games")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail)))
+                        .content(lobbyAsJSON))
+                .andReturn()
+                .getResponse()
+                .getContentAsString()).read("$.id");
+
+        MvcResult waitingRequest = mockMvc.perform(get("/api/games/" + gameId)
+                        .param("sinceVersion", "0")
+                        .param("wait", "10s")
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // ACT
+        mockMvc.perform(post("/api/games/" + gameId + "/prompt")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail)))
+                        .content("""
+                                   {"prompt": "Goat jumps over a hedge."}
+                                """))
+                .andExpect(status().isCreated());
+
+        // ASSERT
+        waitingRequest.getAsyncResult(5000);
+        mockMvc.perform(asyncDispatch(waitingRequest))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1\""))
+                .andExpect(jsonPath("$.rounds[0][0].content", is("Goat jumps over a hedge.")));
+
+        MvcResult behindRequest = mockMvc.perform(get("/api/games/" + gameId)
+                        .param("sinceVersion", "0")
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(behindRequest))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1\""));
+    }
+
+    @Test
+    @DirtiesContext
+    void waitForGameChangeTest_whenNothingChanges_thenReturnNotModifiedAfterWait() throws Exception {
+        // ARRANGE
+        User host = userRepo.getUserByEmail(userEmail);
+        String lobbyAsJSON = objectMapper.writeValueAsString(new Lobby(host));
+
+        String gameId = JsonPath.parse(mockMvc.perform(post("/api/games")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail)))
+                        .content(lobbyAsJSON))
+                .andReturn()
+                .getResponse()
+                .getContentAsString()).read("$.id");
+
+        // ACT
+        MvcResult waitingRequest = mockMvc.perform(get("/api/games/" + gameId)
+                        .param("sinceVersion", "0")
+                        .param("wait", "100ms")
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // MockMvc has no container that would time out the request, so the timeout is triggered here.
+        MockAsyncContext asyncContext = (MockAsyncContext) waitingRequest.getRequest().getAsyncContext();
+        for (AsyncListener listener : asyncContext.getListeners()) {
+            listener.onTimeout(new AsyncEvent(asyncContext));
+        }
+
+        // ASSERT
+        mockMvc.perform(asyncDispatch(waitingRequest))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"0\""));
+    }
+
+    @Test
+    @DirtiesContext
+    void waitForGameChangeTest_whenWaitIsZeroOrNegative_thenWaitAtLeastOneSecond() throws Exception {
+        // ARRANGE
+        User host = userRepo.getUserByEmail(userEmail);
+        String gameId = JsonPath.parse(mockMvc.perform(post("/api/games")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail)))
+                        .content(objectMapper.writeValueAsString(new Lobby(host))))
+                .andReturn()
+                .getResponse()
+                .getContentAsString()).read("$.id");
+
+        for (String wait : List.of("0s", "-5s")) {
+            // ACT
+            MvcResult waitingRequest = mockMvc.perform(get("/api/games/" + gameId)
+                            .param("sinceVersion", "0")
+                            .param("wait", wait)
+                            .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+
+            // ASSERT
+            assertEquals(1000, waitingRequest.getRequest().getAsyncContext().getTimeout());
+        }
+    }
+
+    @Test
+    @DirtiesContext
+    void waitForGameChangeTest_whenWaitIsNoDuration_thenReturnBadRequest() throws Exception {
+        // ACT
+        mockMvc.perform(get("/api/games/1")
+                        .param("sinceVersion", "0")
+                        .param("wait", "forever")
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                // ASSERT
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message", is("InvalidWaitDurationException: The wait forever is no duration like 30s.")));
+    }
+
+    @Test
+    @DirtiesContext
+    void streamGameEventsTest_whenPromptIsSubmitted_thenPushGameEvent() throws Exception {
+        // ARRANGE
+        User host = userRepo.getUserByEmail(userEmail);
+        String lobbyAsJSON = objectMapper.writeValueAsString(new Lobby(host));
+
+        String gameId = JsonPath.parse(mockMvc.perform(post("/api/games")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail)))
+                        .content(lobbyAsJSON))
+                .andReturn()
+                .getResponse()
+                .getContentAsString()).read("$.id");
+
+        // ACT
+        MvcResult stream = mockMvc.perform(get("/api/games/" + gameId + "/events")
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MvcResult resumedStream = mockMvc.perform(get("/api/games/" + gameId + "/events")
+                        .header("Last-Event-ID", "0")
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        awaitContent(stream, "id:0");
+        assertEquals(MediaType.TEXT_EVENT_STREAM_VALUE, stream.getResponse().getHeader(HttpHeaders.CONTENT_TYPE));
+
+        mockMvc.perform(post("/api/games/" + gameId + "/prompt")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail)))
+                        .content("""
+                                   {"prompt": "Goat jumps over a hedge."}
+                                """))
+                .andExpect(status().isCreated());
+
+        // ASSERT
+        String events = awaitContent(stream, "Goat jumps over a hedge.");
+        assertTrue(events.contains("event:game"));
+        assertTrue(events.contains("id:1"));
+
+        String resumedEvents = awaitContent(resumedStream, "id:1");
+        assertFalse(resumedEvents.contains("id:0"));
+    }
+
+    @Test
+    @DirtiesContext
+    void streamGameEventsTest_whenGameNotExists_thenReturnNotFound() throws Exception {
+        // ACT
+        mockMvc.perform(get("/api/games/not_existent/events")
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+
+                // ASSERT
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @DirtiesContext
+    void getGameTest_whenTurnVariantsAreStored_thenReturnThemWithNewVersion() throws Exception {
+        // ARRANGE
+        User host = userRepo.getUserByEmail(userEmail);
+        String lobbyAsJSON = objectMapper.writeValueAsString(new Lobby(host));
+
+        String gameId = JsonPath.parse(mockMvc.perform(post("/api/games")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail)))
+                        .content(lobbyAsJSON))
+                .andReturn()
+                .getResponse()
+                .getContentAsString()).read("$.id");
+        mockMvc.perform(post("/api/games/" + gameId + "/prompt")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail)))
+                        .content("""
+                                   {"prompt": "Goat jumps over a hedge."}
+                                """))
+                .andExpect(status().isCreated());
+        Turn turn = gameRepo.findById(gameId).orElseThrow().rounds().getFirst().getFirst();
+        ImageVariants variants = new ImageVariants("https://example.com/thumbnail.jpg", "https://example.com/sheet.jpg");
+
+        // ACT
+        Optional<Game> otherTurn = gameRepo.setTurnVariants(gameId, 0, 0, "other-turn", variants);
+        Game game = gameRepo.setTurnVariants(gameId, 0, 0, turn.id(), variants).orElseThrow();
+
+        // ASSERT
+        assertTrue(otherTurn.isEmpty());
+        assertEquals(variants, game.rounds().getFirst().getFirst().variants());
+        mockMvc.perform(get("/api/games/" + gameId)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + game.version() + "\""))
+                .andExpect(jsonPath("$.rounds[0][0].variants.thumbnailUrl", is(variants.thumbnailUrl())))
+                .andExpect(jsonPath("$.rounds[0][0].variants.contactSheetUrl", is(variants.contactSheetUrl())));
+    }
+
+    private static String awaitContent(MvcResult result, String expected) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        String content = result.getResponse().getContentAsString();
+        while (!content.contains(expected) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            content = result.getResponse().getContentAsString();
+        }
+        assertTrue(content.contains(expected), () -> "Stream did not contain " + expected);
+        return content;
+    }
+
+    @Test
+    @DirtiesContext
+    void getGameTest_whenGameWasStoredWithPlayerReferences_thenMigrateAndReadSingleDocument() throws Exception {
+        // ARRANGE
+        List<User> players = new ArrayList<>();
+        List<DBRef> playerReferences = new ArrayList<>();
+        List<List<Document>> rounds = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            User player = userRepo.save(new User(i + userEmail, "https://example.com/" + i + ".png"));
+            players.add(player);
+            playerReferences.add(new DBRef("user", player.id()));
+            rounds.add(List.of(new Document("_id", "turn" + i)
+                    .append("player", new DBRef("user", player.id()))
+                    .append("type", "PROMPT")
+                    .append("content", "Goat jumps over a hedge.")
+                    .append("createdAt", new Date())));
+        }
+        String gameId = "legacy-game";
+        mongoTemplate.getCollection("game").insertOne(new Document("_id", gameId)
+                .append("players", playerReferences)
+                .append("rounds", rounds)
+                .append("gameState", GameState.WAIT_FOR_IMAGES.toString())
+                .append("createdAt", new Date())
+                .append("version", 0L));
+
+        mongoCommandCounter.reset();
+        mongoTemplate.findById(gameId, LegacyGame.class, "game");
+        int findsWithPlayerReferences = mongoCommandCounter.count("find");
+
+        // ACT
+        embeddedPlayerMigration.migrate();
+
+        mongoCommandCounter.reset();
+        mockMvc.perform(get("/api/games/" + gameId)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+
+                // ASSERT
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.players[0].id", is(players.getFirst().id())))
+                .andExpect(jsonPath("$.players[7].email", is(players.getLast().email())))
+                .andExpect(jsonPath("$.players[7].profilePicUrl", is(players.getLast().profilePicUrl())))
+                .andExpect(jsonPath("$.rounds[3][0].playerIndex", is(3)))
+                .andExpect(jsonPath("$.rounds[3][0].content", is("Goat jumps over a hedge.")));
+        int findsWithEmbeddedPlayers = mongoCommandCounter.count("find");
+
+        // The player list is resolved in one bulk query, but the player of every turn needs a lookup of its own.
+        assertEquals(1 + 1 + 8, findsWithPlayerReferences);
+        assertEquals(1, findsWithEmbeddedPlayers);
+    }
+
+    record LegacyTurn(@Id String id, @org.springframework.data.mongodb.core.mapping.DBRef User player, String type, String content) {
+    }
+
+    record LegacyGame(@Id String id, @org.springframework.data.mongodb.core.mapping.DBRef List<User> players, List<List<LegacyTurn>> rounds) {
+    }
+
+    static class MongoCommandCounter implements CommandListener {
+        private final Map<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+
+        @Override
+        public void commandStarted(CommandStartedEvent event) {
+            counts.computeIfAbsent(event.getCommandName(), name -> new AtomicInteger()).incrementAndGet();
+        }
+
+        void reset() {
+            counts.clear();
+        }
+
+        int count(String commandName) {
+            AtomicInteger count = counts.get(commandName);
+            return count == null ? 0 : count.get();
+        }
+    }
+
+    @TestConfiguration
+    static class MongoCommandCounterConfig {
+        @Bean
+        MongoCommandCounter mongoCommandCounter() {
+            return new MongoCommandCounter();
+        }
+
+        @Bean
+        MongoClientSettingsBuilderCustomizer mongoCommandCounterCustomizer(MongoCommandCounter mongoCommandCounter) {
+            return builder -> builder.addCommandListener(mongoCommandCounter);
+        }
+    }
 }
@@ -0,0 +1,118 @@
+package in.kahl.promptwhispers.controller;
+
+import in.kahl.promptwhispers.service.ImageStore;
+import in.kahl.promptwhispers.service.LocalImageStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class ImageIntegrationTest {
+    @TempDir
+    private static Path directory;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ImageStore imageStore;
+
+    private String imageUrl;
+
+    @DynamicPropertySource
+    static void configureImageStore(DynamicPropertyRegistry registry) {
+        registry.add("app.images.store", () -> "local");
+        registry.add("app.images.local.directory", () -> directory.toString());
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path file = Files.writeString(Files.createTempFile(directory, "dalle-", ".png"), "0123456789");
+        imageUrl = imageStore.uploadImage(file);
+    }
+
+    @Test
+    void getImageTest_whenImageExists_thenReturnItImmutable() throws Exception {
+        // ARRANGE
+        assertInstanceOf(LocalImageStore.class, imageStore);
+
+        // ACT
+        mockMvc.perform(get(imageUrl))
+                // ASSERT
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE))
+                .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "10"))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("immutable")))
+                .andExpect(content().string("0123456789"));
+    }
+
+    @Test
+    void getImageTest_whenRangeRequested_thenReturnPartialContent() throws Exception {
+        // ACT
+        mockMvc.perform(get(imageUrl).header(HttpHeaders.RANGE, "bytes=2-5"))
+                // ASSERT
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-5/10"))
+                .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "4"))
+                .andExpect(content().bytes("2345".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void getImageTest_whenRangeStartsBehindImage_thenReturnRangeNotSatisfiable() throws Exception {
+        // ACT
+        mockMvc.perform(get(imageUrl).header(HttpHeaders.RANGE, "bytes=10-"))
+                // ASSERT
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */10"));
+    }
+
+    @Test
+    void getImageTest_whenETagMatches_thenReturnNotModified() throws Exception {
+        // ARRANGE
+        String eTag = mockMvc.perform(get(imageUrl))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        // ACT
+        mockMvc.perform(get(imageUrl).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                // ASSERT
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    void getImageTest_whenImageIsUnknown_thenReturnNotFound() throws Exception {
+        // ACT
+        mockMvc.perform(get(LocalImageStore.URL_PREFIX + "0".repeat(64)))
+                // ASSERT
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void getProxiedImageTest_whenHostIsNotAllowed_thenReturnNotFoundWithoutFetching() throws Exception {
+        // ACT
+        mockMvc.perform(get("/api/images/proxy").param("url", "http://169.254.169.254/latest/meta-data"))
+                // ASSERT
+                .andExpect(status().isNotFound());
+    }
+}
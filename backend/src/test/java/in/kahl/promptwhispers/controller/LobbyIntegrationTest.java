@@ -10,10 +10,13 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.util.List;
+
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.oidcLogin;
@@ -94,6 +97,53 @@ class LobbyIntegrationTest {
         assertEquals(lobbyExpected, lobbyActual);
     }
 
+    @Test
+    @DirtiesContext
+    void getLobbyByIdTest_whenETagIsCurrent_thenReturnNotModified() throws Exception {
+        // ARRANGE
+        String saveArrangeResult = mockMvc.perform(post("/api/lobbies")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+
+        Lobby lobby = objectMapper.readValue(saveArrangeResult, Lobby.class);
+
+        String eTag = mockMvc.perform(get("/api/lobbies/" + lobby.id())
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                .andExpect(status().isOk())
+                .andReturn()
+                .getResponse()
+                .getHeader(HttpHeaders.ETAG);
+
+        User playerToJoin = userRepo.save(new User("join" + userEmail));
+
+        // ACT & ASSERT
+        mockMvc.perform(get("/api/lobbies/" + lobby.id())
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, eTag));
+        for (String ifNoneMatch : List.of("W/" + eTag, "\"-1\", " + eTag, "*")) {
+            mockMvc.perform(get("/api/lobbies/" + lobby.id())
+                            .header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch)
+                            .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                    .andExpect(status().isNotModified())
+                    .andExpect(header().string(HttpHeaders.ETAG, eTag));
+        }
+
+        mockMvc.perform(put("/api/lobbies/" + lobby.id() + "/join")
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", playerToJoin.email()))))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/api/lobbies/" + lobby.id())
+                        .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.players[1].email", is(playerToJoin.email())));
+    }
+
     @Test
     @DirtiesContext
     void getLobbyByIdTest_whenLobbyNotExists_thenThrowException() throws Exception {
@@ -122,8 +172,7 @@ class LobbyIntegrationTest {
 
         Lobby lobby = objectMapper.readValue(saveArrangeResult, Lobby.class);
 
-        User playerToJoin = new User("join" + userEmail);
-        userRepo.save(playerToJoin);
+        User playerToJoin = userRepo.save(new User("join" + userEmail));
 
         // ACT
         String lobbyJSON = mockMvc.perform(put("/api/lobbies/" + lobby.id() + "/join")
@@ -153,8 +202,7 @@ class LobbyIntegrationTest {
 
         Lobby lobby = objectMapper.readValue(saveArrangeResult, Lobby.class);
 
-        User playerToLeave = new User("leave" + userEmail);
-        userRepo.save(playerToLeave);
+        User playerToLeave = userRepo.save(new User("leave" + userEmail));
 
         String lobbyWithPlayerJSON = mockMvc.perform(put("/api/lobbies/" + lobby.id() + "/join")
                         .contentType(MediaType.APPLICATION_JSON)
@@ -0,0 +1,115 @@
+package in.kahl.promptwhispers.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jayway.jsonpath.JsonPath;
+import in.kahl.promptwhispers.model.GameState;
+import in.kahl.promptwhispers.model.Lobby;
+import in.kahl.promptwhispers.model.User;
+import in.kahl.promptwhispers.repo.GameRepo;
+import in.kahl.promptwhispers.repo.UserRepo;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.Map;
+
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.httpBasic;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.oidcLogin;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@AutoConfigureObservability(tracing = false)
+class MetricsIntegrationTest {
+    private final String userEmail = "user@example.com";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserRepo userRepo;
+
+    @Autowired
+    private GameRepo gameRepo;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @BeforeEach
+    void setUp() {
+        userRepo.save(new User(userEmail));
+    }
+
+    @Test
+    @DirtiesContext
+    void scrapeTest_whenGameWasCreated_thenExposeHistogramsWithoutGameIds() throws Exception {
+        // ARRANGE
+        User host = userRepo.getUserByEmail(userEmail);
+        String gameId = JsonPath.parse(mockMvc.perform(post("/api/games")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail)))
+                        .content(objectMapper.writeValueAsString(new Lobby(host))))
+                .andReturn()
+                .getResponse()
+                .getContentAsString()).read("$.id");
+        mockMvc.perform(get("/api/games/" + gameId)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                .andExpect(status().isOk());
+
+        // ACT
+        mockMvc.perform(get("/actuator/prometheus").with(httpBasic("operator", "secret")))
+                // ASSERT
+                .andExpect(status().isOk())
+                .andExpect(content().string(allOf(
+                        containsString("http_server_requests_seconds_bucket{error=\"none\",exception=\"none\",method=\"GET\",outcome=\"SUCCESS\",status=\"200\",uri=\"/api/games/{gameId}\""),
+                        containsString("spring_data_repository_invocations_seconds_bucket{exception=\"None\",method=\"save\",repository=\"GameRepo\",state=\"SUCCESS\""),
+                        containsString("promptwhispers_game_steps_seconds_bucket{error=\"none\",game_state=\"REQUEST_NEW_PROMPTS\",outcome=\"success\",step=\"createGame\""),
+                        containsString("promptwhispers_games_active{state=\"REQUEST_NEW_PROMPTS\",} 1.0"),
+                        not(containsString(gameId)))));
+    }
+
+    @Test
+    @DirtiesContext
+    void scrapeTest_whenNotAuthenticatedAsOperator_thenReturn401() throws Exception {
+        // ACT
+        mockMvc.perform(get("/actuator/prometheus"))
+                // ASSERT
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/actuator/circuitbreakers")
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/actuator/health"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    @DirtiesContext
+    void countGamesByStateTest_whenGameWasCreated_thenCountItInItsState() throws Exception {
+        // ARRANGE
+        User host = userRepo.getUserByEmail(userEmail);
+        mockMvc.perform(post("/api/games")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail)))
+                        .content(objectMapper.writeValueAsString(new Lobby(host))))
+                .andExpect(status().isCreated());
+
+        // ACT
+        Map<GameState, Long> actual = gameRepo.countGamesByState();
+
+        // ASSERT
+        assertEquals(Map.of(GameState.REQUEST_NEW_PROMPTS, 1L), actual);
+    }
+}
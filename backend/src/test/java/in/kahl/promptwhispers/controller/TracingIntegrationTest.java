@@ -0,0 +1,195 @@
+package in.kahl.promptwhispers.controller;
+
+import com.cloudinary.Cloudinary;
+import com.cloudinary.Uploader;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import in.kahl.promptwhispers.model.ImageJob;
+import in.kahl.promptwhispers.model.ImageJobStatus;
+import in.kahl.promptwhispers.model.Lobby;
+import in.kahl.promptwhispers.model.User;
+import in.kahl.promptwhispers.model.dto.GameResponse;
+import in.kahl.promptwhispers.repo.UserRepo;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.sdk.testing.exporter.InMemorySpanExporter;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.oidcLogin;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@AutoConfigureObservability
+class TracingIntegrationTest {
+    private static MockWebServer mockWebServer;
+
+    private final String userEmail = "user@example.com";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private UserRepo userRepo;
+
+    @Autowired
+    private InMemorySpanExporter spanExporter;
+
+    @Autowired
+    private SdkTracerProvider tracerProvider;
+
+    @MockBean
+    private Cloudinary cloudinary;
+
+    @TestConfiguration
+    static class SpanExporterConfiguration {
+        @Bean
+        InMemorySpanExporter inMemorySpanExporter() {
+            return InMemorySpanExporter.create();
+        }
+    }
+
+    @DynamicPropertySource
+    public static void configureUrl(DynamicPropertyRegistry registry) {
+        registry.add("app.dalle.api.url", () -> mockWebServer.url("/").toString());
+    }
+
+    @BeforeAll
+    public static void setup() throws IOException {
+        mockWebServer = new MockWebServer();
+        mockWebServer.start();
+    }
+
+    @AfterAll
+    public static void cleanup() throws IOException {
+        mockWebServer.shutdown();
+    }
+
+    @BeforeEach
+    void setUp() {
+        userRepo.save(new User(userEmail));
+    }
+
+    @Test
+    @DirtiesContext
+    void generateImageTest_whenImageIsGenerated_thenRecordOneTraceFromRequestToStoredTurn() throws Exception {
+        // ARRANGE
+        User host = userRepo.getUserByEmail(userEmail);
+        GameResponse game = objectMapper.readValue(mockMvc.perform(post("/api/games")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail)))
+                        .content(objectMapper.writeValueAsString(new Lobby(host))))
+                .andReturn()
+                .getResponse()
+                .getContentAsString(), GameResponse.class);
+        mockMvc.perform(post("/api/games/" + game.id() + "/prompt")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail)))
+                        .content("""
+                                   {"prompt": "Goat jumps over a hedge."}
+                                """))
+                .andExpect(status().isCreated());
+
+        mockWebServer.enqueue(new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .setBody("""
+                        {
+                             "created": 1707227208,
+                             "data": [
+                                 {
+                                     "url": "https://example.com/image.png"
+                                 }
+                             ]
+                        }
+                        """));
+        when(cloudinary.uploader()).thenReturn(mock(Uploader.class));
+        when(cloudinary.uploader().upload(anyString(), anyMap()))
+                .thenReturn(Map.of("secure_url", "https://example.com/image.png"));
+
+        // ACT
+        String jobJSON = mockMvc.perform(post("/api/games/" + game.id() + "/generateImage")
+                        .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                .andExpect(status().isAccepted())
+                .andReturn()
+                .getResponse()
+                .getContentAsString();
+        ImageJob job = objectMapper.readValue(jobJSON, ImageJob.class);
+        assertEquals(ImageJobStatus.SUCCEEDED, awaitFinishedJob(game.id(), job.id()).status());
+        tracerProvider.forceFlush().join(5, TimeUnit.SECONDS);
+
+        // ASSERT
+        SpanData step = findSpan(spanExporter.getFinishedSpanItems(), "game generate-image");
+        List<SpanData> trace = spanExporter.getFinishedSpanItems().stream()
+                .filter(span -> span.getTraceId().equals(step.getTraceId()))
+                .toList();
+        List<String> spanNames = trace.stream().map(SpanData::getName).toList();
+
+        // The job thread continues the trace of the request that queued it, down to the call to OpenAI.
+        assertTrue(spanNames.containsAll(List.of("http post /api/games/{gameId}/generateImage",
+                "game get-or-create-image-url", "dalle generate", "http post", "cloudinary upload",
+                "game append-turn")), spanNames::toString);
+        assertTrue(trace.stream().anyMatch(span -> "mongodb".equals(span.getAttributes()
+                .get(AttributeKey.stringKey("db.system")))), spanNames::toString);
+        assertTrue(trace.stream().noneMatch(span -> span.getAttributes().asMap().containsValue(game.id())),
+                spanNames::toString);
+    }
+
+    private static SpanData findSpan(List<SpanData> spans, String name) {
+        return spans.stream()
+                .filter(span -> span.getName().equals(name))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No span " + name + " in "
+                        + spans.stream().map(SpanData::getName).toList()));
+    }
+
+    private ImageJob awaitFinishedJob(String gameId, String jobId) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            String jobJSON = mockMvc.perform(get("/api/games/" + gameId + "/imageJobs/" + jobId)
+                            .with(oidcLogin().userInfoToken(token -> token.claim("email", userEmail))))
+                    .andExpect(status().isOk())
+                    .andReturn()
+                    .getResponse()
+                    .getContentAsString();
+            ImageJob job = objectMapper.readValue(jobJSON, ImageJob.class);
+            if (job.isFinished() || System.currentTimeMillis() > deadline) {
+                return job;
+            }
+            Thread.sleep(20);
+        }
+    }
+}
@@ -2,7 +2,10 @@ package in.kahl.promptwhispers.model;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -72,4 +75,93 @@ class GameTest {
                 // ASSERT
                 finishedGame.withTurn(prompt4));
     }
-}
\ No newline at end of file
+
+    @Test
+    void turnCountsTest_whenPlayingFullGame_thenAgreeWithCountingAllTurns() {
+        // ARRANGE
+        List<User> players = List.of(new User("alice@example.com"),
+                new User("bob@example.com"),
+                new User("carol@example.com"),
+                new User("dave@example.com"),
+                new User("erin@example.com"));
+        Game game = new Game();
+        for (User player : players) {
+            game = game.withPlayer(player);
+        }
+        game = game.withGameState(GameState.REQUEST_NEW_PROMPTS);
+        assertCountsAgreeWithRounds(game);
+
+        // ACT & ASSERT
+        for (int turnCycle = 0; turnCycle < players.size(); turnCycle++) {
+            // players submit in a different order every cycle
+            for (int i = 0; i < players.size(); i++) {
+                User player = players.get((i * 2 + turnCycle) % players.size());
+                game = game.withTurn(new Turn(player, TurnType.PROMPT, "prompt " + turnCycle));
+                assertCountsAgreeWithRounds(game);
+            }
+            for (int i = players.size() - 1; i >= 0; i--) {
+                User player = players.get((i + turnCycle) % players.size());
+                game = game.withTurn(new Turn(player, TurnType.IMAGE, "image " + turnCycle + ".png"));
+                assertCountsAgreeWithRounds(game);
+            }
+        }
+
+        assertEquals(GameState.FINISHED, game.gameState());
+    }
+
+    @Test
+    void turnCountsTest_whenGameIsRecreatedFromRounds_thenCountsAreRebuilt() {
+        // ARRANGE
+        User alice = new User("alice@example.com");
+        User bob = new User("bob@example.com");
+        Game game = new Game().withPlayer(alice)
+                .withPlayer(bob)
+                .withTurn(new Turn(alice, TurnType.PROMPT, "1st prompt"))
+                .withTurn(new Turn(bob, TurnType.PROMPT, "1st prompt"))
+                .withTurn(new Turn(alice, TurnType.IMAGE, "alice image 1.png"));
+
+        // ACT
+        Game loadedGame = new Game(game.id(),
+                new ArrayList<>(game.players()),
+                new ArrayList<>(game.rounds()),
+                game.gameState(),
+                game.createdAt());
+
+        // ASSERT
+        assertEquals(game.turnCounts(), loadedGame.turnCounts());
+        assertEquals(game, loadedGame);
+        assertCountsAgreeWithRounds(loadedGame);
+    }
+
+    private void assertCountsAgreeWithRounds(Game game) {
+        assertEquals(countCompletedImageTurns(game), game.getNumOfCompletedImageTurns());
+        for (TurnType turnType : TurnType.values()) {
+            assertEquals(haveAllRoundsSameNumberOfTurns(game, turnType), game.haveAllRoundsSameNumberOfTurnsByType(turnType));
+        }
+    }
+
+    private int countCompletedImageTurns(Game game) {
+        int minTurnNumber = game.players().size();
+
+        if (game.players().size() != game.rounds().size()) {
+            return 0;
+        }
+
+        for (List<Turn> turns : game.rounds()) {
+            minTurnNumber = Math.min(minTurnNumber, (int) turns.stream().filter(turn -> turn.type().equals(TurnType.IMAGE)).count());
+        }
+
+        return minTurnNumber;
+    }
+
+    private boolean haveAllRoundsSameNumberOfTurns(Game game, TurnType turnType) {
+        Set<Long> counts = game.rounds().stream()
+                .map(turns -> turns.stream().filter(turn -> turn.type().equals(turnType)).count())
+                .collect(Collectors.toSet());
+
+        if (game.players().size() != game.rounds().size()) {
+            return counts.contains(0L);
+        }
+        return counts.size() == 1;
+    }
+}
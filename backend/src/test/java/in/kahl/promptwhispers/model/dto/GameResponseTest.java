@@ -0,0 +1,79 @@
+package in.kahl.promptwhispers.model.dto;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import in.kahl.promptwhispers.model.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GameResponseTest {
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    @Test
+    void gameResponseTest_whenGameHasTurns_thenTurnsReferToPlayerIndex() {
+        // ARRANGE
+        User alice = new User("alice@example.com");
+        User bob = new User("bob@example.com");
+        Game game = new Game().withPlayer(alice)
+                .withPlayer(bob)
+                .withTurn(new Turn(alice, TurnType.PROMPT, "Sheep jumps over hedge"))
+                .withTurn(new Turn(bob, TurnType.PROMPT, "Hedge jumps over sheep"));
+
+        // ACT
+        GameResponse actual = new GameResponse(game);
+
+        // ASSERT
+        assertEquals(List.of(PlayerRef.of(alice), PlayerRef.of(bob)), actual.players());
+        assertEquals(0, actual.rounds().get(0).getFirst().playerIndex());
+        assertEquals(1, actual.rounds().get(1).getFirst().playerIndex());
+        assertEquals("Hedge jumps over sheep", actual.rounds().get(1).getFirst().content());
+    }
+
+    @Test
+    void gameResponseTest_whenImageUrlsAreRewritten_thenOnlyImageTurnsChange() {
+        // ARRANGE
+        User alice = new User("alice@example.com");
+        Game game = new Game().withPlayer(alice)
+                .withTurn(new Turn(alice, TurnType.PROMPT, "Sheep jumps over hedge"))
+                .withTurn(new Turn(alice, TurnType.IMAGE, "https://res.cloudinary.com/image.png"));
+
+        // ACT
+        GameResponse actual = new GameResponse(game, url -> "/proxy?url=" + url);
+
+        // ASSERT
+        assertEquals("Sheep jumps over hedge", actual.rounds().getFirst().get(0).content());
+        assertEquals("/proxy?url=https://res.cloudinary.com/image.png", actual.rounds().getFirst().get(1).content());
+    }
+
+    @Test
+    void gameResponseTest_whenSerializingFinishedGameOf10Players_thenPayloadIsSmallerThanGame() throws Exception {
+        // ARRANGE
+        List<User> players = new ArrayList<>();
+        Game game = new Game();
+        for (int i = 0; i < 10; i++) {
+            User player = new User(i + "user@example.com", "https://lh3.googleusercontent.com/a/profile-picture-" + i);
+            players.add(player);
+            game = game.withPlayer(player);
+        }
+        while (game.gameState() != GameState.FINISHED) {
+            for (User player : players) {
+                game = game.withTurn(new Turn(player, TurnType.PROMPT, "Goat jumps over a hedge."));
+            }
+            for (User player : players) {
+                game = game.withTurn(new Turn(player, TurnType.IMAGE, "https://res.cloudinary.com/image.png"));
+            }
+        }
+
+        // ACT
+        int gameSize = objectMapper.writeValueAsBytes(game).length;
+        int gameResponseSize = objectMapper.writeValueAsBytes(new GameResponse(game)).length;
+
+        // ASSERT
+        assertTrue(gameResponseSize < gameSize);
+    }
+}
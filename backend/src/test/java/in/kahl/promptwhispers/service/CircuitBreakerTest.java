@@ -0,0 +1,121 @@
+package in.kahl.promptwhispers.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private final CircuitBreaker breakerUnderTest = new CircuitBreaker("dalle",
+            new CircuitBreaker.Settings(4, 50, Duration.ofSeconds(10), Duration.ofSeconds(30), 2),
+            meterRegistry, clock::get);
+
+    @Test
+    void callTest_whenHalfOfTheWindowFailed_thenOpenAndReturnFallback() {
+        // ARRANGE
+        breakerUnderTest.call(() -> "image", () -> "placeholder");
+        fail();
+
+        // ACT
+        String actual = breakerUnderTest.call(() -> "image", () -> "placeholder");
+
+        // ASSERT
+        assertEquals("placeholder", actual);
+        assertEquals(CircuitBreaker.State.OPEN, breakerUnderTest.getState());
+        assertEquals(1, meterRegistry.get("promptwhispers.breaker.calls").tag("outcome", "rejected.open").counter().count());
+    }
+
+    @Test
+    void callTest_whenCallsAreSlow_thenOpen() {
+        // ACT
+        for (int i = 0; i < 2; i++) {
+            breakerUnderTest.call(() -> clock.addAndGet(Duration.ofSeconds(11).toNanos()), () -> 0L);
+        }
+
+        // ASSERT
+        assertEquals(CircuitBreaker.State.OPEN, breakerUnderTest.getState());
+        assertEquals(100, breakerUnderTest.getSnapshot().slowCallRate());
+    }
+
+    @Test
+    void callTest_whenOpenDurationHasPassedAndTrialCallSucceeds_thenClose() {
+        // ARRANGE
+        fail();
+        fail();
+        clock.addAndGet(Duration.ofSeconds(30).toNanos());
+
+        // ACT
+        String actual = breakerUnderTest.call(() -> "image", () -> "placeholder");
+
+        // ASSERT
+        assertEquals("image", actual);
+        assertEquals(CircuitBreaker.State.CLOSED, breakerUnderTest.getState());
+        assertEquals(0, breakerUnderTest.getSnapshot().bufferedCalls());
+    }
+
+    @Test
+    void callTest_whenTrialCallFails_thenOpenAgain() {
+        // ARRANGE
+        fail();
+        fail();
+        clock.addAndGet(Duration.ofSeconds(30).toNanos());
+
+        // ACT
+        fail();
+
+        // ASSERT
+        assertEquals(CircuitBreaker.State.OPEN, breakerUnderTest.getState());
+        assertEquals("placeholder", breakerUnderTest.call(() -> "image", () -> "placeholder"));
+    }
+
+    @Test
+    void callTest_whenBulkheadIsFull_thenReturnFallbackWithoutWaiting() throws Exception {
+        // ARRANGE
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 2; i++) {
+                callers.submit(() -> breakerUnderTest.call(() -> {
+                    started.countDown();
+                    try {
+                        return release.await(5, TimeUnit.SECONDS) ? "image" : "timeout";
+                    } catch (InterruptedException exception) {
+                        throw new IllegalStateException(exception);
+                    }
+                }, () -> "placeholder"));
+            }
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            // ACT
+            String actual = breakerUnderTest.call(() -> "image", () -> "placeholder");
+
+            // ASSERT
+            assertEquals("placeholder", actual);
+            assertEquals(2, breakerUnderTest.getSnapshot().concurrentCalls());
+            assertEquals(CircuitBreaker.State.CLOSED, breakerUnderTest.getState());
+        } finally {
+            release.countDown();
+            callers.shutdown();
+        }
+    }
+
+    private void fail() {
+        assertThrows(IllegalStateException.class, () -> breakerUnderTest.call(() -> {
+            throw new IllegalStateException("DALL-E is down");
+        }, () -> "placeholder"));
+    }
+}
@@ -2,16 +2,24 @@ package in.kahl.promptwhispers.service;
 
 import com.cloudinary.Cloudinary;
 import com.cloudinary.Uploader;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class CloudinaryServiceTest {
@@ -22,7 +30,9 @@ class CloudinaryServiceTest {
 
     @BeforeEach
     void setUp() {
-        serviceUnderTest = new CloudinaryService(mockCloudinary);
+        serviceUnderTest = new CloudinaryService(mockCloudinary, new CircuitBreaker("cloudinary",
+                new CircuitBreaker.Settings(4, 50, Duration.ofSeconds(10), Duration.ofMinutes(1), 4), new SimpleMeterRegistry()),
+                ObservationRegistry.NOOP);
     }
 
     @Test
@@ -40,4 +50,36 @@ class CloudinaryServiceTest {
         // ASSERT
         assertEquals(mockResponse.get("secure_url"), imageUrlActual);
     }
-}
\ No newline at end of file
+
+    @Test
+    void uploadImageTest_whenCloudinaryKeepsFailing_thenReturnInputUrlWithoutCallingIt() throws IOException {
+        // ARRANGE
+        String inputUrl = "https://example.com/inputimage.png";
+        Uploader uploader = mock(Uploader.class);
+        when(mockCloudinary.uploader()).thenReturn(uploader);
+        when(uploader.upload(anyString(), anyMap())).thenThrow(new IOException("Connection reset"));
+        serviceUnderTest.uploadImage(inputUrl);
+        serviceUnderTest.uploadImage(inputUrl);
+
+        // ACT
+        String imageUrlActual = serviceUnderTest.uploadImage(inputUrl);
+
+        // ASSERT
+        assertEquals(inputUrl, imageUrlActual);
+        verify(uploader, times(2)).upload(anyString(), anyMap());
+    }
+
+    @Test
+    void uploadImageTest_whenCloudinaryFailsWithFile_thenReturnPlaceholder() throws IOException {
+        // ARRANGE
+        Uploader uploader = mock(Uploader.class);
+        when(mockCloudinary.uploader()).thenReturn(uploader);
+        when(uploader.upload(any(File.class), anyMap())).thenThrow(new IOException("Connection reset"));
+
+        // ACT
+        String imageUrlActual = serviceUnderTest.uploadImage(Path.of("dalle-image.png"));
+
+        // ASSERT
+        assertEquals(DalleService.PLACEHOLDER_IMAGE_URL, imageUrlActual);
+    }
+}
@@ -0,0 +1,209 @@
+package in.kahl.promptwhispers.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DalleHttpTransportTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final DalleRateLimiter rateLimiter = new DalleRateLimiter(meterRegistry, 6000, 10,
+            Duration.ofSeconds(5), Duration.ofMillis(50));
+
+    private final List<String> discarded = new CopyOnWriteArrayList<>();
+
+    private MockWebServer mockWebServer;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        mockWebServer = new MockWebServer();
+        mockWebServer.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    void callTest_whenOpenAiHangs_thenFailAtDeadline() {
+        // ARRANGE
+        RestClient restClient = createRestClient(new DalleHttpTransport(meterRegistry, rateLimiter,
+                Duration.ofSeconds(1), Duration.ofMillis(200), 4, false, Duration.ofSeconds(30), false));
+        mockWebServer.enqueue(new MockResponse().setHeadersDelay(2, TimeUnit.SECONDS).setBody("late"));
+
+        // ACT
+        assertThrows(ResourceAccessException.class, () -> get(restClient));
+
+        // ASSERT
+        assertEquals(1, meterRegistry.get("promptwhispers.images.dalle.http.attempts").tag("outcome", "error").timer().count());
+        assertEquals(0, meterRegistry.get("promptwhispers.images.dalle.http.connections.active").gauge().value());
+    }
+
+    @Test
+    void callTest_whenAllConnectionsAreBusy_thenRejectAfterConnectTimeout() throws Exception {
+        // ARRANGE
+        RestClient restClient = createRestClient(new DalleHttpTransport(meterRegistry, rateLimiter,
+                Duration.ofMillis(100), Duration.ofSeconds(5), 1, false, Duration.ofSeconds(30), false));
+        mockWebServer.enqueue(new MockResponse().setHeadersDelay(500, TimeUnit.MILLISECONDS).setBody("slow"));
+        CompletableFuture<String> slowCall = CompletableFuture.supplyAsync(() -> get(restClient));
+        awaitGauge("promptwhispers.images.dalle.http.connections.active", 1);
+
+        // ACT
+        assertThrows(ResourceAccessException.class, () -> get(restClient));
+
+        // ASSERT
+        assertEquals("slow", slowCall.get(5, TimeUnit.SECONDS));
+        assertEquals(1, meterRegistry.get("promptwhispers.images.dalle.http.connections.rejected").counter().count());
+        assertEquals(1, mockWebServer.getRequestCount());
+    }
+
+    @Test
+    void callTest_whenAttemptIsSlowerThanHedgeDelay_thenTakeFasterSecondAttempt() {
+        // ARRANGE
+        DalleHttpTransport transport = new DalleHttpTransport(meterRegistry, rateLimiter,
+                Duration.ofSeconds(1), Duration.ofSeconds(5), 4, true, Duration.ofMillis(100), false);
+        RestClient restClient = createRestClient(transport);
+        mockWebServer.enqueue(new MockResponse().setHeadersDelay(2, TimeUnit.SECONDS).setBody("first"));
+        mockWebServer.enqueue(new MockResponse().setBody("second"));
+        long start = System.nanoTime();
+
+        // ACT
+        String actual = transport.call(() -> get(restClient), discarded::add);
+
+        // ASSERT
+        assertEquals("second", actual);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(1, meterRegistry.get("promptwhispers.images.dalle.http.hedged").counter().count());
+        awaitDiscarded("first");
+    }
+
+    @Test
+    void callTest_whenRateLimitHasNoPermitLeft_thenWaitForFirstAttemptWithoutHedging() {
+        // ARRANGE
+        DalleRateLimiter exhaustedLimiter = new DalleRateLimiter(meterRegistry, 1, 1,
+                Duration.ofSeconds(5), Duration.ofMillis(50));
+        exhaustedLimiter.acquire();
+        DalleHttpTransport transport = new DalleHttpTransport(meterRegistry, exhaustedLimiter,
+                Duration.ofSeconds(1), Duration.ofSeconds(5), 4, true, Duration.ofMillis(100), false);
+        RestClient restClient = createRestClient(transport);
+        mockWebServer.enqueue(new MockResponse().setHeadersDelay(300, TimeUnit.MILLISECONDS).setBody("first"));
+
+        // ACT
+        String actual = transport.call(() -> get(restClient), discarded::add);
+
+        // ASSERT
+        assertEquals("first", actual);
+        assertEquals(1, mockWebServer.getRequestCount());
+        assertEquals(0, meterRegistry.get("promptwhispers.images.dalle.http.hedged").counter().count());
+    }
+
+    @Test
+    void callTest_whenAttemptIsFasterThanHedgeDelay_thenMakeNoSecondAttempt() {
+        // ARRANGE
+        DalleHttpTransport transport = new DalleHttpTransport(meterRegistry, rateLimiter,
+                Duration.ofSeconds(1), Duration.ofSeconds(5), 4, true, Duration.ofSeconds(1), false);
+        RestClient restClient = createRestClient(transport);
+        mockWebServer.enqueue(new MockResponse().setBody("first"));
+
+        // ACT
+        String actual = transport.call(() -> get(restClient), discarded::add);
+
+        // ASSERT
+        assertEquals("first", actual);
+        assertEquals(1, mockWebServer.getRequestCount());
+        assertEquals(0, meterRegistry.get("promptwhispers.images.dalle.http.hedged").counter().count());
+    }
+
+    @Test
+    void callTest_whenBodyIsStillBeingRead_thenKeepConnectionBusy() {
+        // ARRANGE
+        RestClient restClient = createRestClient(new DalleHttpTransport(meterRegistry, rateLimiter,
+                Duration.ofSeconds(1), Duration.ofSeconds(5), 1, false, Duration.ofSeconds(30), false));
+        mockWebServer.enqueue(new MockResponse().setBody("image"));
+
+        // ACT
+        double activeWhileReading = restClient.get().uri("/generations")
+                .exchange((request, response) -> meterRegistry.get("promptwhispers.images.dalle.http.connections.active")
+                        .gauge().value());
+
+        // ASSERT
+        assertEquals(1, activeWhileReading);
+        assertEquals(0, meterRegistry.get("promptwhispers.images.dalle.http.connections.active").gauge().value());
+    }
+
+    @Test
+    void callTest_whenStatusCannotBeRead_thenReleaseConnection() throws Exception {
+        // ARRANGE
+        ClientHttpResponse brokenResponse = mock(ClientHttpResponse.class);
+        when(brokenResponse.getStatusCode()).thenThrow(new IOException("Connection reset"));
+        ClientHttpRequest request = mock(ClientHttpRequest.class);
+        when(request.getHeaders()).thenReturn(new HttpHeaders());
+        when(request.execute()).thenReturn(brokenResponse);
+        RestClient restClient = new DalleHttpTransport(meterRegistry, rateLimiter,
+                Duration.ofSeconds(1), Duration.ofSeconds(5), 1, false, Duration.ofSeconds(30), false)
+                .configure(RestClient.builder())
+                .requestFactory((uri, method) -> request)
+                .baseUrl(mockWebServer.url("/").toString())
+                .build();
+
+        // ACT
+        for (int i = 0; i < 2; i++) {
+            assertThrows(ResourceAccessException.class, () -> get(restClient));
+        }
+
+        // ASSERT
+        assertEquals(0, meterRegistry.get("promptwhispers.images.dalle.http.connections.active").gauge().value());
+        assertEquals(2, meterRegistry.get("promptwhispers.images.dalle.http.attempts").tag("outcome", "error").timer().count());
+        verify(brokenResponse, times(2)).close();
+    }
+
+    private RestClient createRestClient(DalleHttpTransport transport) {
+        return transport.configure(RestClient.builder())
+                .baseUrl(mockWebServer.url("/").toString())
+                .build();
+    }
+
+    private static String get(RestClient restClient) {
+        return restClient.get().uri("/generations").retrieve().body(String.class);
+    }
+
+    private void awaitDiscarded(String result) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!discarded.contains(result)) {
+            assertTrue(System.nanoTime() < deadline, result + " was not discarded");
+            Thread.onSpinWait();
+        }
+    }
+
+    private void awaitGauge(String name, double expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (meterRegistry.get(name).gauge().value() < expected) {
+            assertTrue(System.nanoTime() < deadline, name + " did not reach " + expected);
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package in.kahl.promptwhispers.service;
+
+import in.kahl.promptwhispers.exception.DalleBusyException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DalleRateLimiterTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private final List<Duration> sleeps = new ArrayList<>();
+
+    // 60 requests per minute, so one permit per second.
+    private final DalleRateLimiter limiterUnderTest = new DalleRateLimiter(meterRegistry, 60, 2,
+            Duration.ofSeconds(5), Duration.ofSeconds(10), clock::get, nanos -> {
+        sleeps.add(Duration.ofNanos(nanos));
+        clock.addAndGet(nanos);
+    });
+
+    @Test
+    void acquireTest_whenBurstIsUsedUp_thenWaitForRefill() {
+        // ACT
+        limiterUnderTest.acquire();
+        limiterUnderTest.acquire();
+        limiterUnderTest.acquire();
+
+        // ASSERT
+        assertEquals(List.of(Duration.ofSeconds(1)), sleeps);
+        assertEquals(3, meterRegistry.get("promptwhispers.images.dalle.permits.wait").timer().count());
+    }
+
+    @Test
+    void acquireTest_whenPermitIsDueAfterMaxWait_thenRejectRightAway() {
+        // ARRANGE
+        limiterUnderTest.acquire();
+        limiterUnderTest.acquire();
+        limiterUnderTest.backOff(Duration.ofSeconds(30));
+
+        // ACT
+        DalleBusyException exception = assertThrows(DalleBusyException.class, limiterUnderTest::acquire);
+
+        // ASSERT
+        assertEquals(Duration.ofSeconds(31), exception.getRetryAfter());
+        assertEquals(List.of(), sleeps);
+        assertEquals(1, meterRegistry.get("promptwhispers.images.dalle.permits.rejected").counter().count());
+        assertEquals(1, meterRegistry.get("promptwhispers.images.dalle.throttled").counter().count());
+    }
+
+    @Test
+    void backOffTest_whenRetryAfterIsGiven_thenHoldBackCallsUntilThen() {
+        // ARRANGE
+        limiterUnderTest.backOff(Duration.ofSeconds(3));
+
+        // ACT
+        limiterUnderTest.acquire();
+
+        // ASSERT
+        assertEquals(List.of(Duration.ofSeconds(4)), sleeps);
+        assertEquals(TimeUnit.SECONDS.toNanos(4), clock.get());
+    }
+
+    @Test
+    void backOffTest_whenRetryAfterIsMissing_thenUseDefault() {
+        // ARRANGE
+        limiterUnderTest.backOff(null);
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(8));
+
+        // ACT
+        limiterUnderTest.acquire();
+
+        // ASSERT
+        assertEquals(List.of(Duration.ofSeconds(3)), sleeps);
+    }
+}
@@ -0,0 +1,162 @@
+package in.kahl.promptwhispers.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DalleSchedulerTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private final List<String> servedGames = Collections.synchronizedList(new ArrayList<>());
+
+    private final CountDownLatch releaseBlockingCall = new CountDownLatch(1);
+
+    private ExecutorService callers;
+
+    @BeforeEach
+    void setUp() {
+        callers = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    void tearDown() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    void callTest_whenMoreCallsThanSlots_thenNeverExceedMaxConcurrent() throws Exception {
+        // ARRANGE
+        DalleScheduler schedulerUnderTest = new DalleScheduler(meterRegistry, 2, Duration.ofSeconds(20));
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        List<Future<String>> calls = new ArrayList<>();
+
+        // ACT
+        for (int i = 0; i < 12; i++) {
+            calls.add(callers.submit(() -> schedulerUnderTest.call("1", 1, () -> {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                sleep(20);
+                inFlight.decrementAndGet();
+                return "https://example.com/image.png";
+            })));
+        }
+        for (Future<String> call : calls) {
+            assertEquals("https://example.com/image.png", call.get(5, TimeUnit.SECONDS));
+        }
+
+        // ASSERT
+        assertEquals(2, maxInFlight.get());
+        assertEquals(12, meterRegistry.get("promptwhispers.images.dalle.wait").timer().count());
+    }
+
+    @Test
+    void callTest_whenGamesAreEquallyAdvanced_thenServeThemRoundRobin() throws Exception {
+        // ARRANGE
+        DalleScheduler schedulerUnderTest = new DalleScheduler(meterRegistry, 1, Duration.ofSeconds(20), clock::get);
+        occupySlot(schedulerUnderTest);
+        enqueue(schedulerUnderTest, "big", 3, 1);
+        enqueue(schedulerUnderTest, "big", 3, 2);
+        enqueue(schedulerUnderTest, "big", 3, 3);
+        enqueue(schedulerUnderTest, "small", 3, 4);
+
+        // ACT
+        releaseBlockingCall.countDown();
+        awaitServed(4);
+
+        // ASSERT
+        assertEquals(List.of("big", "small", "big", "big"), servedGames);
+    }
+
+    @Test
+    void callTest_whenGameIsAboutToFinish_thenServeItFirst() throws Exception {
+        // ARRANGE
+        DalleScheduler schedulerUnderTest = new DalleScheduler(meterRegistry, 1, Duration.ofSeconds(20), clock::get);
+        occupySlot(schedulerUnderTest);
+        enqueue(schedulerUnderTest, "starting", 12, 1);
+        enqueue(schedulerUnderTest, "starting", 12, 2);
+        enqueue(schedulerUnderTest, "finishing", 1, 3);
+
+        // ACT
+        releaseBlockingCall.countDown();
+        awaitServed(3);
+
+        // ASSERT
+        assertEquals(List.of("finishing", "starting", "starting"), servedGames);
+    }
+
+    @Test
+    void callTest_whenGameHasWaitedLong_thenAgingOutweighsProgress() throws Exception {
+        // ARRANGE
+        DalleScheduler schedulerUnderTest = new DalleScheduler(meterRegistry, 1, Duration.ofSeconds(20), clock::get);
+        occupySlot(schedulerUnderTest);
+        enqueue(schedulerUnderTest, "starting", 4, 1);
+        clock.addAndGet(Duration.ofSeconds(80).toNanos());
+        enqueue(schedulerUnderTest, "finishing", 1, 2);
+
+        // ACT
+        releaseBlockingCall.countDown();
+        awaitServed(2);
+
+        // ASSERT
+        assertEquals(List.of("starting", "finishing"), servedGames);
+        assertTrue(meterRegistry.get("promptwhispers.images.dalle.wait").tag("open.image.rounds", "4").timer()
+                .totalTime(TimeUnit.SECONDS) >= 80);
+    }
+
+    private void occupySlot(DalleScheduler scheduler) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        callers.submit(() -> scheduler.call("blocking", 1, () -> {
+            started.countDown();
+            try {
+                return releaseBlockingCall.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException exception) {
+                throw new IllegalStateException(exception);
+            }
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    // Waits until the call is queued, so that the queue order is deterministic.
+    private void enqueue(DalleScheduler scheduler, String gameId, int openImageRounds, int expectedWaiting) {
+        callers.submit(() -> scheduler.call(gameId, openImageRounds, () -> servedGames.add(gameId)));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (meterRegistry.get("promptwhispers.images.dalle.waiting").gauge().value() < expectedWaiting) {
+            assertTrue(System.nanoTime() < deadline, "The call was not queued in time");
+            sleep(1);
+        }
+    }
+
+    private void awaitServed(int numOfCalls) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (servedGames.size() < numOfCalls) {
+            assertTrue(System.nanoTime() < deadline, "The calls were not served in time");
+            sleep(1);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package in.kahl.promptwhispers.service;
+
+import in.kahl.promptwhispers.exception.DalleBusyException;
+import in.kahl.promptwhispers.model.openai.DalleRequest;
+import io.micrometer.core.instrument.observation.DefaultMeterObservationHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DalleServiceTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final ObservationRegistry observationRegistry = ObservationRegistry.create();
+
+    private MockWebServer mockWebServer;
+
+    private CircuitBreaker circuitBreaker;
+
+    private DalleRateLimiter rateLimiter;
+
+    private DalleService serviceUnderTest;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        mockWebServer = new MockWebServer();
+        mockWebServer.start();
+        observationRegistry.observationConfig().observationHandler(new DefaultMeterObservationHandler(meterRegistry));
+        rateLimiter = new DalleRateLimiter(meterRegistry, 6000, 10,
+                Duration.ofSeconds(5), Duration.ofMillis(50));
+        circuitBreaker = new CircuitBreaker("dalle",
+                new CircuitBreaker.Settings(4, 50, Duration.ofSeconds(10), Duration.ofMinutes(1), 4), meterRegistry);
+        serviceUnderTest = createService(DalleRequest.URL);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    void getGeneratedImageUrlTest_whenThrottledBriefly_thenRetryAfterBackOff() {
+        // ARRANGE
+        mockWebServer.enqueue(tooManyRequests().addHeader(HttpHeaders.RETRY_AFTER, "0"));
+        mockWebServer.enqueue(tooManyRequests());
+        mockWebServer.enqueue(new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .setBody("""
+                        {"created": 1707227208, "data": [{"url": "https://example.com/image.png"}]}
+                        """));
+
+        // ACT
+        String imageUrl = serviceUnderTest.getGeneratedImageUrl("Goat jumps over a hedge.");
+
+        // ASSERT
+        assertEquals("https://example.com/image.png", imageUrl);
+        assertEquals(3, mockWebServer.getRequestCount());
+        assertEquals(2, meterRegistry.get("promptwhispers.images.dalle.throttled").counter().count());
+        assertEquals(1, meterRegistry.get("promptwhispers.images.dalle.generate")
+                .tags("format", "url", "outcome", "success").timer().count());
+    }
+
+    @Test
+    void getGeneratedImageUrlTest_whenThrottlingPersists_thenThrowBusyAfterMaxAttempts() {
+        // ARRANGE
+        for (int i = 0; i < 3; i++) {
+            mockWebServer.enqueue(tooManyRequests().addHeader(HttpHeaders.RETRY_AFTER, "0"));
+        }
+
+        // ACT
+        assertThrows(DalleBusyException.class, () -> serviceUnderTest.getGeneratedImageUrl("Goat jumps over a hedge."));
+
+        // ASSERT
+        assertEquals(3, mockWebServer.getRequestCount());
+        assertEquals(1, meterRegistry.get("promptwhispers.images.dalle.generate")
+                .tags("outcome", "error", "error", "DalleBusyException").timer().count());
+    }
+
+    @Test
+    void getGeneratedImageUrlTest_whenRetryAfterExceedsMaxWait_thenThrowBusyWithoutRetrying() {
+        // ARRANGE
+        mockWebServer.enqueue(tooManyRequests().addHeader(HttpHeaders.RETRY_AFTER, "120"));
+
+        // ACT
+        DalleBusyException exception = assertThrows(DalleBusyException.class,
+                () -> serviceUnderTest.getGeneratedImageUrl("Goat jumps over a hedge."));
+
+        // ASSERT
+        assertEquals(1, mockWebServer.getRequestCount());
+        assertEquals(1, meterRegistry.get("promptwhispers.images.dalle.permits.rejected").counter().count());
+        assertEquals(120, exception.getRetryAfter().toSeconds());
+    }
+
+    @Test
+    void getGeneratedImageUrlTest_whenDalleKeepsFailing_thenOpenCircuitAndReturnPlaceholder() {
+        // ARRANGE
+        for (int i = 0; i < 2; i++) {
+            mockWebServer.enqueue(new MockResponse().setResponseCode(500));
+            assertThrows(RuntimeException.class, () -> serviceUnderTest.getGeneratedImageUrl("Goat jumps over a hedge."));
+        }
+
+        // ACT
+        String imageUrl = serviceUnderTest.getGeneratedImageUrl("Goat jumps over a hedge.");
+
+        // ASSERT
+        assertEquals(DalleService.PLACEHOLDER_IMAGE_URL, imageUrl);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(2, mockWebServer.getRequestCount());
+    }
+
+    @Test
+    void getGeneratedImageUrlTest_whenRateLimiterRejects_thenKeepCircuitClosed() {
+        // ARRANGE
+        rateLimiter = new DalleRateLimiter(meterRegistry, 1, 1, Duration.ofMillis(10), Duration.ofMillis(50));
+        DalleService limitedService = createService(DalleRequest.URL);
+        mockWebServer.enqueue(new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .setBody("""
+                        {"created": 1707227208, "data": [{"url": "https://example.com/image.png"}]}
+                        """));
+        limitedService.getGeneratedImageUrl("Goat jumps over a hedge.");
+
+        // ACT
+        for (int i = 0; i < 4; i++) {
+            assertThrows(DalleBusyException.class, () -> limitedService.getGeneratedImageUrl("Goat jumps over a hedge."));
+        }
+
+        // ASSERT
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(1, circuitBreaker.getSnapshot().bufferedCalls());
+        assertEquals(1, mockWebServer.getRequestCount());
+    }
+
+    @Test
+    void getGeneratedImageUrlTest_whenThrottled_thenDoNotCountFailures() {
+        // ARRANGE
+        for (int i = 0; i < 3; i++) {
+            mockWebServer.enqueue(tooManyRequests().addHeader(HttpHeaders.RETRY_AFTER, "0"));
+        }
+
+        // ACT
+        assertThrows(DalleBusyException.class, () -> serviceUnderTest.getGeneratedImageUrl("Goat jumps over a hedge."));
+
+        // ASSERT
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(0, circuitBreaker.getSnapshot().failureRate());
+    }
+
+    @Test
+    void getGeneratedImageUrlTest_whenPromptsAreRejected_thenKeepCircuitClosed() {
+        // ARRANGE
+        for (int i = 0; i < 4; i++) {
+            mockWebServer.enqueue(new MockResponse()
+                    .setResponseCode(400)
+                    .addHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                    .setBody("""
+                            {"error": {"message": "Your request was rejected by our safety system.", "type": "invalid_request_error"}}
+                            """));
+        }
+
+        // ACT
+        for (int i = 0; i < 4; i++) {
+            assertThrows(HttpClientErrorException.BadRequest.class,
+                    () -> serviceUnderTest.getGeneratedImageUrl("Goat jumps over a hedge."));
+        }
+
+        // ASSERT
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(0, circuitBreaker.getSnapshot().failureRate());
+        assertEquals(4, mockWebServer.getRequestCount());
+    }
+
+    @Test
+    void getGeneratedImageFileTest_whenAnswerContainsBase64Image_thenDecodeItIntoFile() throws Exception {
+        // ARRANGE
+        byte[] image = new byte[100_000];
+        new Random(42).nextBytes(image);
+        mockWebServer.enqueue(tooManyRequests().addHeader(HttpHeaders.RETRY_AFTER, "0"));
+        mockWebServer.enqueue(new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .setBody("{\"created\": 1707227208, \"data\": [{\"b64_json\": \""
+                        + Base64.getEncoder().encodeToString(image) + "\"}]}"));
+        DalleService base64Service = createService(DalleRequest.B64_JSON);
+
+        // ACT
+        Path imageFile = base64Service.getGeneratedImageFile("Goat jumps over a hedge.");
+
+        // ASSERT
+        try {
+            assertArrayEquals(image, Files.readAllBytes(imageFile));
+            assertTrue(base64Service.returnsImageData());
+            mockWebServer.takeRequest();
+            assertTrue(mockWebServer.takeRequest().getBody().readUtf8().contains("\"response_format\":\"b64_json\""));
+        } finally {
+            Files.deleteIfExists(imageFile);
+        }
+    }
+
+    @Test
+    void getGeneratedImageFileTest_whenAnswerContainsNoImage_thenThrowException() {
+        // ARRANGE
+        mockWebServer.enqueue(new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .setBody("""
+                        {"created": 1707227208, "data": []}
+                        """));
+        DalleService base64Service = createService(DalleRequest.B64_JSON);
+
+        // ACT & ASSERT
+        assertThrows(ResourceAccessException.class, () -> base64Service.getGeneratedImageFile("Goat jumps over a hedge."));
+    }
+
+    private DalleService createService(String responseFormat) {
+        return new DalleService(mockWebServer.url("/").toString(), "key", "org", true, rateLimiter, 3, circuitBreaker,
+                new DalleHttpTransport(meterRegistry, rateLimiter, Duration.ofSeconds(5), Duration.ofSeconds(5), 4, false, Duration.ofSeconds(30), false),
+                responseFormat, observationRegistry);
+    }
+
+    private static MockResponse tooManyRequests() {
+        return new MockResponse()
+                .setResponseCode(429)
+                .addHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .setBody("""
+                        {"error": {"message": "Rate limit exceeded for images per minute.", "type": "requests"}}
+                        """);
+    }
+}
@@ -0,0 +1,82 @@
+package in.kahl.promptwhispers.service;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.mockStatic;
+
+class DocumentVersionsTest {
+    private final DocumentVersions versionsUnderTest = new DocumentVersions(Duration.ofSeconds(10));
+
+    @Test
+    void isCurrentTest_whenETagMatchesRecordedVersion_thenReturnTrue() {
+        // ARRANGE
+        versionsUnderTest.record("game", "1", 3L);
+
+        // ACT & ASSERT
+        assertTrue(versionsUnderTest.isCurrent("game", "1", "\"3\""));
+        assertFalse(versionsUnderTest.isCurrent("game", "1", "\"2\""));
+        assertFalse(versionsUnderTest.isCurrent("lobby", "1", "\"3\""));
+        assertFalse(versionsUnderTest.isCurrent("game", "1", null));
+    }
+
+    @Test
+    void findCurrentETagTest_whenIfNoneMatchIsWeakListOrWildcard_thenReturnKnownETag() {
+        // ARRANGE
+        versionsUnderTest.record("game", "1", 3L);
+
+        // ACT & ASSERT
+        assertEquals(Optional.of("\"3\""), versionsUnderTest.findCurrentETag("game", "1", "W/\"3\""));
+        assertEquals(Optional.of("\"3\""), versionsUnderTest.findCurrentETag("game", "1", "\"2\", W/\"3\""));
+        assertEquals(Optional.of("\"3\""), versionsUnderTest.findCurrentETag("game", "1", "*"));
+        assertEquals(Optional.empty(), versionsUnderTest.findCurrentETag("game", "1", "\"2\", W/\"4\""));
+        assertEquals(Optional.empty(), versionsUnderTest.findCurrentETag("game", "1", "3"));
+    }
+
+    @Test
+    void recordTest_whenOlderVersionIsRecordedLater_thenKeepNewerVersion() {
+        // ARRANGE
+        versionsUnderTest.record("game", "1", 4L);
+
+        // ACT
+        versionsUnderTest.record("game", "1", 3L);
+
+        // ASSERT
+        assertTrue(versionsUnderTest.isCurrent("game", "1", "\"4\""));
+        assertFalse(versionsUnderTest.isCurrent("game", "1", "\"3\""));
+    }
+
+    @Test
+    void isCurrentTest_whenDocumentIsForgotten_thenReturnFalse() {
+        // ARRANGE
+        versionsUnderTest.record("game", "1", 3L);
+
+        // ACT
+        versionsUnderTest.forget("game", "1");
+
+        // ASSERT
+        assertFalse(versionsUnderTest.isCurrent("game", "1", "\"3\""));
+    }
+
+    @Test
+    void isCurrentTest_whenVersionIsOlderThanMaxAge_thenReturnFalse() {
+        // ARRANGE
+        Instant elevenSecondsLater = Instant.now().plusSeconds(11);
+        versionsUnderTest.record("game", "1", 3L);
+
+        // ACT & ASSERT
+        try (MockedStatic<Instant> mockedInstant = mockStatic(Instant.class, CALLS_REAL_METHODS)) {
+            mockedInstant.when(Instant::now).thenReturn(elevenSecondsLater);
+
+            assertFalse(versionsUnderTest.isCurrent("game", "1", "\"3\""));
+        }
+    }
+}
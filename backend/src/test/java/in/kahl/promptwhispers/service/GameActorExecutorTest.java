@@ -0,0 +1,104 @@
+package in.kahl.promptwhispers.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GameActorExecutorTest {
+    private final GameActorExecutor executorUnderTest = new GameActorExecutor(new SimpleMeterRegistry(), true, 4, false);
+
+    private final ExecutorService callers = Executors.newFixedThreadPool(8);
+
+    @AfterEach
+    void tearDown() {
+        callers.shutdownNow();
+        executorUnderTest.shutdown();
+    }
+
+    @Test
+    void executeTest_whenCalledConcurrentlyForSameGame_thenRunActionsOneAtATime() throws Exception {
+        // ARRANGE
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Future<Integer>> results = new ArrayList<>();
+
+        // ACT
+        for (int i = 0; i < 40; i++) {
+            int value = i;
+            results.add(callers.submit(() -> executorUnderTest.execute("game", () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.onSpinWait();
+                running.decrementAndGet();
+                return value;
+            })));
+        }
+
+        // ASSERT
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, results.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    void executeTest_whenSameGameIsBusy_thenOtherGamesAreNotBlocked() throws Exception {
+        // ARRANGE
+        CountDownLatch releaseBusyGame = new CountDownLatch(1);
+        Future<String> busyGame = callers.submit(() -> executorUnderTest.execute("busy", () -> {
+            awaitUninterruptibly(releaseBusyGame);
+            return "busy";
+        }));
+
+        // ACT
+        Future<String> otherGame = callers.submit(() -> executorUnderTest.execute("other", () -> "other"));
+
+        // ASSERT
+        assertEquals("other", otherGame.get(5, TimeUnit.SECONDS));
+        assertFalse(busyGame.isDone());
+        releaseBusyGame.countDown();
+        assertEquals("busy", busyGame.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void executeTest_whenMailboxRunsEmpty_thenEvictActor() throws Exception {
+        // ACT
+        executorUnderTest.execute("game1", () -> 1);
+        executorUnderTest.execute("game2", () -> 2);
+
+        // ASSERT
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (executorUnderTest.getNumOfActiveActors() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, executorUnderTest.getNumOfActiveActors());
+    }
+
+    @Test
+    void executeTest_whenActionThrows_thenRethrowOriginalException() {
+        // ACT
+        Executable executable = () -> executorUnderTest.execute("game", () -> {
+            throw new NoSuchElementException();
+        });
+
+        // ASSERT
+        assertThrows(NoSuchElementException.class, executable);
+        assertEquals("next", executorUnderTest.execute("game", () -> "next"));
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package in.kahl.promptwhispers.service;
+
+import in.kahl.promptwhispers.model.Game;
+import in.kahl.promptwhispers.model.GameState;
+import in.kahl.promptwhispers.repo.GameRepo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class GameLifecycleMetricsTest {
+    private static final Instant START = Instant.parse("2024-03-01T12:00:00Z");
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final GameRepo gameRepo = mock(GameRepo.class);
+
+    private final MutableClock clock = new MutableClock();
+
+    private final GameLifecycleMetrics metricsUnderTest = new GameLifecycleMetrics(meterRegistry, gameRepo, clock,
+            Duration.ofHours(24), null);
+
+    @Test
+    void changedTest_whenGameMovesThroughStates_thenRecordTimeInEachState() {
+        // ARRANGE
+        Game game = game("1", GameState.REQUEST_NEW_PROMPTS);
+        metricsUnderTest.created(game);
+
+        // ACT
+        clock.advance(Duration.ofSeconds(30));
+        metricsUnderTest.changed(GameState.REQUEST_NEW_PROMPTS, game.withGameState(GameState.WAIT_FOR_PROMPTS));
+        clock.advance(Duration.ofSeconds(90));
+        metricsUnderTest.changed(GameState.WAIT_FOR_PROMPTS, game.withGameState(GameState.WAIT_FOR_PROMPTS));
+        metricsUnderTest.changed(GameState.WAIT_FOR_PROMPTS, game.withGameState(GameState.WAIT_FOR_IMAGES));
+
+        // ASSERT
+        assertEquals(0, gauge(GameState.REQUEST_NEW_PROMPTS));
+        assertEquals(0, gauge(GameState.WAIT_FOR_PROMPTS));
+        assertEquals(1, gauge(GameState.WAIT_FOR_IMAGES));
+        assertEquals(30, stateDuration(GameState.REQUEST_NEW_PROMPTS));
+        assertEquals(90, stateDuration(GameState.WAIT_FOR_PROMPTS));
+        assertEquals(1, meterRegistry.get("promptwhispers.games.transitions")
+                .tags("from", "WAIT_FOR_PROMPTS", "to", "WAIT_FOR_IMAGES").counter().count());
+    }
+
+    @Test
+    void changedTest_whenGameFinishes_thenRecordTotalDurationAndForgetGame() {
+        // ARRANGE
+        Game game = game("1", GameState.WAIT_FOR_IMAGES);
+        metricsUnderTest.created(game);
+        clock.advance(Duration.ofMinutes(5));
+
+        // ACT
+        metricsUnderTest.changed(GameState.WAIT_FOR_IMAGES, game.withGameState(GameState.FINISHED));
+
+        // ASSERT
+        assertEquals(1, gauge(GameState.FINISHED));
+        assertEquals(300, meterRegistry.get("promptwhispers.games.duration").timer().totalTime(TimeUnit.SECONDS));
+        assertEquals(0, metricsUnderTest.getTrackedGameCount());
+    }
+
+    @Test
+    void changedTest_whenOtherInstanceMovedGameOn_thenSkipTimeInState() {
+        // ARRANGE
+        Game game = game("1", GameState.REQUEST_NEW_PROMPTS);
+        metricsUnderTest.created(game);
+        clock.advance(Duration.ofMinutes(5));
+
+        // ACT
+        metricsUnderTest.changed(GameState.WAIT_FOR_IMAGES, game.withGameState(GameState.REQUEST_NEW_PROMPTS));
+
+        // ASSERT
+        assertEquals(0, meterRegistry.get("promptwhispers.games.state.duration")
+                .tag("state", "WAIT_FOR_IMAGES").timer().count());
+        assertEquals(1, metricsUnderTest.getTrackedGameCount());
+    }
+
+    @Test
+    void reconcileTest_whenCountsDrifted_thenTakeCountsFromDatabase() {
+        // ARRANGE
+        metricsUnderTest.created(game("1", GameState.REQUEST_NEW_PROMPTS));
+        metricsUnderTest.deleted(game("2", GameState.FINISHED));
+        when(gameRepo.countGamesByState()).thenReturn(Map.of(GameState.WAIT_FOR_PROMPTS, 3L, GameState.FINISHED, 7L));
+        clock.advance(Duration.ofHours(25));
+
+        // ACT
+        metricsUnderTest.reconcile();
+
+        // ASSERT
+        assertEquals(0, gauge(GameState.REQUEST_NEW_PROMPTS));
+        assertEquals(3, gauge(GameState.WAIT_FOR_PROMPTS));
+        assertEquals(7, gauge(GameState.FINISHED));
+        assertEquals(0, metricsUnderTest.getTrackedGameCount());
+    }
+
+    private double gauge(GameState state) {
+        return meterRegistry.get("promptwhispers.games.active").tag("state", state.name()).gauge().value();
+    }
+
+    private double stateDuration(GameState state) {
+        return meterRegistry.get("promptwhispers.games.state.duration").tag("state", state.name()).timer()
+                .totalTime(TimeUnit.SECONDS);
+    }
+
+    private static Game game(String id, GameState state) {
+        return new Game(id, List.of(), new ArrayList<>(), state, START);
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now = START;
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -2,21 +2,38 @@ package in.kahl.promptwhispers.service;
 
 import in.kahl.promptwhispers.model.*;
 import in.kahl.promptwhispers.model.dto.PromptCreate;
+import in.kahl.promptwhispers.model.openai.DalleRequest;
 import in.kahl.promptwhispers.repo.GameRepo;
+import in.kahl.promptwhispers.repo.GeneratedImageRepo;
+import io.micrometer.core.instrument.observation.DefaultMeterObservationHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.function.Executable;
+import org.mockito.ArgumentCaptor;
 import org.mockito.MockedStatic;
 import org.mockito.Mockito;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.oauth2.core.user.OAuth2User;
 
+import java.time.Duration;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
 class GameServiceTest {
@@ -24,14 +41,26 @@ class GameServiceTest {
     private final UserService userService = mock(UserService.class);
     private final LobbyService lobbyService = mock(LobbyService.class);
     private final DalleService dalleService = mock(DalleService.class);
-    private final CloudinaryService cloudinaryService = mock(CloudinaryService.class);
+    private final ImageStore imageStore = mock(ImageStore.class);
+    private final GameEventStream gameEventStream = mock(GameEventStream.class);
+    private final GeneratedImageRepo generatedImageRepo = mock(GeneratedImageRepo.class);
+    private final ImageVariantPipeline imageVariantPipeline = mock(ImageVariantPipeline.class);
+    private final GameLifecycleMetrics gameLifecycleMetrics = mock(GameLifecycleMetrics.class);
+    private final SimpleMeterRegistry stepMeterRegistry = new SimpleMeterRegistry();
+    private final ObservationRegistry observationRegistry = ObservationRegistry.create();
+    // Runs image jobs on the calling thread, so that they have finished once generateImage returns.
+    private final ImageGenerationJobs imageGenerationJobs = new ImageGenerationJobs(new SimpleMeterRegistry(), Runnable::run, Duration.ofMinutes(10));
 
     private final String userEmail = "user@example.com";
     private GameService serviceUnderTest;
 
     @BeforeEach
     void setUp() {
-        serviceUnderTest = new GameService(gameRepo, userService, lobbyService, dalleService, cloudinaryService);
+        observationRegistry.observationConfig().observationHandler(new DefaultMeterObservationHandler(stepMeterRegistry));
+        RetryingUpdateExecutor retryingUpdateExecutor = new RetryingUpdateExecutor(new SimpleMeterRegistry(), 10);
+        GameActorExecutor gameActorExecutor = new GameActorExecutor(new SimpleMeterRegistry(), true, 4, false);
+        serviceUnderTest = new GameService(gameRepo, userService, lobbyService, dalleService, imageStore, retryingUpdateExecutor, gameActorExecutor, new DocumentVersions(Duration.ofSeconds(10)), gameEventStream, new GameChangeWaiters(new SimpleMeterRegistry()), imageGenerationJobs, new ImageCache(generatedImageRepo, new SimpleMeterRegistry(), 10), new DalleScheduler(new SimpleMeterRegistry(), 4, Duration.ofSeconds(20)), imageVariantPipeline, observationRegistry, gameLifecycleMetrics);
+        when(dalleService.createRequest(anyString())).thenAnswer(invocation -> new DalleRequest(invocation.getArgument(0)));
     }
 
     private Game createEmptyGame() {
@@ -69,6 +98,7 @@ class GameServiceTest {
             assertEquals(expected, actual);
             verify(gameRepo).save(expected);
             verifyNoMoreInteractions(gameRepo);
+            verify(gameLifecycleMetrics).created(expected);
         }
     }
 
@@ -130,6 +160,7 @@ class GameServiceTest {
         verify(gameRepo).findById(testGameToDelete.id());
         verify(gameRepo).delete(testGameToDelete);
         verifyNoMoreInteractions(gameRepo);
+        verify(gameLifecycleMetrics).deleted(testGameToDelete);
 
     }
 
@@ -180,7 +211,8 @@ class GameServiceTest {
                     gameWithOutPrompt.get().createdAt()));
             when(gameRepo.findById(gameId)).thenReturn(gameWithOutPrompt);
 
-            when(gameRepo.save(any(Game.class))).thenReturn(gameWithPrompt.get());
+            Turn expectedPrompt = new Turn(testUser, TurnType.PROMPT, promptInput);
+            when(gameRepo.appendTurn(gameWithPrompt.get(), expectedPrompt)).thenReturn(gameWithPrompt.get());
 
             PromptCreate userProvidedPrompt = new PromptCreate(promptInput);
 
@@ -193,11 +225,60 @@ class GameServiceTest {
             verifyNoMoreInteractions(userService);
 
             verify(gameRepo).findById(gameId);
-            verify(gameRepo).save(gameWithPrompt.get());
+            verify(gameRepo).appendTurn(gameWithPrompt.get(), expectedPrompt);
             verifyNoMoreInteractions(gameRepo);
         }
     }
 
+    @Test
+    void submitPromptTest_whenImagesAreGeneratedAutomatically_thenAppendImageWithoutGenerateImageCall() {
+        // ARRANGE
+        OAuth2User mockedPrincipal = mock(OAuth2User.class);
+        User user = new User(userEmail);
+        when(userService.getLoggedInUser(mockedPrincipal)).thenReturn(user);
+
+        Game game = new Game().withAutoGenerateImages(true)
+                .withPlayer(user)
+                .withGameState(GameState.REQUEST_NEW_PROMPTS);
+        AtomicReference<Game> storedGame = new AtomicReference<>(game);
+        when(gameRepo.findById(game.id())).thenAnswer(invocation -> Optional.of(copyOf(storedGame.get())));
+        when(gameRepo.appendTurn(any(Game.class), any(Turn.class))).thenAnswer(invocation -> {
+            storedGame.set(invocation.getArgument(0));
+            return invocation.getArgument(0);
+        });
+        when(dalleService.getGeneratedImageUrl("Sheep jumps over hedge")).thenReturn("https://example.com/dalle.png");
+        when(imageStore.uploadImage("https://example.com/dalle.png")).thenReturn("https://example.com/image.png");
+
+        // ACT
+        serviceUnderTest.submitPrompt(mockedPrincipal, game.id(), new PromptCreate("Sheep jumps over hedge"));
+
+        // ASSERT
+        List<Turn> round = storedGame.get().rounds().getFirst();
+        assertEquals(List.of(TurnType.PROMPT, TurnType.IMAGE), round.stream().map(Turn::type).toList());
+        assertEquals("https://example.com/image.png", round.getLast().content());
+        assertEquals(GameState.FINISHED, storedGame.get().gameState());
+    }
+
+    @Test
+    void submitPromptTest_whenImagesAreNotGeneratedAutomatically_thenOnlyAppendPrompt() {
+        // ARRANGE
+        OAuth2User mockedPrincipal = mock(OAuth2User.class);
+        User user = new User(userEmail);
+        when(userService.getLoggedInUser(mockedPrincipal)).thenReturn(user);
+
+        Game game = new Game().withPlayer(user)
+                .withGameState(GameState.REQUEST_NEW_PROMPTS);
+        when(gameRepo.findById(game.id())).thenAnswer(invocation -> Optional.of(copyOf(game)));
+        when(gameRepo.appendTurn(any(Game.class), any(Turn.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        // ACT
+        serviceUnderTest.submitPrompt(mockedPrincipal, game.id(), new PromptCreate("Sheep jumps over hedge"));
+
+        // ASSERT
+        verify(gameRepo).appendTurn(any(Game.class), any(Turn.class));
+        verifyNoInteractions(dalleService, imageStore);
+    }
+
     @Test
     void generateImageTest_whenGameIdProvided_thenGenerateImage() {
         // ARRANGE
@@ -218,7 +299,7 @@ class GameServiceTest {
             User user = new User(userEmail);
             Turn prompt = new Turn(user, TurnType.PROMPT, promptInput);
             Optional<Game> gameWithPrompt = Optional.of(new Game(gameId,
-                    List.of(user),
+                    List.of(PlayerRef.of(user)),
                     new ArrayList<>(List.of(List.of(prompt))),
                     GameState.WAIT_FOR_IMAGES,
                     time));
@@ -226,28 +307,178 @@ class GameServiceTest {
 
             String imageUrl = "https://example.com/image.png";
             when(dalleService.getGeneratedImageUrl(promptInput)).thenReturn(imageUrl);
-            when(cloudinaryService.uploadImage(imageUrl)).thenReturn(imageUrl);
+            when(imageStore.uploadImage(imageUrl)).thenReturn(imageUrl);
 
             Turn generatedImage = new Turn(user, TurnType.IMAGE, imageUrl);
-            Game gameWithImageUrl = new Game(gameId, List.of(user),
+            Game gameWithImageUrl = new Game(gameId, List.of(PlayerRef.of(user)),
                     List.of(List.of(prompt, generatedImage)), GameState.FINISHED, time);
-            when(gameRepo.save(any(Game.class))).thenReturn(gameWithImageUrl);
+            when(gameRepo.appendTurn(gameWithImageUrl, generatedImage)).thenReturn(gameWithImageUrl);
 
             // ACT
-            Game gameActual = serviceUnderTest.generateImage(mockedPrincipal, gameId);
+            ImageJob job = serviceUnderTest.generateImage(mockedPrincipal, gameId);
 
             // ASSERT
-            assertEquals(gameWithImageUrl, gameActual);
+            assertEquals(ImageJobStatus.SUCCEEDED, serviceUnderTest.getImageJob(gameId, job.id()).status());
             verify(gameRepo, times(2)).findById(gameId);
-            verify(gameRepo).save(gameWithImageUrl);
+            verify(gameRepo).appendTurn(gameWithImageUrl, generatedImage);
             verifyNoMoreInteractions(gameRepo);
+            verify(dalleService).createRequest(promptInput);
+            verify(dalleService).returnsImageData();
             verify(dalleService).getGeneratedImageUrl(promptInput);
             verifyNoMoreInteractions(dalleService);
-            verify(cloudinaryService).uploadImage(imageUrl);
-            verifyNoMoreInteractions(cloudinaryService);
+            verify(imageStore).uploadImage(imageUrl);
+            verifyNoMoreInteractions(imageStore);
+            verify(imageVariantPipeline).submit(eq(gameWithImageUrl), eq(generatedImage), any());
+            verify(gameLifecycleMetrics).changed(GameState.WAIT_FOR_IMAGES, gameWithImageUrl);
+            assertEquals(1, stepMeterRegistry.get("promptwhispers.game.steps")
+                    .tags("step", "generateImage", "game.state", "WAIT_FOR_IMAGES", "outcome", "success")
+                    .timer().count());
+            assertEquals(1, stepMeterRegistry.get("promptwhispers.game.steps")
+                    .tags("step", "appendTurn", "game.state", "FINISHED", "outcome", "success")
+                    .timer().count());
         }
     }
 
+    @Test
+    void generateImageTest_whenPromptIsIllustratedElsewhereMeanwhile_thenDoNotAppendSecondImage() {
+        // ARRANGE
+        OAuth2User mockedPrincipal = mock(OAuth2User.class);
+        User user = new User(userEmail);
+        when(userService.getLoggedInUser(mockedPrincipal)).thenReturn(user);
+
+        Game gameWithPrompt = new Game().withPlayer(user)
+                .withGameState(GameState.REQUEST_NEW_PROMPTS)
+                .withTurn(new Turn(user, TurnType.PROMPT, "Sheep jumps over hedge"));
+        Game gameWithImage = copyOf(gameWithPrompt).withTurn(new Turn(user, TurnType.IMAGE, "https://example.com/other.png"));
+        when(gameRepo.findById(gameWithPrompt.id()))
+                .thenReturn(Optional.of(copyOf(gameWithPrompt)))
+                .thenAnswer(invocation -> Optional.of(copyOf(gameWithImage)));
+        when(dalleService.getGeneratedImageUrl(anyString())).thenReturn("https://example.com/dalle.png");
+        when(imageStore.uploadImage(anyString())).thenReturn("https://example.com/image.png");
+
+        // ACT
+        ImageJob job = serviceUnderTest.generateImage(mockedPrincipal, gameWithPrompt.id());
+
+        // ASSERT
+        assertEquals(ImageJobStatus.FAILED, serviceUnderTest.getImageJob(gameWithPrompt.id(), job.id()).status());
+        verify(gameRepo, never()).appendTurn(any(Game.class), any(Turn.class));
+    }
+
+    @Test
+    void generateImageTest_whenDalleReturnsPlaceholder_thenNeitherMirrorNorCacheIt() {
+        // ARRANGE
+        OAuth2User mockedPrincipal = mock(OAuth2User.class);
+        User user = new User(userEmail);
+        when(userService.getLoggedInUser(mockedPrincipal)).thenReturn(user);
+
+        Game gameWithPrompt = new Game().withPlayer(user)
+                .withGameState(GameState.REQUEST_NEW_PROMPTS)
+                .withTurn(new Turn(user, TurnType.PROMPT, "Sheep jumps over hedge"));
+        when(gameRepo.findById(gameWithPrompt.id())).thenAnswer(invocation -> Optional.of(copyOf(gameWithPrompt)));
+        when(gameRepo.appendTurn(any(Game.class), any(Turn.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(dalleService.getGeneratedImageUrl(anyString())).thenReturn(DalleService.PLACEHOLDER_IMAGE_URL);
+
+        // ACT
+        serviceUnderTest.generateImage(mockedPrincipal, gameWithPrompt.id());
+
+        // ASSERT
+        ArgumentCaptor<Turn> appendedTurn = ArgumentCaptor.forClass(Turn.class);
+        verify(gameRepo).appendTurn(any(Game.class), appendedTurn.capture());
+        assertEquals(DalleService.PLACEHOLDER_IMAGE_URL, appendedTurn.getValue().content());
+        verifyNoInteractions(imageStore);
+        verify(generatedImageRepo, never()).save(any(GeneratedImage.class));
+    }
+
+    @Test
+    void generateImageTest_whenDalleReturnsImageData_thenUploadFileAndDeleteIt() throws IOException {
+        // ARRANGE
+        OAuth2User mockedPrincipal = mock(OAuth2User.class);
+        User user = new User(userEmail);
+        when(userService.getLoggedInUser(mockedPrincipal)).thenReturn(user);
+
+        Game gameWithPrompt = new Game().withPlayer(user)
+                .withGameState(GameState.REQUEST_NEW_PROMPTS)
+                .withTurn(new Turn(user, TurnType.PROMPT, "Sheep jumps over hedge"));
+        when(gameRepo.findById(gameWithPrompt.id())).thenAnswer(invocation -> Optional.of(copyOf(gameWithPrompt)));
+        when(gameRepo.appendTurn(any(Game.class), any(Turn.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        Path imageFile = Files.createTempFile("dalle-", ".png");
+        when(dalleService.returnsImageData()).thenReturn(true);
+        when(dalleService.getGeneratedImageFile("Sheep jumps over hedge")).thenReturn(imageFile);
+        when(imageStore.uploadImage(imageFile)).thenReturn("https://example.com/cloudinary.png");
+
+        // ACT
+        serviceUnderTest.generateImage(mockedPrincipal, gameWithPrompt.id());
+
+        // ASSERT
+        ArgumentCaptor<Turn> appendedTurn = ArgumentCaptor.forClass(Turn.class);
+        verify(gameRepo).appendTurn(any(Game.class), appendedTurn.capture());
+        assertEquals("https://example.com/cloudinary.png", appendedTurn.getValue().content());
+        verify(dalleService, never()).getGeneratedImageUrl(anyString());
+        verify(generatedImageRepo).save(any(GeneratedImage.class));
+        assertFalse(Files.exists(imageFile));
+    }
+
+    @Test
+    void generateImageTest_whenCloudinaryIsDownWithImageData_thenAppendPlaceholderWithoutCachingIt() throws IOException {
+        // ARRANGE
+        OAuth2User mockedPrincipal = mock(OAuth2User.class);
+        User user = new User(userEmail);
+        when(userService.getLoggedInUser(mockedPrincipal)).thenReturn(user);
+
+        Game gameWithPrompt = new Game().withPlayer(user)
+                .withGameState(GameState.REQUEST_NEW_PROMPTS)
+                .withTurn(new Turn(user, TurnType.PROMPT, "Sheep jumps over hedge"));
+        when(gameRepo.findById(gameWithPrompt.id())).thenAnswer(invocation -> Optional.of(copyOf(gameWithPrompt)));
+        when(gameRepo.appendTurn(any(Game.class), any(Turn.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        Path imageFile = Files.createTempFile("dalle-", ".png");
+        when(dalleService.returnsImageData()).thenReturn(true);
+        when(dalleService.getGeneratedImageFile("Sheep jumps over hedge")).thenReturn(imageFile);
+        when(imageStore.uploadImage(imageFile)).thenReturn(DalleService.PLACEHOLDER_IMAGE_URL);
+
+        // ACT
+        ImageJob job = serviceUnderTest.generateImage(mockedPrincipal, gameWithPrompt.id());
+
+        // ASSERT
+        assertEquals(ImageJobStatus.SUCCEEDED, serviceUnderTest.getImageJob(gameWithPrompt.id(), job.id()).status());
+        ArgumentCaptor<Turn> appendedTurn = ArgumentCaptor.forClass(Turn.class);
+        verify(gameRepo).appendTurn(any(Game.class), appendedTurn.capture());
+        assertEquals(DalleService.PLACEHOLDER_IMAGE_URL, appendedTurn.getValue().content());
+        verify(generatedImageRepo, never()).save(any(GeneratedImage.class));
+        assertFalse(Files.exists(imageFile));
+    }
+
+    @Test
+    void generateImageTest_whenPromptWasRenderedBefore_thenSkipDalleAndCloudinary() {
+        // ARRANGE
+        OAuth2User mockedPrincipal = mock(OAuth2User.class);
+        User user = new User(userEmail);
+        when(userService.getLoggedInUser(mockedPrincipal)).thenReturn(user);
+
+        Game gameWithPrompt = new Game().withPlayer(user)
+                .withGameState(GameState.REQUEST_NEW_PROMPTS)
+                .withTurn(new Turn(user, TurnType.PROMPT, "Sheep jumps over hedge"));
+        when(gameRepo.findById(gameWithPrompt.id())).thenAnswer(invocation -> Optional.of(copyOf(gameWithPrompt)));
+        when(gameRepo.appendTurn(any(Game.class), any(Turn.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        DalleRequest earlierRequest = new DalleRequest("  sheep JUMPS over  hedge");
+        String cachedImageUrl = "https://example.com/cached.png";
+        when(generatedImageRepo.findById(ImageCache.keyOf(earlierRequest))).thenReturn(Optional.of(new GeneratedImage(
+                ImageCache.keyOf(earlierRequest), earlierRequest.prompt(), earlierRequest.model(), earlierRequest.size(), cachedImageUrl)));
+
+        // ACT
+        serviceUnderTest.generateImage(mockedPrincipal, gameWithPrompt.id());
+
+        // ASSERT
+        ArgumentCaptor<Turn> appendedTurn = ArgumentCaptor.forClass(Turn.class);
+        verify(gameRepo).appendTurn(any(Game.class), appendedTurn.capture());
+        assertEquals(TurnType.IMAGE, appendedTurn.getValue().type());
+        assertEquals(cachedImageUrl, appendedTurn.getValue().content());
+        verify(dalleService, never()).getGeneratedImageUrl(anyString());
+        verifyNoInteractions(imageStore);
+    }
+
     @Test
     void submitPrompt_whenGameFinished_thenThrowException() {
         // ARRANGE
@@ -272,4 +503,246 @@ class GameServiceTest {
         // ASSERT
         assertThrows(IllegalArgumentException.class, executable);
     }
-}
\ No newline at end of file
+
+    @Test
+    void submitPromptTest_whenGameChangedConcurrently_thenRetryWithReloadedGame() {
+        // ARRANGE
+        OAuth2User mockedPrincipal = mock(OAuth2User.class);
+        User testUser = new User(userEmail);
+        when(userService.getLoggedInUser(mockedPrincipal)).thenReturn(testUser);
+
+        Game game = createEmptyGame();
+        when(gameRepo.findById(game.id())).thenReturn(Optional.of(game));
+        when(gameRepo.appendTurn(any(Game.class), any(Turn.class)))
+                .thenThrow(new OptimisticLockingFailureException("conflict"))
+                .thenReturn(game);
+
+        // ACT
+        Game actual = serviceUnderTest.submitPrompt(mockedPrincipal, game.id(), new PromptCreate("Sheep jumps over hedge"));
+
+        // ASSERT
+        assertEquals(game, actual);
+        verify(gameRepo, times(2)).findById(game.id());
+        verify(gameRepo, times(2)).appendTurn(any(Game.class), any(Turn.class));
+        verifyNoMoreInteractions(gameRepo);
+    }
+
+    @Test
+    void submitPromptTest_whenGameKeepsChangingConcurrently_thenThrowException() {
+        // ARRANGE
+        OAuth2User mockedPrincipal = mock(OAuth2User.class);
+        User testUser = new User(userEmail);
+        when(userService.getLoggedInUser(mockedPrincipal)).thenReturn(testUser);
+
+        Game game = createEmptyGame();
+        when(gameRepo.findById(game.id())).thenReturn(Optional.of(game));
+        when(gameRepo.appendTurn(any(Game.class), any(Turn.class))).thenThrow(new OptimisticLockingFailureException("conflict"));
+        PromptCreate prompt = new PromptCreate("Sheep jumps over hedge");
+
+        // ACT
+        Executable executable = () -> serviceUnderTest.submitPrompt(mockedPrincipal, game.id(), prompt);
+
+        // ASSERT
+        assertThrows(OptimisticLockingFailureException.class, executable);
+        verify(gameRepo, times(10)).appendTurn(any(Game.class), any(Turn.class));
+    }
+
+    @Test
+    void submitPromptTest_when20PlayersSubmitAtOnce_thenActorsStoreAllPromptsWithoutConflicts() throws Exception {
+        // ARRANGE
+        int numOfPlayers = 20;
+
+        // ACT
+        BurstResult withoutActors = runPromptBurst(numOfPlayers, false);
+        BurstResult withActors = runPromptBurst(numOfPlayers, true);
+
+        // ASSERT
+        assertEquals(numOfPlayers, withActors.storedPrompts());
+        assertEquals(0, withActors.failedRequests());
+        assertEquals(0, withActors.conflicts());
+        assertEquals(numOfPlayers, withoutActors.storedPrompts() + withoutActors.failedRequests());
+    }
+
+    private record BurstResult(int storedPrompts, int failedRequests, double conflicts) {
+    }
+
+    // Fires one prompt per player at the same moment against an in-memory game store that behaves like the
+    // version-guarded write of the real repository, including a small write latency.
+    private BurstResult runPromptBurst(int numOfPlayers, boolean actorsEnabled) throws Exception {
+        GameRepo burstGameRepo = mock(GameRepo.class);
+        UserService burstUserService = mock(UserService.class);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        GameService burstService = new GameService(burstGameRepo, burstUserService, lobbyService, dalleService, imageStore,
+                new RetryingUpdateExecutor(meterRegistry, 10),
+                new GameActorExecutor(meterRegistry, actorsEnabled, 4, false),
+                new DocumentVersions(Duration.ofSeconds(10)),
+                gameEventStream,
+                new GameChangeWaiters(meterRegistry),
+                imageGenerationJobs,
+                new ImageCache(generatedImageRepo, meterRegistry, 10),
+                new DalleScheduler(meterRegistry, 4, Duration.ofSeconds(20)),
+                imageVariantPipeline, ObservationRegistry.NOOP, gameLifecycleMetrics);
+
+        Game game = new Game();
+        List<OAuth2User> principals = new ArrayList<>();
+        for (int i = 0; i < numOfPlayers; i++) {
+            User player = new User(i + userEmail);
+            OAuth2User principal = mock(OAuth2User.class);
+            when(burstUserService.getLoggedInUser(principal)).thenReturn(player);
+            principals.add(principal);
+            game = game.withPlayer(player);
+        }
+
+        Object storeLock = new Object();
+        Game[] storedGame = {game.withGameState(GameState.REQUEST_NEW_PROMPTS).withVersion(0L)};
+        when(burstGameRepo.findById(game.id())).thenAnswer(invocation -> {
+            synchronized (storeLock) {
+                return Optional.of(copyOf(storedGame[0]));
+            }
+        });
+        when(burstGameRepo.appendTurn(any(Game.class), any(Turn.class))).thenAnswer(invocation -> {
+            Game gameWithTurn = invocation.getArgument(0);
+            Thread.sleep(2);
+            synchronized (storeLock) {
+                if (!storedGame[0].version().equals(gameWithTurn.version())) {
+                    throw new OptimisticLockingFailureException("Game has been modified.");
+                }
+                storedGame[0] = copyOf(gameWithTurn.withVersion(gameWithTurn.version() + 1));
+                return storedGame[0];
+            }
+        });
+
+        String gameId = game.id();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService requestThreads = Executors.newFixedThreadPool(numOfPlayers);
+        List<Future<Game>> responses = new ArrayList<>();
+        for (OAuth2User principal : principals) {
+            responses.add(requestThreads.submit(() -> {
+                start.await();
+                return burstService.submitPrompt(principal, gameId, new PromptCreate("Sheep jumps over hedge"));
+            }));
+        }
+
+        start.countDown();
+        int failedRequests = 0;
+        for (Future<Game> response : responses) {
+            try {
+                response.get();
+            } catch (ExecutionException exception) {
+                failedRequests++;
+            }
+        }
+        requestThreads.shutdown();
+
+        int storedPrompts = storedGame[0].rounds().stream().mapToInt(List::size).sum();
+        double conflicts = meterRegistry.counter("promptwhispers.updates.conflicts", "entity", "game").count();
+        return new BurstResult(storedPrompts, failedRequests, conflicts);
+    }
+
+    @Test
+    void generateImageTest_when200PlayersGenerateAtOnce_thenVirtualThreadsRunAllCallsConcurrently() throws Exception {
+        // ARRANGE
+        int numOfPlayers = 200;
+
+        // ACT
+        LoadResult platformThreads = runImageGenerationLoad(numOfPlayers, false);
+        LoadResult virtualThreads = runImageGenerationLoad(numOfPlayers, true);
+
+        // ASSERT
+        assertEquals(numOfPlayers, platformThreads.generatedImages());
+        assertTrue(platformThreads.maxConcurrentCalls() <= 8);
+        assertEquals(0, platformThreads.callsOnVirtualThreads());
+
+        assertEquals(numOfPlayers, virtualThreads.generatedImages());
+        assertTrue(virtualThreads.maxConcurrentCalls() > 8);
+        assertEquals(numOfPlayers, virtualThreads.callsOnVirtualThreads());
+    }
+
+    private record LoadResult(int generatedImages, int maxConcurrentCalls, int callsOnVirtualThreads) {
+    }
+
+    // Lets every player of one game request an image at the same moment. Each DALL-E call waits until more calls are in
+    // flight than the platform job pool has threads, which only happens when the jobs don't share that pool.
+    private LoadResult runImageGenerationLoad(int numOfPlayers, boolean virtualThreads) throws Exception {
+        GameRepo loadGameRepo = mock(GameRepo.class);
+        UserService loadUserService = mock(UserService.class);
+        DalleService loadDalleService = mock(DalleService.class);
+        ImageStore loadImageStore = mock(ImageStore.class);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        GameActorExecutor loadActorExecutor = new GameActorExecutor(meterRegistry, true, 4, virtualThreads);
+        ImageGenerationJobs loadImageJobs = new ImageGenerationJobs(meterRegistry, 8, numOfPlayers, Duration.ofMinutes(10), virtualThreads);
+        GameService loadService = new GameService(loadGameRepo, loadUserService, lobbyService, loadDalleService, loadImageStore,
+                new RetryingUpdateExecutor(meterRegistry, 10),
+                loadActorExecutor,
+                new DocumentVersions(Duration.ofSeconds(10)),
+                gameEventStream,
+                new GameChangeWaiters(meterRegistry),
+                loadImageJobs,
+                new ImageCache(mock(GeneratedImageRepo.class), meterRegistry, 10),
+                new DalleScheduler(meterRegistry, numOfPlayers, Duration.ofSeconds(20)),
+                imageVariantPipeline, ObservationRegistry.NOOP, gameLifecycleMetrics);
+
+        Game game = new Game();
+        List<User> players = new ArrayList<>();
+        for (int i = 0; i < numOfPlayers; i++) {
+            User player = new User(i + userEmail);
+            players.add(player);
+            game = game.withPlayer(player);
+        }
+        game = game.withGameState(GameState.REQUEST_NEW_PROMPTS);
+        for (User player : players) {
+            game = game.withTurn(new Turn(player, TurnType.PROMPT, "Sheep number " + player.email() + " jumps over hedge"));
+        }
+        Game gameWithPrompts = game;
+        when(loadGameRepo.findById(game.id())).thenAnswer(invocation -> Optional.of(copyOf(gameWithPrompts)));
+
+        when(loadDalleService.createRequest(anyString())).thenAnswer(invocation -> new DalleRequest(invocation.getArgument(0)));
+        AtomicInteger concurrentCalls = new AtomicInteger();
+        AtomicInteger maxConcurrentCalls = new AtomicInteger();
+        AtomicInteger callsOnVirtualThreads = new AtomicInteger();
+        CountDownLatch morePendingCallsThanPoolThreads = new CountDownLatch(9);
+        when(loadDalleService.getGeneratedImageUrl(anyString())).thenAnswer(invocation -> {
+            maxConcurrentCalls.accumulateAndGet(concurrentCalls.incrementAndGet(), Math::max);
+            if (Thread.currentThread().isVirtual()) {
+                callsOnVirtualThreads.incrementAndGet();
+            }
+            try {
+                morePendingCallsThanPoolThreads.countDown();
+                morePendingCallsThanPoolThreads.await(1, TimeUnit.SECONDS);
+            } finally {
+                concurrentCalls.decrementAndGet();
+            }
+            return "https://example.com/dalle.png";
+        });
+        when(loadImageStore.uploadImage(anyString())).thenReturn("https://example.com/image.png");
+        CountDownLatch generatedImages = new CountDownLatch(numOfPlayers);
+        when(loadGameRepo.appendTurn(any(Game.class), any(Turn.class))).thenAnswer(invocation -> {
+            generatedImages.countDown();
+            return invocation.getArgument(0);
+        });
+
+        List<OAuth2User> principals = new ArrayList<>();
+        for (User player : players) {
+            OAuth2User principal = mock(OAuth2User.class);
+            when(loadUserService.getLoggedInUser(principal)).thenReturn(player);
+            principals.add(principal);
+        }
+
+        for (OAuth2User principal : principals) {
+            loadService.generateImage(principal, game.id());
+        }
+        generatedImages.await(30, TimeUnit.SECONDS);
+
+        loadImageJobs.shutdown();
+        loadActorExecutor.shutdown();
+        return new LoadResult(numOfPlayers - (int) generatedImages.getCount(), maxConcurrentCalls.get(),
+                callsOnVirtualThreads.get());
+    }
+
+    private static Game copyOf(Game game) {
+        List<List<Turn>> rounds = game.rounds().stream()
+                .<List<Turn>>map(ArrayList::new)
+                .collect(Collectors.toCollection(ArrayList::new));
+        return new Game(game.id(), new ArrayList<>(game.players()), rounds, game.gameState(), game.createdAt(), game.autoGenerateImages(), game.version());
+    }
+}
@@ -0,0 +1,75 @@
+package in.kahl.promptwhispers.service;
+
+import in.kahl.promptwhispers.model.GeneratedImage;
+import in.kahl.promptwhispers.model.openai.DalleRequest;
+import in.kahl.promptwhispers.repo.GeneratedImageRepo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ImageCacheTest {
+    private final GeneratedImageRepo generatedImageRepo = mock(GeneratedImageRepo.class);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final ImageCache cacheUnderTest = new ImageCache(generatedImageRepo, meterRegistry, 2);
+
+    @Test
+    void keyOfTest_whenPromptsOnlyDifferInCaseAndSpacing_thenReturnSameKey() {
+        // ACT & ASSERT
+        assertEquals(ImageCache.keyOf(new DalleRequest("A cat")), ImageCache.keyOf(new DalleRequest("  a   CAT ")));
+        assertNotEquals(ImageCache.keyOf(new DalleRequest("A cat")), ImageCache.keyOf(new DalleRequest("A dog")));
+        assertNotEquals(ImageCache.keyOf(new DalleRequest("A cat")), ImageCache.keyOf(new DalleRequest("dall-e-3", "A cat")));
+    }
+
+    @Test
+    void getTest_whenImageWasPutBefore_thenReturnItWithoutAskingMongo() {
+        // ARRANGE
+        DalleRequest request = new DalleRequest("A cat");
+        cacheUnderTest.put(request, "https://example.com/cat.png");
+
+        // ACT
+        Optional<String> actual = cacheUnderTest.get(new DalleRequest("a cat"));
+
+        // ASSERT
+        assertEquals(Optional.of("https://example.com/cat.png"), actual);
+        verify(generatedImageRepo).save(any(GeneratedImage.class));
+        verify(generatedImageRepo, never()).findById(any());
+        assertEquals(1.0, meterRegistry.get("promptwhispers.images.cache.hit.ratio").gauge().value());
+    }
+
+    @Test
+    void getTest_whenImageWasEvictedFromMemory_thenLoadItFromMongo() {
+        // ARRANGE
+        DalleRequest cat = new DalleRequest("A cat");
+        cacheUnderTest.put(cat, "https://example.com/cat.png");
+        cacheUnderTest.put(new DalleRequest("A dog"), "https://example.com/dog.png");
+        cacheUnderTest.put(new DalleRequest("A cow"), "https://example.com/cow.png");
+        when(generatedImageRepo.findById(ImageCache.keyOf(cat))).thenReturn(Optional.of(new GeneratedImage(
+                ImageCache.keyOf(cat), "a cat", cat.model(), cat.size(), "https://example.com/cat.png")));
+
+        // ACT
+        Optional<String> actual = cacheUnderTest.get(cat);
+
+        // ASSERT
+        assertEquals(Optional.of("https://example.com/cat.png"), actual);
+        verify(generatedImageRepo).findById(ImageCache.keyOf(cat));
+        assertEquals(2.0, meterRegistry.get("promptwhispers.images.cache.size").gauge().value());
+    }
+
+    @Test
+    void getTest_whenPromptIsUnknown_thenCountMiss() {
+        // ACT
+        Optional<String> actual = cacheUnderTest.get(new DalleRequest("A cat"));
+
+        // ASSERT
+        assertTrue(actual.isEmpty());
+        assertEquals(1.0, meterRegistry.get("promptwhispers.images.cache.requests").tag("result", "miss").counter().count());
+        assertEquals(0.0, meterRegistry.get("promptwhispers.images.cache.hit.ratio").gauge().value());
+    }
+}
@@ -0,0 +1,156 @@
+package in.kahl.promptwhispers.service;
+
+import in.kahl.promptwhispers.exception.DalleBusyException;
+import in.kahl.promptwhispers.model.ImageJob;
+import in.kahl.promptwhispers.model.ImageJobStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageGenerationJobsTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    // Collects submitted jobs instead of running them, so each test decides when they run.
+    private final List<Runnable> pendingJobs = new ArrayList<>();
+
+    private final ImageGenerationJobs jobsUnderTest = new ImageGenerationJobs(meterRegistry, pendingJobs::add, Duration.ofMinutes(10));
+
+    @Test
+    void submitTest_whenSubmitted_thenJobIsQueuedUntilItRuns() {
+        // ACT
+        ImageJob job = jobsUnderTest.submit("game", "player", "prompt", () -> {
+        });
+
+        // ASSERT
+        assertEquals(ImageJobStatus.QUEUED, jobsUnderTest.getJob(job.id()).orElseThrow().status());
+        assertEquals(1, meterRegistry.get("promptwhispers.images.jobs.queued").gauge().value());
+
+        pendingJobs.forEach(Runnable::run);
+
+        ImageJob finishedJob = jobsUnderTest.getJob(job.id()).orElseThrow();
+        assertEquals(ImageJobStatus.SUCCEEDED, finishedJob.status());
+        assertNotNull(finishedJob.finishedAt());
+        assertEquals(0, meterRegistry.get("promptwhispers.images.jobs.queued").gauge().value());
+        assertEquals(1, meterRegistry.get("promptwhispers.images.jobs.run").tag("outcome", "succeeded").timer().count());
+    }
+
+    @Test
+    void submitTest_whenGenerationFails_thenJobFails() {
+        // ACT
+        ImageJob job = jobsUnderTest.submit("game", "player", "prompt", () -> {
+            throw new IllegalStateException("DALL-E is down");
+        });
+        pendingJobs.forEach(Runnable::run);
+
+        // ASSERT
+        assertEquals(ImageJobStatus.FAILED, jobsUnderTest.getJob(job.id()).orElseThrow().status());
+        assertEquals(1, meterRegistry.get("promptwhispers.images.jobs.run").tag("outcome", "failed").timer().count());
+    }
+
+    @Test
+    void submitTest_whenDalleIsBusy_thenJobFailsWithReasonAndRetryTime() {
+        // ARRANGE
+        Instant submittedAt = Instant.now();
+
+        // ACT
+        ImageJob job = jobsUnderTest.submit("game", "player", "prompt", () -> {
+            throw new DalleBusyException("Too many images are being generated right now. Please try again later.",
+                    Duration.ofSeconds(30));
+        });
+        pendingJobs.forEach(Runnable::run);
+
+        // ASSERT
+        ImageJob failedJob = jobsUnderTest.getJob(job.id()).orElseThrow();
+        assertEquals(ImageJobStatus.FAILED, failedJob.status());
+        assertEquals("Too many images are being generated right now. Please try again later.", failedJob.error());
+        assertFalse(failedJob.retryAt().isBefore(submittedAt.plusSeconds(30)));
+    }
+
+    @Test
+    void submitTest_whenPromptAlreadyHasUnfinishedJob_thenReturnThatJob() {
+        // ARRANGE
+        ImageJob first = jobsUnderTest.submit("game", "player", "prompt", () -> {
+        });
+
+        // ACT
+        ImageJob second = jobsUnderTest.submit("game", "player", "prompt", () -> {
+        });
+        ImageJob otherPrompt = jobsUnderTest.submit("game", "player", "next prompt", () -> {
+        });
+        ImageJob otherGame = jobsUnderTest.submit("other", "player", "prompt", () -> {
+        });
+
+        // ASSERT
+        assertEquals(first.id(), second.id());
+        assertNotEquals(first.id(), otherPrompt.id());
+        assertNotEquals(first.id(), otherGame.id());
+        assertEquals(3, pendingJobs.size());
+        assertEquals(1, meterRegistry.get("promptwhispers.images.jobs.coalesced").counter().count());
+    }
+
+    @Test
+    void submitTest_whenPromptHasSucceededJob_thenReturnThatJobWithoutGeneratingAgain() {
+        // ARRANGE
+        ImageJob first = jobsUnderTest.submit("game", "player", "prompt", () -> {
+        });
+        pendingJobs.forEach(Runnable::run);
+        pendingJobs.clear();
+
+        // ACT
+        ImageJob retry = jobsUnderTest.submit("game", "player", "prompt", () -> {
+        });
+
+        // ASSERT
+        assertEquals(first.id(), retry.id());
+        assertEquals(ImageJobStatus.SUCCEEDED, retry.status());
+        assertTrue(pendingJobs.isEmpty());
+    }
+
+    @Test
+    void submitTest_whenPromptHasFailedJob_thenStartNewJob() {
+        // ARRANGE
+        ImageJob failed = jobsUnderTest.submit("game", "player", "prompt", () -> {
+            throw new IllegalStateException("DALL-E is down");
+        });
+        pendingJobs.forEach(Runnable::run);
+        pendingJobs.clear();
+
+        // ACT
+        ImageJob retry = jobsUnderTest.submit("game", "player", "prompt", () -> {
+        });
+
+        // ASSERT
+        assertNotEquals(failed.id(), retry.id());
+        assertEquals(ImageJobStatus.QUEUED, retry.status());
+        assertEquals(1, pendingJobs.size());
+    }
+
+    @Test
+    void submitTest_whenExecutorRejects_thenRethrow() {
+        // ARRANGE
+        ThreadPoolExecutor shutDownExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(1));
+        shutDownExecutor.shutdown();
+        SimpleMeterRegistry rejectingRegistry = new SimpleMeterRegistry();
+        ImageGenerationJobs rejectingJobs = new ImageGenerationJobs(rejectingRegistry, shutDownExecutor, Duration.ofMinutes(10));
+
+        // ACT
+        Executable executable = () -> rejectingJobs.submit("game", "player", "prompt", () -> {
+        });
+
+        // ASSERT
+        assertThrows(RejectedExecutionException.class, executable);
+        assertEquals(0, rejectingRegistry.get("promptwhispers.images.jobs.queued").gauge().value());
+    }
+}
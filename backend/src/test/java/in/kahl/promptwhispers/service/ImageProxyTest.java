@@ -0,0 +1,169 @@
+package in.kahl.promptwhispers.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageProxyTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @TempDir
+    private Path directory;
+
+    private MockWebServer mockWebServer;
+
+    private ImageProxy proxyUnderTest;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        mockWebServer = new MockWebServer();
+        mockWebServer.start();
+        proxyUnderTest = createProxy(DataSize.ofBytes(25));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    void proxyUrlOfTest_whenUrlIsInAllowedFolder_thenPointUrlAtProxy() {
+        // ARRANGE
+        String imageUrl = mockWebServer.url("/magikahl/image.png?size=512").toString();
+
+        // ACT
+        String actual = proxyUnderTest.proxyUrlOf(imageUrl);
+
+        // ASSERT
+        assertTrue(actual.startsWith(ImageProxy.URL_PREFIX + "http%3A%2F%2F"));
+        assertTrue(actual.endsWith("%2Fimage.png%3Fsize%3D512"));
+        assertEquals("https://example.com/image.png", proxyUnderTest.proxyUrlOf("https://example.com/image.png"));
+        assertEquals("/api/images/1234", proxyUnderTest.proxyUrlOf("/api/images/1234"));
+        String otherAccountUrl = mockWebServer.url("/other/image.png").toString();
+        assertEquals(otherAccountUrl, proxyUnderTest.proxyUrlOf(otherAccountUrl));
+        String escapingUrl = mockWebServer.url("/magikahl/") + "%2E%2E/other/image.png";
+        assertEquals(escapingUrl, proxyUnderTest.proxyUrlOf(escapingUrl));
+    }
+
+    @Test
+    void openTest_whenImageIsRequestedTwice_thenFetchItOnce() throws IOException {
+        // ARRANGE
+        String imageUrl = mockWebServer.url("/magikahl/image.png").toString();
+        mockWebServer.enqueue(image("\u0089PNG image"));
+
+        // ACT
+        String first = read(imageUrl);
+        String second = read(imageUrl);
+
+        // ASSERT
+        assertEquals("\u0089PNG image", first);
+        assertEquals(first, second);
+        assertEquals(1, mockWebServer.getRequestCount());
+        assertEquals(1, meterRegistry.get("promptwhispers.images.proxy.requests").tag("result", "hit").counter().count());
+        assertEquals(1, meterRegistry.get("promptwhispers.images.proxy.requests").tag("result", "miss").counter().count());
+        assertEquals(2L * first.getBytes(StandardCharsets.ISO_8859_1).length,
+                (long) meterRegistry.get("promptwhispers.images.proxy.served").counter().count());
+    }
+
+    @Test
+    void openTest_whenCacheIsFull_thenEvictLeastRecentlyServedImage() throws IOException {
+        // ARRANGE
+        for (String name : List.of("first", "second", "third")) {
+            mockWebServer.enqueue(image(name + " image"));
+        }
+        mockWebServer.enqueue(image("second image"));
+        read(mockWebServer.url("/magikahl/first.png").toString());
+        read(mockWebServer.url("/magikahl/second.png").toString());
+        read(mockWebServer.url("/magikahl/first.png").toString());
+
+        // ACT
+        read(mockWebServer.url("/magikahl/third.png").toString());
+
+        // ASSERT
+        assertEquals(2, proxyUnderTest.getEntryCount());
+        assertEquals("first image".length() + "third image".length(), proxyUnderTest.getUsedBytes());
+        assertEquals(1, meterRegistry.get("promptwhispers.images.proxy.evictions").counter().count());
+        read(mockWebServer.url("/magikahl/first.png").toString());
+        assertEquals(3, mockWebServer.getRequestCount());
+        read(mockWebServer.url("/magikahl/second.png").toString());
+        assertEquals(4, mockWebServer.getRequestCount());
+    }
+
+    @Test
+    void openTest_whenProxyRestarts_thenServeImagesFromDisk() throws IOException {
+        // ARRANGE
+        String imageUrl = mockWebServer.url("/magikahl/image.png").toString();
+        mockWebServer.enqueue(image("GIF89a image"));
+        read(imageUrl);
+
+        // ACT
+        ImageProxy restartedProxy = createProxy(DataSize.ofBytes(25));
+
+        // ASSERT
+        try (ImageProxy.CachedImage image = restartedProxy.open(imageUrl).orElseThrow()) {
+            assertEquals(MediaType.IMAGE_GIF, image.mediaType());
+        }
+        assertEquals(1, mockWebServer.getRequestCount());
+        assertEquals("GIF89a image".length(), restartedProxy.getUsedBytes());
+    }
+
+    @Test
+    void openTest_whenRemoteImageIsMissing_thenThrowException() {
+        // ARRANGE
+        mockWebServer.enqueue(new MockResponse().setResponseCode(404));
+
+        // ACT & ASSERT
+        assertThrows(IOException.class, () -> proxyUnderTest.open(mockWebServer.url("/magikahl/missing.png").toString()));
+        assertEquals(0, proxyUnderTest.getEntryCount());
+    }
+
+    @Test
+    void openTest_whenRemoteImageRedirectsOutOfAllowedFolder_thenThrowException() {
+        // ARRANGE
+        mockWebServer.enqueue(new MockResponse()
+                .setResponseCode(302)
+                .addHeader(HttpHeaders.LOCATION, mockWebServer.url("/other/image.png").toString()));
+        mockWebServer.enqueue(image("\u0089PNG other image"));
+
+        // ACT & ASSERT
+        assertThrows(IOException.class, () -> proxyUnderTest.open(mockWebServer.url("/magikahl/image.png").toString()));
+        assertEquals(1, mockWebServer.getRequestCount());
+        assertEquals(0, proxyUnderTest.getEntryCount());
+    }
+
+    private ImageProxy createProxy(DataSize maxSize) throws IOException {
+        return new ImageProxy(meterRegistry, true, List.of(mockWebServer.url("/magikahl/").toString()), directory, maxSize,
+                DataSize.ofKilobytes(1), Duration.ofSeconds(5));
+    }
+
+    private String read(String url) throws IOException {
+        try (ImageProxy.CachedImage image = proxyUnderTest.open(url).orElseThrow()) {
+            ByteBuffer content = ByteBuffer.allocate((int) image.size());
+            image.channel().read(content, 0);
+            return new String(content.array(), StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static MockResponse image(String content) {
+        return new MockResponse().setBody(new Buffer().write(content.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+}
@@ -0,0 +1,156 @@
+package in.kahl.promptwhispers.service;
+
+import in.kahl.promptwhispers.model.*;
+import in.kahl.promptwhispers.repo.GameRepo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+class ImageVariantPipelineTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final ImageStore imageStore = mock(ImageStore.class);
+
+    private final GameRepo gameRepo = mock(GameRepo.class);
+
+    private final User user = new User("test@example.com");
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void submitTest_whenImageTurnStored_thenStoreThumbnailAndContactSheet() throws IOException {
+        // ARRANGE
+        ImageVariantPipeline pipelineUnderTest = new ImageVariantPipeline(meterRegistry, imageStore, gameRepo,
+                Runnable::run, 32, 16);
+        Turn prompt = new Turn(user, TurnType.PROMPT, "Sheep jumps over hedge");
+        Turn firstImage = new Turn(user, TurnType.IMAGE, "first.png")
+                .withVariants(new ImageVariants("first-thumbnail.jpg", "first-sheet.jpg"));
+        Turn secondImage = new Turn(user, TurnType.IMAGE, "second.png");
+        Game game = new Game("1", List.of(PlayerRef.of(user)),
+                List.of(List.of(prompt, firstImage, secondImage)), GameState.FINISHED, Instant.now());
+
+        when(imageStore.openImage("first-thumbnail.jpg")).thenAnswer(invocation -> png(32, 32));
+        when(imageStore.openImage("second.png")).thenAnswer(invocation -> png(200, 100));
+        List<BufferedImage> uploadedImages = new ArrayList<>();
+        when(imageStore.uploadImage(any(Path.class))).thenAnswer(invocation -> {
+            uploadedImages.add(ImageIO.read(invocation.getArgument(0, Path.class).toFile()));
+            return "variant-" + uploadedImages.size() + ".jpg";
+        });
+        ImageVariants expectedVariants = new ImageVariants("variant-1.jpg", "variant-2.jpg");
+        Game gameWithVariants = new Game("1", List.of(PlayerRef.of(user)),
+                List.of(List.of(prompt, firstImage, secondImage.withVariants(expectedVariants))),
+                GameState.FINISHED, game.createdAt());
+        when(gameRepo.setTurnVariants("1", 0, 2, secondImage.id(), expectedVariants))
+                .thenReturn(Optional.of(gameWithVariants));
+        Consumer<Game> onStored = mock(Consumer.class);
+
+        // ACT
+        pipelineUnderTest.submit(game, secondImage, onStored);
+
+        // ASSERT
+        assertEquals(2, uploadedImages.size());
+        assertEquals(32, uploadedImages.get(0).getWidth());
+        assertEquals(16, uploadedImages.get(0).getHeight());
+        assertEquals(32, uploadedImages.get(1).getWidth());
+        assertEquals(16, uploadedImages.get(1).getHeight());
+        verify(imageStore, never()).openImage("first.png");
+        verify(onStored).accept(gameWithVariants);
+        assertEquals(1, meterRegistry.get("promptwhispers.images.variants.duration")
+                .tag("outcome", "success").timer().count());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void submitTest_whenImageCannotBeRead_thenLeaveTurnWithoutVariants() throws IOException {
+        // ARRANGE
+        ImageVariantPipeline pipelineUnderTest = new ImageVariantPipeline(meterRegistry, imageStore, gameRepo,
+                Runnable::run, 32, 16);
+        Turn image = new Turn(user, TurnType.IMAGE, "image.png");
+        Game game = new Game("1", List.of(PlayerRef.of(user)), List.of(List.of(image)), GameState.FINISHED,
+                Instant.now());
+        when(imageStore.openImage("image.png")).thenReturn(new ByteArrayInputStream("no image".getBytes()));
+        Consumer<Game> onStored = mock(Consumer.class);
+
+        // ACT
+        pipelineUnderTest.submit(game, image, onStored);
+
+        // ASSERT
+        verifyNoInteractions(gameRepo, onStored);
+        verify(imageStore, never()).uploadImage(any(Path.class));
+        assertEquals(1, meterRegistry.get("promptwhispers.images.variants.duration")
+                .tag("outcome", "error").timer().count());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void submitTest_whenCloudinaryIsDown_thenLeaveTurnWithoutVariants() throws IOException {
+        // ARRANGE
+        ImageVariantPipeline pipelineUnderTest = new ImageVariantPipeline(meterRegistry, imageStore, gameRepo,
+                Runnable::run, 32, 16);
+        Turn image = new Turn(user, TurnType.IMAGE, "image.png");
+        Game game = new Game("1", List.of(PlayerRef.of(user)), List.of(List.of(image)), GameState.FINISHED,
+                Instant.now());
+        when(imageStore.openImage("image.png")).thenAnswer(invocation -> png(200, 100));
+        when(imageStore.uploadImage(any(Path.class))).thenReturn(DalleService.PLACEHOLDER_IMAGE_URL);
+        Consumer<Game> onStored = mock(Consumer.class);
+
+        // ACT
+        pipelineUnderTest.submit(game, image, onStored);
+
+        // ASSERT
+        verifyNoInteractions(gameRepo, onStored);
+        assertEquals(1, meterRegistry.get("promptwhispers.images.variants.duration")
+                .tag("outcome", "error").timer().count());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void submitTest_whenQueueIsFull_thenCountRejectedTurn() {
+        // ARRANGE
+        ImageVariantPipeline pipelineUnderTest = new ImageVariantPipeline(meterRegistry, imageStore, gameRepo,
+                task -> {
+                    throw new RejectedExecutionException();
+                }, 32, 16);
+        Turn image = new Turn(user, TurnType.IMAGE, "image.png");
+        Game game = new Game("1", List.of(PlayerRef.of(user)), List.of(List.of(image)), GameState.FINISHED,
+                Instant.now());
+
+        // ACT
+        pipelineUnderTest.submit(game, image, mock(Consumer.class));
+
+        // ASSERT
+        assertEquals(1, meterRegistry.get("promptwhispers.images.variants.rejected").counter().count());
+        assertEquals(0, meterRegistry.get("promptwhispers.images.variants.queued").gauge().value());
+        verifyNoInteractions(imageStore, gameRepo);
+    }
+
+    @Test
+    void scaleTest_whenImageIsSmallerThanSize_thenKeepItsSize() {
+        // ACT
+        BufferedImage actual = ImageVariantPipeline.scale(new BufferedImage(20, 10, BufferedImage.TYPE_INT_ARGB), 64);
+
+        // ASSERT
+        assertEquals(20, actual.getWidth());
+        assertEquals(10, actual.getHeight());
+    }
+
+    private static ByteArrayInputStream png(int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+}
@@ -0,0 +1,132 @@
+package in.kahl.promptwhispers.service;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JdkHttpCloudinaryTest {
+    private MockWebServer mockWebServer;
+
+    private JdkHttpCloudinary cloudinaryUnderTest;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        mockWebServer = new MockWebServer();
+        mockWebServer.start();
+        cloudinaryUnderTest = new JdkHttpCloudinary(Map.of(
+                "cloud_name", "magikahl",
+                "api_key", "key",
+                "api_secret", "secret",
+                "upload_prefix", mockWebServer.url("/").toString().replaceFirst("/$", "")));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    void uploadTest_whenRemoteUrlProvided_thenPostSignedMultipartForm() throws Exception {
+        // ARRANGE
+        String imageUrl = "https://example.com/image.png";
+        mockWebServer.enqueue(new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .setBody("""
+                        {"secure_url": "https://res.cloudinary.com/magikahl/image/upload/v1/promptwhispers_test/1.png"}
+                        """));
+
+        // ACT
+        Map<?, ?> response = cloudinaryUnderTest.uploader().upload(imageUrl, Map.of(
+                "resource_type", "auto",
+                "public_id", "1",
+                "folder", "promptwhispers_test"));
+
+        // ASSERT
+        assertEquals("https://res.cloudinary.com/magikahl/image/upload/v1/promptwhispers_test/1.png", response.get("secure_url"));
+
+        RecordedRequest request = mockWebServer.takeRequest();
+        String body = request.getBody().readUtf8();
+        assertEquals("POST", request.getMethod());
+        assertEquals("/v1_1/magikahl/auto/upload", request.getPath());
+        assertTrue(request.getHeader(HttpHeaders.CONTENT_TYPE).startsWith("multipart/form-data; boundary="));
+        assertTrue(body.contains("name=\"file\"\r\nContent-Type: text/plain; charset=UTF-8\r\n\r\n" + imageUrl + "\r\n"));
+        assertTrue(body.contains("name=\"public_id\""));
+        assertTrue(body.contains("name=\"api_key\""));
+        assertTrue(body.contains("name=\"signature\""));
+    }
+
+    @Test
+    void uploadTest_whenLocalFileProvided_thenStreamItIntoMultipartForm(@TempDir Path tempDir) throws Exception {
+        // ARRANGE
+        Path imageFile = Files.writeString(tempDir.resolve("image.png"), "not really a png");
+        mockWebServer.enqueue(new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .setBody("""
+                        {"secure_url": "https://res.cloudinary.com/magikahl/image/upload/v1/promptwhispers_test/1.png"}
+                        """));
+
+        // ACT
+        cloudinaryUnderTest.uploader().upload(imageFile.toFile(), Map.of("public_id", "1"));
+
+        // ASSERT
+        RecordedRequest request = mockWebServer.takeRequest();
+        String body = request.getBody().readUtf8();
+        assertTrue(body.contains("name=\"file\"; filename=\"image.png\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\nnot really a png\r\n"));
+        assertTrue(body.contains("name=\"public_id\""));
+        assertTrue(body.endsWith("--\r\n"));
+        assertEquals(Long.toString(request.getBodySize()), request.getHeader(HttpHeaders.CONTENT_LENGTH));
+    }
+
+    @Test
+    void uploadTest_whenTimeoutIsGiven_thenWaitThatManySeconds() throws Exception {
+        // ARRANGE
+        mockWebServer.enqueue(new MockResponse()
+                .setHeadersDelay(300, TimeUnit.MILLISECONDS)
+                .addHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .setBody("""
+                        {"secure_url": "https://res.cloudinary.com/magikahl/image/upload/v1/promptwhispers_test/1.png"}
+                        """));
+
+        // ACT
+        Map<?, ?> response = cloudinaryUnderTest.uploader().upload("https://example.com/image.png",
+                Map.of("public_id", "1", "timeout", 2));
+
+        // ASSERT
+        assertEquals("https://res.cloudinary.com/magikahl/image/upload/v1/promptwhispers_test/1.png", response.get("secure_url"));
+    }
+
+    @Test
+    void uploadTest_whenCloudinaryAnswersWithError_thenThrowException() {
+        // ARRANGE
+        mockWebServer.enqueue(new MockResponse()
+                .setResponseCode(400)
+                .addHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .setBody("""
+                        {"error": {"message": "Invalid image file"}}
+                        """));
+
+        // ACT
+        Exception exception = assertThrows(RuntimeException.class,
+                () -> cloudinaryUnderTest.uploader().upload("https://example.com/broken.png", Map.of()));
+
+        // ASSERT
+        assertEquals("Invalid image file", exception.getMessage());
+    }
+}
@@ -3,6 +3,7 @@ package in.kahl.promptwhispers.service;
 import in.kahl.promptwhispers.model.Lobby;
 import in.kahl.promptwhispers.model.User;
 import in.kahl.promptwhispers.repo.LobbyRepo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.function.Executable;
@@ -11,6 +12,7 @@ import org.mockito.Mockito;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.oauth2.core.user.OAuth2User;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
@@ -26,7 +28,7 @@ class LobbyServiceTest {
 
     @BeforeEach
     void setUp() {
-        serviceUnderTest = new LobbyService(lobbyRepo, userService);
+        serviceUnderTest = new LobbyService(lobbyRepo, userService, new RetryingUpdateExecutor(new SimpleMeterRegistry(), 10), new DocumentVersions(Duration.ofSeconds(10)));
     }
 
     @Test
@@ -0,0 +1,108 @@
+package in.kahl.promptwhispers.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalImageStoreTest {
+    // The signature of a PNG file.
+    private static final byte[] IMAGE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 1, 2, 3};
+
+    private static final String IMAGE_HASH = "7f47b756761a46e6d4a4d96f0d8a4448f8449235009d1f3ad1493f5c773c19e8";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @TempDir
+    private Path directory;
+
+    private MockWebServer mockWebServer;
+
+    private LocalImageStore storeUnderTest;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        mockWebServer = new MockWebServer();
+        mockWebServer.start();
+        storeUnderTest = new LocalImageStore(meterRegistry, directory, Duration.ofSeconds(5));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    void uploadImageTest_whenRemoteUrlProvided_thenStoreImageUnderItsHash() throws IOException {
+        // ARRANGE
+        mockWebServer.enqueue(new MockResponse().setBody(new Buffer().write(IMAGE)));
+
+        // ACT
+        String imageUrl = storeUnderTest.uploadImage(mockWebServer.url("/image.png").toString());
+
+        // ASSERT
+        String hash = imageUrl.substring(LocalImageStore.URL_PREFIX.length());
+        Path expectedPath = directory.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+        assertEquals(LocalImageStore.URL_PREFIX + IMAGE_HASH, imageUrl);
+        assertArrayEquals(IMAGE, Files.readAllBytes(expectedPath));
+        assertEquals(new LocalImageStore.StoredImage(hash, expectedPath, IMAGE.length, MediaType.IMAGE_PNG),
+                storeUnderTest.findImage(hash).orElseThrow());
+    }
+
+    @Test
+    void uploadImageTest_whenSameImageIsStoredTwice_thenKeepOneCopy() throws IOException {
+        // ARRANGE
+        Path file = Files.write(Files.createTempFile(directory, "dalle-", ".png"), IMAGE);
+        mockWebServer.enqueue(new MockResponse().setBody(new Buffer().write(IMAGE)));
+        String firstUrl = storeUnderTest.uploadImage(mockWebServer.url("/image.png").toString());
+
+        // ACT
+        String secondUrl = storeUnderTest.uploadImage(file);
+
+        // ASSERT
+        assertEquals(firstUrl, secondUrl);
+        assertEquals(1, meterRegistry.get("promptwhispers.images.store.local.stored").counter().count());
+        assertEquals(1, meterRegistry.get("promptwhispers.images.store.local.deduplicated").counter().count());
+        try (Stream<Path> incoming = Files.list(directory.resolve("incoming"))) {
+            assertEquals(0, incoming.count());
+        }
+    }
+
+    @Test
+    void uploadImageTest_whenDownloadFails_thenKeepRemoteUrl() {
+        // ARRANGE
+        String remoteUrl = mockWebServer.url("/expired.png").toString();
+        mockWebServer.enqueue(new MockResponse().setResponseCode(403));
+
+        // ACT
+        String imageUrl = storeUnderTest.uploadImage(remoteUrl);
+
+        // ASSERT
+        assertEquals(remoteUrl, imageUrl);
+    }
+
+    @Test
+    void findImageTest_whenHashIsNoHash_thenReturnEmpty() {
+        // ACT
+        Optional<LocalImageStore.StoredImage> image = storeUnderTest.findImage("../../../etc/passwd");
+
+        // ASSERT
+        assertTrue(image.isEmpty());
+    }
+}
@@ -0,0 +1,103 @@
+package in.kahl.promptwhispers.service;
+
+import in.kahl.promptwhispers.model.Lobby;
+import in.kahl.promptwhispers.model.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetryingUpdateExecutorTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private RetryingUpdateExecutor executorUnderTest;
+
+    @BeforeEach
+    void setUp() {
+        executorUnderTest = new RetryingUpdateExecutor(meterRegistry, 3);
+    }
+
+    private Lobby storedLobby(User host, long version, User... players) {
+        List<User> allPlayers = new ArrayList<>(List.of(host));
+        allPlayers.addAll(List.of(players));
+        return new Lobby("1", host, allPlayers, null, false, false, Instant.EPOCH, version);
+    }
+
+    @Test
+    void updateTest_whenWriteSucceeds_thenApplyTransitionOnce() {
+        // ARRANGE
+        User host = new User("host@example.com");
+        User player = new User("player@example.com");
+        AtomicInteger writes = new AtomicInteger();
+
+        // ACT
+        Lobby actual = executorUnderTest.update("lobby",
+                () -> storedLobby(host, 0),
+                lobby -> lobby.withPlayer(player),
+                lobby -> {
+                    writes.incrementAndGet();
+                    return lobby;
+                });
+
+        // ASSERT
+        assertEquals(List.of(host, player), actual.players());
+        assertEquals(1, writes.get());
+        assertEquals(0, meterRegistry.counter("promptwhispers.updates.conflicts", "entity", "lobby").count());
+    }
+
+    @Test
+    void updateTest_whenConcurrentWriteHappened_thenReapplyTransitionToLatestVersion() {
+        // ARRANGE
+        User host = new User("host@example.com");
+        User concurrentPlayer = new User("concurrent@example.com");
+        User player = new User("player@example.com");
+        AtomicInteger loads = new AtomicInteger();
+
+        // ACT
+        Lobby actual = executorUnderTest.update("lobby",
+                storedLobby(host, 0),
+                () -> {
+                    loads.incrementAndGet();
+                    return storedLobby(host, 1, concurrentPlayer);
+                },
+                lobby -> lobby.withPlayer(player),
+                lobby -> {
+                    if (lobby.version() == 0) {
+                        throw new OptimisticLockingFailureException("Lobby has been modified.");
+                    }
+                    return lobby;
+                });
+
+        // ASSERT
+        assertEquals(List.of(host, concurrentPlayer, player), actual.players());
+        assertEquals(1, loads.get());
+        assertEquals(1, meterRegistry.counter("promptwhispers.updates.conflicts", "entity", "lobby").count());
+        assertEquals(1, meterRegistry.counter("promptwhispers.updates.retries", "entity", "lobby").count());
+    }
+
+    @Test
+    void updateTest_whenConflictsExceedMaxAttempts_thenThrowException() {
+        // ARRANGE
+        User host = new User("host@example.com");
+
+        // ACT
+        Executable executable = () -> executorUnderTest.update("lobby",
+                () -> storedLobby(host, 0),
+                lobby -> lobby,
+                lobby -> {
+                    throw new OptimisticLockingFailureException("Lobby has been modified.");
+                });
+
+        // ASSERT
+        assertThrows(OptimisticLockingFailureException.class, executable);
+        assertEquals(3, meterRegistry.counter("promptwhispers.updates.conflicts", "entity", "lobby").count());
+        assertEquals(2, meterRegistry.counter("promptwhispers.updates.retries", "entity", "lobby").count());
+    }
+}
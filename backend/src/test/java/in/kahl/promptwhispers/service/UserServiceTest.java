@@ -5,6 +5,7 @@ import in.kahl.promptwhispers.model.Game;
 import in.kahl.promptwhispers.model.User;
 import in.kahl.promptwhispers.model.dto.UserResponse;
 import in.kahl.promptwhispers.repo.UserRepo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.function.Executable;
@@ -25,7 +26,7 @@ class UserServiceTest {
 
     @BeforeEach
     void setUp() {
-        serviceUnderTest = new UserService(userRepo);
+        serviceUnderTest = new UserService(userRepo, new RetryingUpdateExecutor(new SimpleMeterRegistry(), 10));
     }
 
     @Test
@@ -28,6 +28,13 @@ export default function GameHistory() {
     return 0;
   };
 
+  const getContactSheetUrl = (rounds: Turn[][]): string | undefined => {
+    const imageTurns = (rounds[0] ?? []).filter(
+      (turn) => turn.type === "IMAGE" && turn.variants,
+    );
+    return imageTurns[imageTurns.length - 1]?.variants?.contactSheetUrl;
+  };
+
   useEffect(() => {
     getGames();
   }, []);
@@ -47,6 +54,9 @@ export default function GameHistory() {
             <th scope="col" className="px-6 py-3">
               Game
             </th>
+            <th scope="col" className="px-6 py-3">
+              Preview
+            </th>
             <th scope="col" className="px-6 py-3">
               Turns
             </th>
@@ -71,6 +81,16 @@ export default function GameHistory() {
               >
                 {game.id}
               </th>
+              <td className="px-6 py-4">
+                {getContactSheetUrl(game.rounds) && (
+                  <img
+                    src={getContactSheetUrl(game.rounds)}
+                    className="h-12 w-12 rounded"
+                    loading="lazy"
+                    alt="Contact sheet"
+                  />
+                )}
+              </td>
               <td className="px-6 py-4">{getTurns(game.rounds)}</td>
               <td className="px-6 py-4">
                 {game.gameState === "FINISHED" ? "Yes" : "Not finished"}
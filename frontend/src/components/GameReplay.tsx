@@ -82,24 +82,14 @@ export default function GameReplay() {
                     <div className="flex items-start gap-2.5">
                       <img
                         className="h-12 w-12 rounded-full"
-                        src={
-                          game.players
-                            .filter((user) => user?.id === turn.player?.id)
-                            .pop()?.profilePicUrl
-                        }
+                        src={game.players[turn.playerIndex]?.profilePicUrl}
                         alt="Profile Pic"
                       />
                       <div className="flex flex-col gap-1">
                         <div className="leading-1.5 flex w-full flex-col rounded-e-2xl rounded-es-2xl border-gray-200 bg-gray-50 p-4">
                           <div className="mb-2 flex items-center space-x-2">
                             <span className="text-sm font-semibold text-gray-900">
-                              {
-                                game.players
-                                  .filter(
-                                    (user) => user?.id === turn.player?.id,
-                                  )
-                                  .pop()?.email
-                              }
+                              {game.players[turn.playerIndex]?.email}
                             </span>
                           </div>
                           {isLoading && index === visibleCount - 1 ? (
@@ -133,6 +123,7 @@ export default function GameReplay() {
                               <img
                                 src={turn.content}
                                 className="rounded-2xl"
+                                loading="lazy"
                                 alt="generated"
                               />
                             )}
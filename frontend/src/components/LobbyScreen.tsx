@@ -15,6 +15,7 @@ export default function LobbyScreen(props: LobbyScreenProps) {
   const params = useParams();
   const lobbyId: string | undefined = params.lobbyId;
   const [lobby, setLobby] = useState<Lobby | undefined | null>(undefined);
+  const [autoGenerateImages, setAutoGenerateImages] = useState<boolean>(false);
   const navigate = useNavigate();
 
   const joinLobby = () => {
@@ -33,7 +34,7 @@ export default function LobbyScreen(props: LobbyScreenProps) {
 
   const startGame = () => {
     axios
-        .post<Game>(`/api/games`, lobby)
+        .post<Game>(`/api/games`, lobby, {params: {autoGenerateImages}})
         .then((response) => navigate(`/play/${response.data.id}`));
   };
 
@@ -93,6 +94,16 @@ export default function LobbyScreen(props: LobbyScreenProps) {
         lobby?.players.some(
           (player) => player?.id === props.loggedInUser?.id,
         ) && <Button onClick={leaveLobby}>Leave</Button>}
+      {lobby?.host?.id === props.loggedInUser?.id && (
+        <label className="flex items-center gap-2 font-light">
+          <input
+            type="checkbox"
+            checked={autoGenerateImages}
+            onChange={(event) => setAutoGenerateImages(event.target.checked)}
+          />
+          generate images right after each prompt
+        </label>
+      )}
       {lobby?.host?.id === props.loggedInUser?.id && (
         <div className="flex w-full flex-col items-center justify-between gap-y-3 sm:flex-row sm:justify-between sm:gap-x-5">
           <div className="w-full">
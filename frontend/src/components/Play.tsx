@@ -1,4 +1,4 @@
-import {ChangeEvent, FormEvent, KeyboardEvent, useEffect, useState,} from "react";
+import {ChangeEvent, FormEvent, KeyboardEvent, useCallback, useEffect, useState,} from "react";
 import {useNavigate, useParams} from "react-router-dom";
 import axios from "axios";
 import {Turn} from "../types/Turn.ts";
@@ -6,6 +6,7 @@ import Button from "../ui-components/Button.tsx";
 import Spinner from "../ui-components/Spinner.tsx";
 import ImagePlaceholder from "../ui-components/ImagePlaceholder.tsx";
 import {Game} from "../types/Game.ts";
+import {ImageJob} from "../types/ImageJob.ts";
 import {User} from "../types/User.ts";
 import {getNumberOfCompletedImageTurns} from "../libs/gameHelper.ts";
 
@@ -24,6 +25,10 @@ export default function Play(props: PlayProps) {
     const [shouldPoll, setShouldPoll] = useState<boolean>(true);
     const [isGameRunning, setIsGameRunning] = useState<boolean>(true);
     const [isImageLoaded, setIsImageLoaded] = useState<boolean>(false);
+    const [imageJobUrl, setImageJobUrl] = useState<string | null>(null);
+    const [isImageJobFailed, setIsImageJobFailed] = useState<boolean>(false);
+    const [imageJobError, setImageJobError] = useState<string | null>(null);
+    const [imageJobRetryAt, setImageJobRetryAt] = useState<string | null>(null);
     const navigate = useNavigate();
 
     const onPromptChange = (event: ChangeEvent<HTMLTextAreaElement>) => {
@@ -40,6 +45,8 @@ export default function Play(props: PlayProps) {
             })
             .then((response) => {
                 setGame(response.data);
+                // With automatic image generation the server has already started the job and this request joins it.
+                // It still has to be sent, as it starts a new job if the automatic one was rejected or has failed.
                 requestImageGeneration();
             });
     };
@@ -52,11 +59,20 @@ export default function Play(props: PlayProps) {
         }
     };
 
-    const requestImageGeneration = () => {
+    // The image is generated in the background. Its turn arrives through the game's event stream, the job is only
+    // followed to find out whether the generation has failed.
+    const requestImageGeneration = useCallback(() => {
+        setIsImageJobFailed(false);
+        setImageJobError(null);
+        setImageJobRetryAt(null);
         axios
-            .post<Game>(`/api/games/${gameId}/generateImage`)
-            .then((response) => setGame(response.data));
-    };
+            .post<ImageJob>(`/api/games/${gameId}/generateImage`)
+            .then((response) => {
+                const location = response.headers["location"] as string | undefined;
+                setImageJobUrl(location ?? `/api/games/${gameId}/imageJobs/${response.data.id}`);
+            })
+            .catch(() => setIsImageJobFailed(true));
+    }, [gameId]);
 
     const getLastImage = (): Turn | undefined => {
         if (game && roundIndex >= 0) {
@@ -82,26 +98,64 @@ export default function Play(props: PlayProps) {
     };
 
     useEffect(() => {
+        if (!shouldPoll || !isGameRunning) {
+            return;
+        }
+
+        // The server sends the current game right away and then every change of it.
+        // EventSource reconnects on its own and resumes from the last received version.
+        const events = new EventSource(`/api/games/${gameId}/events`);
+        events.addEventListener("game", (event: MessageEvent<string>) => {
+            setGame(JSON.parse(event.data) as Game);
+        });
+
+        return () => {
+            events.close();
+        };
+    }, [gameId, shouldPoll, isGameRunning]);
+
+    useEffect(() => {
+        if (!imageJobUrl) {
+            return;
+        }
+
         const interval = setInterval(() => {
-            const getGame = () => {
-                axios
-                    .get<Game>(`/api/games/${gameId}`)
-                    .then((response) => setGame(response.data));
-            };
-
-            if (shouldPoll) {
-                getGame();
-            }
-        }, 5000);
+            axios
+                .get<ImageJob>(imageJobUrl)
+                .then((response) => {
+                    if (response.data.status === "SUCCEEDED") {
+                        setImageJobUrl(null);
+                    } else if (response.data.status === "FAILED") {
+                        setImageJobUrl(null);
+                        setIsImageJobFailed(true);
+                        setImageJobError(response.data.error);
+                        setImageJobRetryAt(response.data.retryAt);
+                    }
+                })
+                .catch(() => {
+                    // Finished jobs expire after a while, the image turn has arrived by then.
+                    setImageJobUrl(null);
+                });
+        }, 1000);
 
-        if (!isGameRunning) {
+        return () => {
             clearInterval(interval);
+        };
+    }, [imageJobUrl]);
+
+    // DALL-E was busy, the job tells when it is worth asking again.
+    useEffect(() => {
+        if (!imageJobRetryAt) {
+            return;
         }
 
+        const timeout = setTimeout(requestImageGeneration,
+            Math.max(0, new Date(imageJobRetryAt).getTime() - Date.now()));
+
         return () => {
-            clearInterval(interval);
+            clearTimeout(timeout);
         };
-    }, [gameId, shouldPoll, isGameRunning]);
+    }, [imageJobRetryAt, requestImageGeneration]);
 
     // update the page based on the game's state
     useEffect(() => {
@@ -157,6 +211,14 @@ export default function Play(props: PlayProps) {
             {!isImageLoaded && game.rounds[roundIndex].length < 1 && (
                 <div className="aspect-square h-96 sm:h-144"></div>
             )}
+            {isImageJobFailed && !isGameFinished() && (
+                <div className="flex flex-col items-center gap-y-3">
+                    <p className="text-xl">{imageJobError ?? "The image could not be generated."}</p>
+                    {imageJobRetryAt
+                        ? <p>Trying again at {new Date(imageJobRetryAt).toLocaleTimeString()}.</p>
+                        : <Button onClick={requestImageGeneration}>Try again</Button>}
+                </div>
+            )}
             {!isGameFinished() && (
                 <div className="w-full items-center">
                     <form
@@ -6,6 +6,7 @@ export type Game = {
   rounds: Turn[][];
   players: User[];
   createdAt: Date;
+  autoGenerateImages: boolean;
   gameState: | "NEW"
       | "REQUEST_NEW_PROMPTS"
       | "WAIT_FOR_PROMPTS"
@@ -0,0 +1,12 @@
+export type ImageJob = {
+  id: string;
+  gameId: string;
+  playerId: string;
+  promptId: string;
+  status: "QUEUED" | "RUNNING" | "SUCCEEDED" | "FAILED";
+  createdAt: Date;
+  startedAt: Date | null;
+  finishedAt: Date | null;
+  error: string | null;
+  retryAt: string | null;
+};
@@ -1,9 +1,13 @@
-import { User } from "./User.ts";
-
 export type Turn = {
   id: string;
   type: "PROMPT" | "IMAGE";
   content: string;
-  player: User;
+  playerIndex: number;
   createdAt: Date;
+  variants: ImageVariants | null;
+};
+
+export type ImageVariants = {
+  thumbnailUrl: string;
+  contactSheetUrl: string;
 };